@@ -0,0 +1,44 @@
+package com.trinofed.parser.config;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Negotiates per-message compression (permessage-deflate) with clients that offer it.
+ * <p>
+ * The default handler only accepts a requested extension that equals a supported one including
+ * its parameters, while browsers offer {@code permessage-deflate; client_max_window_bits} and the
+ * container lists the bare extension, so compression was never agreed on. Extensions are matched
+ * by name here and the container negotiates the parameters. With compression disabled,
+ * permessage-deflate is declined.
+ */
+public class CompressionHandshakeHandler extends DefaultHandshakeHandler {
+
+    static final String PER_MESSAGE_DEFLATE = "permessage-deflate";
+
+    private final boolean compressionEnabled;
+
+    public CompressionHandshakeHandler(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    @Override
+    protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                 List<WebSocketExtension> requestedExtensions,
+                                                                 List<WebSocketExtension> supportedExtensions) {
+        List<WebSocketExtension> accepted = new ArrayList<>(requestedExtensions.size());
+        for (WebSocketExtension requested : requestedExtensions) {
+            if (!compressionEnabled && PER_MESSAGE_DEFLATE.equals(requested.getName())) {
+                continue;
+            }
+            if (supportedExtensions.stream().anyMatch(supported -> supported.getName().equals(requested.getName()))) {
+                accepted.add(requested);
+            }
+        }
+        return accepted;
+    }
+}
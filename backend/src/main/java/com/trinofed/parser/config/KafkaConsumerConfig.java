@@ -1,5 +1,9 @@
 package com.trinofed.parser.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.consumer.IngestHandoffQueue;
+import com.trinofed.parser.consumer.TrinoEventDeserializer;
+import com.trinofed.parser.model.QueryEvent;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,6 +13,7 @@ import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -23,23 +28,51 @@ public class KafkaConsumerConfig {
     @Value("${spring.kafka.consumer.group-id}")
     private String groupId;
 
+    @Value("${trino.kafka.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${trino.kafka.listener-concurrency:1}")
+    private int listenerConcurrency;
+
+    @Value("${trino.kafka.commit.interval-ms:5000}")
+    private long commitIntervalMs;
+
+    private final ObjectMapper objectMapper;
+    private final IngestHandoffQueue handoffQueue;
+
+    public KafkaConsumerConfig(ObjectMapper objectMapper, IngestHandoffQueue handoffQueue) {
+        this.objectMapper = objectMapper;
+        this.handoffQueue = handoffQueue;
+    }
+
     @Bean
-    public ConsumerFactory<String, String> consumerFactory() {
+    public ConsumerFactory<String, QueryEvent> consumerFactory() {
         Map<String, Object> props = new HashMap<>();
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
-        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, true);
-        return new DefaultKafkaConsumerFactory<>(props);
+        // Offsets are committed by OffsetCommitCoordinator once events have been applied
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        // Values are streamed straight from the record bytes into QueryEvent
+        return new DefaultKafkaConsumerFactory<>(props,
+                new StringDeserializer(), new TrinoEventDeserializer(objectMapper));
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, String> kafkaListenerContainerFactory() {
-        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+    public ConcurrentKafkaListenerContainerFactory<String, QueryEvent> kafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, QueryEvent> factory =
             new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(consumerFactory());
+        // Deliver each poll as a List so trees are rebuilt once per query per batch
+        factory.setBatchListener(true);
+        factory.setConcurrency(listenerConcurrency);
+        // The container never commits on its own; the coordinator commits applied offsets in
+        // batches, on rebalance and when the consumer goes idle
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        // Drains the hand-off queue before revoked partitions are committed and handed over
+        factory.getContainerProperties().setConsumerRebalanceListener(handoffQueue);
+        factory.getContainerProperties().setIdleEventInterval(commitIntervalMs);
         return factory;
     }
 }
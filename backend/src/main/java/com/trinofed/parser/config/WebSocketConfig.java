@@ -1,15 +1,40 @@
 package com.trinofed.parser.config;
 
+import com.trinofed.parser.service.OutboundSessionMonitor;
+import com.trinofed.parser.service.PayloadEncodingNegotiator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final OutboundSessionMonitor sessionMonitor;
+    private final PayloadEncodingNegotiator encodingNegotiator;
+
+    // Sessions whose buffered messages or single write exceed these are closed
+    @Value("${trino.websocket.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${trino.websocket.send-time-limit-ms:10000}")
+    private int sendTimeLimitMs;
+
+    @Value("${trino.websocket.compression.enabled:true}")
+    private boolean compressionEnabled;
+
+    @Autowired
+    public WebSocketConfig(OutboundSessionMonitor sessionMonitor, PayloadEncodingNegotiator encodingNegotiator) {
+        this.sessionMonitor = sessionMonitor;
+        this.encodingNegotiator = encodingNegotiator;
+    }
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         config.enableSimpleBroker("/topic");
@@ -18,12 +43,37 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
+        CompressionHandshakeHandler handshakeHandler = new CompressionHandshakeHandler(compressionEnabled);
         registry.addEndpoint("/ws")
+                .setHandshakeHandler(handshakeHandler)
                 .setAllowedOrigins(
                     "http://localhost:5173",
                     "http://localhost:3000",
                     "http://localhost:3001"
                 )
                 .withSockJS();
+
+        // Plain WebSocket, for clients that negotiate binary (CBOR) payloads
+        registry.addEndpoint("/ws-binary")
+                .setHandshakeHandler(handshakeHandler)
+                .addInterceptors(encodingNegotiator.binaryFramesInterceptor())
+                .setAllowedOrigins(
+                    "http://localhost:5173",
+                    "http://localhost:3000",
+                    "http://localhost:3001"
+                );
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMs)
+                .addDecoratorFactory(sessionMonitor::decorate);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Drop for lagging sessions before spending time on encoding
+        registration.interceptors(sessionMonitor, encodingNegotiator);
     }
 }
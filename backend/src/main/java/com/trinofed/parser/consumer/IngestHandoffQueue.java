@@ -0,0 +1,380 @@
+package com.trinofed.parser.consumer;
+
+import com.trinofed.parser.journal.JournalService;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.service.EventIngestionPipeline;
+import com.trinofed.parser.service.QueryEventService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded hand-off between the Kafka listener and event processing.
+ * <p>
+ * The listener only enqueues each polled batch and returns, so slow processing (plan parsing,
+ * WebSocket fan-out) never holds up the poll loop and never pushes it past max.poll.interval.
+ * A single dispatcher thread journals and applies batches in order. When the number of queued
+ * events reaches the high-water mark the listener container is paused, which keeps the consumer
+ * in the group (it still polls and heartbeats) without fetching more records; it is resumed
+ * once the queue has drained to the low-water mark.
+ * <p>
+ * A batch that fails to apply is retried with exponential backoff before any later batch is
+ * applied, so offsets never become committable past a batch whose events were not applied
+ * (at-least-once). While it keeps failing the queue fills up and consumption pauses. After
+ * {@code trino.ingest.retry.max-attempts} attempts the batch is skipped: it is logged and
+ * counted, and its offsets are committed so consumption moves on past it.
+ * <p>
+ * Also acts as the container's rebalance listener: before partitions are revoked it waits for
+ * the queue to drain, so the previous owner commits everything it applied.
+ * <p>
+ * Batches polled while a consumer is far behind the head of its partitions are marked as
+ * replay. The dispatcher applies them in the query service's catch-up mode and leaves it once
+ * no consumer is replaying any more, which broadcasts one consolidated snapshot.
+ */
+@Slf4j
+@Component
+public class IngestHandoffQueue implements ConsumerAwareRebalanceListener {
+
+    private final EventIngestionPipeline ingestionPipeline;
+    private final QueryEventService queryEventService;
+    private final JournalService journalService;
+    private final OffsetCommitCoordinator commitCoordinator;
+    private final ObjectProvider<KafkaListenerEndpointRegistry> listenerRegistry;
+    private final int capacity;
+    private final int highWater;
+    private final int lowWater;
+    private final long drainTimeoutMs;
+
+    @Value("${trino.ingest.retry.initial-backoff-ms:100}")
+    private long retryBackoffMs = 100;
+
+    @Value("${trino.ingest.retry.max-backoff-ms:5000}")
+    private long maxRetryBackoffMs = 5000;
+
+    @Value("${trino.ingest.retry.max-attempts:10}")
+    private int maxAttempts = 10;
+
+    private final Deque<PendingBatch> queue = new ArrayDeque<>();
+    private final Thread dispatcher;
+    private int queuedEvents;
+    private boolean inFlight;
+    private boolean running = true;
+    // Consumers whose latest applied batch was a replay; only touched by the dispatcher
+    private final Set<Consumer<?, ?>> replayingConsumers = new HashSet<>();
+
+    // Metrics, guarded by this
+    private boolean paused;
+    private long pausedSince;
+    private long totalPausedMillis;
+    private long pauseCount;
+    private int maxQueuedEvents;
+    private long appliedBatches;
+    // Failed attempts; each is retried until the batch is skipped
+    private long failedBatches;
+    private long skippedBatches;
+    private long skippedRecords;
+    private long catchUps;
+    private long catchUpStartMillis;
+    private long lastCatchUpMillis;
+
+    @Autowired
+    public IngestHandoffQueue(EventIngestionPipeline ingestionPipeline, QueryEventService queryEventService,
+                              JournalService journalService,
+                              OffsetCommitCoordinator commitCoordinator,
+                              ObjectProvider<KafkaListenerEndpointRegistry> listenerRegistry,
+                              @Value("${trino.ingest.queue.capacity:20000}") int capacity,
+                              @Value("${trino.ingest.queue.high-water:10000}") int highWater,
+                              @Value("${trino.ingest.queue.low-water:2000}") int lowWater,
+                              @Value("${trino.ingest.queue.drain-timeout-ms:30000}") long drainTimeoutMs) {
+        this.ingestionPipeline = ingestionPipeline;
+        this.queryEventService = queryEventService;
+        this.journalService = journalService;
+        this.commitCoordinator = commitCoordinator;
+        this.listenerRegistry = listenerRegistry;
+        this.capacity = Math.max(1, capacity);
+        this.highWater = Math.min(Math.max(1, highWater), this.capacity);
+        this.lowWater = Math.min(Math.max(0, lowWater), this.highWater);
+        this.drainTimeoutMs = drainTimeoutMs;
+
+        this.dispatcher = new Thread(this::dispatchLoop, "ingest-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Queues a polled batch for processing, pausing the listener once the high-water mark is
+     * reached. Blocks only if the queue is at full capacity despite the pause.
+     *
+     * @param consumer the polling consumer, whose offsets are committed once the batch is applied
+     * @param records  all records of the poll, including ones without a parseable value
+     * @param events   the parsed events of those records
+     * @param replay   whether the consumer was still far behind the head when it polled them
+     */
+    public void submit(Consumer<?, ?> consumer, List<ConsumerRecord<String, QueryEvent>> records,
+                       List<QueryEvent> events, boolean replay) throws InterruptedException {
+        int size = Math.max(1, events.size());
+        synchronized (this) {
+            // A batch larger than the whole capacity is admitted into an empty queue
+            while (running && queuedEvents > 0 && queuedEvents + size > capacity) {
+                wait();
+            }
+            queue.addLast(new PendingBatch(consumer, records, events, size, replay));
+            queuedEvents += size;
+            maxQueuedEvents = Math.max(maxQueuedEvents, queuedEvents);
+            if (!paused && queuedEvents >= highWater) {
+                paused = true;
+                pausedSince = System.currentTimeMillis();
+                pauseCount++;
+                log.info("Ingest queue at {} events (high-water {}), pausing Kafka consumption", queuedEvents, highWater);
+                // Only flags the container; the consumer stops fetching on its next poll
+                container(MessageListenerContainer::pause);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * A consumer with nothing left to fetch has caught up even if its last batch was a replay,
+     * e.g. when the backlog ended exactly at a poll boundary. While consumption is paused the
+     * queue still holds its backlog, so the idle consumer is not caught up yet.
+     */
+    @EventListener
+    public synchronized void onIdle(ListenerContainerIdleEvent event) {
+        Consumer<?, ?> consumer = event.getConsumer();
+        if (consumer != null && !paused && queryEventService.isCatchingUp()) {
+            queue.addLast(new PendingBatch(consumer, List.of(), List.of(), 0, false));
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every queued batch has been applied, or the timeout has passed.
+     *
+     * @return true if the queue is empty
+     */
+    public boolean awaitDrained(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            while (queuedEvents > 0 || inFlight) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        try {
+            if (!awaitDrained(drainTimeoutMs)) {
+                log.warn("Ingest queue did not drain within {} ms before partitions were revoked", drainTimeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commitCoordinator.onPartitionsRevokedBeforeCommit(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        commitCoordinator.onPartitionsLost(consumer, partitions);
+    }
+
+    /**
+     * Queue depth, pause state and throughput counters.
+     */
+    public synchronized Map<String, Object> getStats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queuedEvents", queuedEvents);
+        stats.put("queuedBatches", queue.size());
+        stats.put("maxQueuedEvents", maxQueuedEvents);
+        stats.put("capacity", capacity);
+        stats.put("highWater", highWater);
+        stats.put("lowWater", lowWater);
+        stats.put("paused", paused);
+        stats.put("pauseCount", pauseCount);
+        stats.put("pausedMillis", totalPausedMillis + (paused ? now - pausedSince : 0));
+        stats.put("appliedBatches", appliedBatches);
+        stats.put("failedBatches", failedBatches);
+        stats.put("skippedBatches", skippedBatches);
+        stats.put("skippedRecords", skippedRecords);
+        stats.put("catchingUp", queryEventService.isCatchingUp());
+        stats.put("catchUps", catchUps);
+        stats.put("lastCatchUpMillis", lastCatchUpMillis);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        dispatcher.interrupt();
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            PendingBatch batch;
+            synchronized (this) {
+                while (running && queue.isEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                batch = queue.pollFirst();
+                inFlight = true;
+            }
+
+            if (batch.replay() && !queryEventService.isCatchingUp()) {
+                synchronized (this) {
+                    catchUps++;
+                    catchUpStartMillis = System.currentTimeMillis();
+                }
+                queryEventService.beginCatchUp();
+            }
+
+            // Idle markers carry no records and only end catch-up
+            boolean applied = batch.records().isEmpty() || applyWithRetry(batch);
+            if (!applied) {
+                // Shutting down; the batch's offsets stay uncommitted
+                return;
+            }
+
+            if (batch.replay()) {
+                replayingConsumers.add(batch.consumer());
+            } else {
+                replayingConsumers.remove(batch.consumer());
+            }
+            if (replayingConsumers.isEmpty() && queryEventService.isCatchingUp()) {
+                queryEventService.endCatchUp();
+                synchronized (this) {
+                    lastCatchUpMillis = System.currentTimeMillis() - catchUpStartMillis;
+                }
+            }
+
+            synchronized (this) {
+                inFlight = false;
+                queuedEvents -= batch.size();
+                if (!batch.records().isEmpty()) {
+                    appliedBatches++;
+                }
+                if (paused && queuedEvents <= lowWater) {
+                    paused = false;
+                    totalPausedMillis += System.currentTimeMillis() - pausedSince;
+                    log.info("Ingest queue drained to {} events (low-water {}), resuming Kafka consumption", queuedEvents, lowWater);
+                    container(MessageListenerContainer::resume);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Applies the batch, retrying with exponential backoff until it succeeds or has failed
+     * {@code maxAttempts} times, in which case it is skipped.
+     *
+     * @return false if the queue was shut down before the batch could be applied or skipped
+     */
+    private boolean applyWithRetry(PendingBatch batch) {
+        long backoff = Math.max(1, retryBackoffMs);
+        for (int attempt = 1; !apply(batch); attempt++) {
+            synchronized (this) {
+                failedBatches++;
+            }
+            if (attempt >= maxAttempts) {
+                skip(batch, attempt);
+                return true;
+            }
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + backoff;
+                long remaining = backoff;
+                while (running && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (!running) {
+                    return false;
+                }
+            }
+            log.info("Retrying batch of {} events", batch.events().size());
+            backoff = Math.min(backoff * 2, Math.max(1, maxRetryBackoffMs));
+        }
+        return true;
+    }
+
+    /**
+     * Gives up on a batch that keeps failing: its offsets become committable as if it had been
+     * applied, so one bad batch cannot stall consumption for good.
+     */
+    private void skip(PendingBatch batch, int attempts) {
+        synchronized (this) {
+            skippedBatches++;
+            skippedRecords += batch.records().size();
+        }
+        ConsumerRecord<String, QueryEvent> first = batch.records().get(0);
+        ConsumerRecord<String, QueryEvent> last = batch.records().get(batch.records().size() - 1);
+        log.error("Skipping batch of {} records ({}-{} offset {} to {}-{} offset {}) after {} failed attempts",
+                batch.records().size(), first.topic(), first.partition(), first.offset(),
+                last.topic(), last.partition(), last.offset(), attempts);
+        commitCoordinator.batchApplied(batch.consumer(), batch.records());
+    }
+
+    private boolean apply(PendingBatch batch) {
+        try {
+            journalService.appendAndApply(batch.records(), () -> ingestionPipeline.ingest(batch.events()));
+            // Offsets become committable only now that their events have been applied
+            commitCoordinator.batchApplied(batch.consumer(), batch.records());
+            return true;
+        } catch (Exception e) {
+            log.error("Error processing batch of {} events", batch.events().size(), e);
+            return false;
+        }
+    }
+
+    private void container(java.util.function.Consumer<MessageListenerContainer> action) {
+        KafkaListenerEndpointRegistry registry = listenerRegistry.getIfAvailable();
+        MessageListenerContainer container = registry != null
+                ? registry.getListenerContainer(TrinoEventConsumer.LISTENER_ID) : null;
+        if (container != null) {
+            action.accept(container);
+        }
+    }
+
+    private record PendingBatch(Consumer<?, ?> consumer, List<ConsumerRecord<String, QueryEvent>> records,
+                                List<QueryEvent> events, int size, boolean replay) {
+    }
+}
@@ -0,0 +1,204 @@
+package com.trinofed.parser.consumer;
+
+import com.trinofed.parser.journal.JournalService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commits Kafka offsets only for records whose events have been applied.
+ * <p>
+ * Each applied batch is reported from the ingest dispatcher; offsets are accumulated per consumer
+ * and committed together every {@code trino.kafka.commit.batches} batches or
+ * {@code trino.kafka.commit.interval-ms} milliseconds, whichever comes first, as well as when
+ * partitions are revoked and when the consumer goes idle. The journal is flushed before each
+ * commit, so after a crash consumption resumes at most one commit interval back (at-least-once)
+ * instead of from the beginning.
+ * <p>
+ * Kafka consumers are not thread-safe, so commits only happen from the consumer's own thread:
+ * on its next poll ({@link #commitIfDue}), when it is idle, or on a rebalance.
+ */
+@Slf4j
+@Component
+public class OffsetCommitCoordinator implements ConsumerAwareRebalanceListener {
+
+    private final JournalService journalService;
+    private final int commitBatches;
+    private final long commitIntervalMs;
+
+    private final Map<Consumer<?, ?>, PendingOffsets> pending = new ConcurrentHashMap<>();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitFailures = new AtomicLong();
+    private volatile long lastCommitMillis;
+
+    @Autowired
+    public OffsetCommitCoordinator(JournalService journalService,
+                                   @Value("${trino.kafka.commit.batches:20}") int commitBatches,
+                                   @Value("${trino.kafka.commit.interval-ms:5000}") long commitIntervalMs) {
+        this.journalService = journalService;
+        this.commitBatches = Math.max(1, commitBatches);
+        this.commitIntervalMs = commitIntervalMs;
+    }
+
+    /**
+     * Records that the given records have been applied; may be called from any thread.
+     */
+    public void batchApplied(Consumer<?, ?> consumer, Collection<? extends ConsumerRecord<?, ?>> records) {
+        PendingOffsets offsets = pending.computeIfAbsent(consumer, k -> new PendingOffsets(System.currentTimeMillis()));
+        synchronized (offsets) {
+            for (ConsumerRecord<?, ?> record : records) {
+                offsets.offsets.merge(new TopicPartition(record.topic(), record.partition()), record.offset() + 1, Math::max);
+            }
+            offsets.batches++;
+        }
+    }
+
+    /**
+     * Commits the consumer's applied offsets if enough batches or time have accumulated. Must be
+     * called on the consumer's thread.
+     */
+    public void commitIfDue(Consumer<?, ?> consumer) {
+        PendingOffsets offsets = pending.get(consumer);
+        if (offsets == null) {
+            return;
+        }
+        boolean due;
+        synchronized (offsets) {
+            due = offsets.batches >= commitBatches || System.currentTimeMillis() - offsets.since >= commitIntervalMs;
+        }
+        if (due) {
+            commit(consumer, null);
+        }
+    }
+
+    /**
+     * Commits whatever is pending while the consumer has nothing new to deliver.
+     */
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        Consumer<?, ?> consumer = event.getConsumer();
+        if (consumer != null) {
+            commit(consumer, null);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // Hand the partitions over with everything applied so far committed
+        commit(consumer, partitions);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // Commits are no longer possible; the new owner starts from the last committed offsets
+        PendingOffsets offsets = pending.get(consumer);
+        if (offsets != null) {
+            synchronized (offsets) {
+                partitions.forEach(offsets.offsets::remove);
+            }
+        }
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    public long getCommitFailureCount() {
+        return commitFailures.get();
+    }
+
+    public long getLastCommitMillis() {
+        return lastCommitMillis;
+    }
+
+    /**
+     * Number of partitions with applied but not yet committed offsets.
+     */
+    public int getPendingPartitionCount() {
+        int count = 0;
+        for (PendingOffsets offsets : pending.values()) {
+            synchronized (offsets) {
+                count += offsets.offsets.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Commits the pending offsets of a consumer, limited to the given partitions if not null.
+     */
+    private void commit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        PendingOffsets offsets = pending.get(consumer);
+        if (offsets == null) {
+            return;
+        }
+
+        Set<TopicPartition> assignment = consumer.assignment();
+        Map<TopicPartition, OffsetAndMetadata> toCommit = new HashMap<>();
+        synchronized (offsets) {
+            Iterator<Map.Entry<TopicPartition, Long>> iterator = offsets.offsets.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<TopicPartition, Long> entry = iterator.next();
+                if (!assignment.contains(entry.getKey())) {
+                    // Applied after the partition moved to another consumer; not ours to commit
+                    iterator.remove();
+                } else if (partitions == null || partitions.contains(entry.getKey())) {
+                    toCommit.put(entry.getKey(), new OffsetAndMetadata(entry.getValue()));
+                }
+            }
+        }
+        if (toCommit.isEmpty()) {
+            return;
+        }
+
+        try {
+            journalService.flush();
+            consumer.commitSync(toCommit);
+            synchronized (offsets) {
+                // Only drop offsets that were not advanced by batches applied meanwhile
+                toCommit.forEach((partition, committed) -> offsets.offsets.remove(partition, committed.offset()));
+                if (partitions == null) {
+                    offsets.batches = 0;
+                    offsets.since = System.currentTimeMillis();
+                }
+            }
+            commits.incrementAndGet();
+            lastCommitMillis = System.currentTimeMillis();
+            log.debug("Committed offsets {}", toCommit);
+        } catch (KafkaException e) {
+            // Keep the offsets pending; the next commit retries them
+            commitFailures.incrementAndGet();
+            log.warn("Failed to commit offsets for {} partitions: {}", toCommit.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Offsets applied since the last commit of one consumer; guarded by itself.
+     */
+    private static class PendingOffsets {
+        final Map<TopicPartition, Long> offsets = new HashMap<>();
+        int batches;
+        long since;
+
+        PendingOffsets(long since) {
+            this.since = since;
+        }
+    }
+}
@@ -1,54 +1,104 @@
 package com.trinofed.parser.consumer;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.journal.JournalService;
 import com.trinofed.parser.model.QueryEvent;
-import com.trinofed.parser.model.TrinoEventWrapper;
-import com.trinofed.parser.service.QueryEventService;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 @Slf4j
 @Component
-public class TrinoEventConsumer {
+public class TrinoEventConsumer implements ConsumerSeekAware {
+
+    /** Listener container id, used to pause and resume consumption. */
+    public static final String LISTENER_ID = "trino-event-consumer";
 
-    private final ObjectMapper objectMapper;
-    private final QueryEventService queryEventService;
+    private final IngestHandoffQueue handoffQueue;
+    private final JournalService journalService;
+    private final OffsetCommitCoordinator commitCoordinator;
+    private final long catchUpLagThreshold;
 
     @Autowired
-    public TrinoEventConsumer(ObjectMapper objectMapper, QueryEventService queryEventService) {
-        this.objectMapper = objectMapper;
-        this.queryEventService = queryEventService;
+    public TrinoEventConsumer(IngestHandoffQueue handoffQueue, JournalService journalService,
+                              OffsetCommitCoordinator commitCoordinator,
+                              @Value("${trino.ingest.catch-up.lag-threshold:1000}") long catchUpLagThreshold) {
+        this.handoffQueue = handoffQueue;
+        this.journalService = journalService;
+        this.commitCoordinator = commitCoordinator;
+        this.catchUpLagThreshold = catchUpLagThreshold;
     }
 
-    @KafkaListener(topics = "${trino.kafka.topic}", groupId = "${spring.kafka.consumer.group-id}")
-    public void consume(String message) {
-        try {
-            log.debug("Received Kafka message: {}", message);
+    /**
+     * Resumes each assigned partition right after the last journaled record, so restored
+     * events are not consumed twice.
+     */
+    @Override
+    public void onPartitionsAssigned(Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        for (TopicPartition partition : assignments.keySet()) {
+            Long nextOffset = journalService.nextOffset(partition);
+            if (nextOffset != null) {
+                log.info("Resuming {} from journaled offset {}", partition, nextOffset);
+                callback.seek(partition.topic(), partition.partition(), nextOffset);
+            }
+        }
+    }
 
-            // Parse the nested Trino event structure
-            TrinoEventWrapper wrapper = objectMapper.readValue(message, TrinoEventWrapper.class);
+    /**
+     * Receives one poll worth of records and hands them to the {@link IngestHandoffQueue}.
+     * Values are already QueryEvents thanks to {@link TrinoEventDeserializer}; records it could
+     * not parse arrive as null and are skipped. While the consumer is more than
+     * {@code trino.ingest.catch-up.lag-threshold} records behind, batches are handed over as
+     * replay and events are not logged individually.
+     */
+    @KafkaListener(id = LISTENER_ID, topics = "${trino.kafka.topic}", groupId = "${spring.kafka.consumer.group-id}")
+    public void consume(List<ConsumerRecord<String, QueryEvent>> records, Consumer<?, ?> consumer) throws InterruptedException {
+        // Commit what the dispatcher has applied since the last poll; only this thread may
+        commitCoordinator.commitIfDue(consumer);
 
-            // Convert to QueryEvent for processing
-            QueryEvent event = wrapper.toQueryEvent();
+        long lag = currentLag(consumer);
+        boolean replay = catchUpLagThreshold >= 0 && lag > catchUpLagThreshold;
+        log.debug("Received batch of {} Kafka messages, {} records behind", records.size(), lag);
 
+        List<QueryEvent> events = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, QueryEvent> record : records) {
+            QueryEvent event = record.value();
             if (event == null) {
-                log.warn("Failed to convert Trino event to QueryEvent - missing metadata");
-                return;
+                log.warn("Skipping unparseable Trino event at {}-{}@{}",
+                        record.topic(), record.partition(), record.offset());
+                continue;
             }
 
-            log.info("Parsed query event: queryId={}, eventType={}, state={}, query={}",
-                    event.getQueryId(), event.getEventType(), event.getState(),
-                    event.getQuery() != null ? event.getQuery().substring(0, Math.min(50, event.getQuery().length())) : "null");
+            if (!replay) {
+                log.info("Parsed query event: queryId={}, eventType={}, state={}, query={}",
+                        event.getQueryId(), event.getEventType(), event.getState(),
+                        event.getQuery() != null ? event.getQuery().substring(0, Math.min(50, event.getQuery().length())) : "null");
+            }
+
+            events.add(event);
+        }
 
-            queryEventService.processEvent(event);
+        handoffQueue.submit(consumer, records, events, replay);
+    }
 
-        } catch (JsonProcessingException e) {
-            log.error("Failed to parse Kafka message: {}", message, e);
-        } catch (Exception e) {
-            log.error("Error processing event", e);
+    /**
+     * Records between the consumer's position and the end of its assigned partitions, as of the
+     * last fetch; partitions whose lag is not known yet count as caught up.
+     */
+    private long currentLag(Consumer<?, ?> consumer) {
+        long lag = 0;
+        for (TopicPartition partition : consumer.assignment()) {
+            lag += consumer.currentLag(partition).orElse(0);
         }
+        return lag;
     }
 }
@@ -0,0 +1,353 @@
+package com.trinofed.parser.consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.TrinoEventWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kafka value deserializer that turns a raw Trino event listener message directly into a QueryEvent.
+ * <p>
+ * Uses Jackson's streaming API over the record bytes instead of building a String and a full
+ * TrinoEventWrapper first: only the fields QueryEvent needs are read, everything else (including
+ * unknown payload sections) is skipped token-wise. The result matches
+ * {@link TrinoEventWrapper#toQueryEvent()}, except that ioMetadata is exposed as a lightweight map
+ * sharing the inputs list instead of the wrapper POJOs.
+ * <p>
+ * Returns null for messages that cannot be parsed or carry no query metadata.
+ */
+@Slf4j
+public class TrinoEventDeserializer implements Deserializer<QueryEvent> {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+
+    public TrinoEventDeserializer() {
+        this(new ObjectMapper());
+    }
+
+    public TrinoEventDeserializer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public QueryEvent deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try (JsonParser parser = objectMapper.getFactory().createParser(data)) {
+            return readEvent(parser);
+        } catch (IOException e) {
+            log.error("Failed to parse Kafka message from topic {} ({} bytes): {}", topic, data.length, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public QueryEvent deserialize(String topic, Headers headers, ByteBuffer data) {
+        if (data == null) {
+            return null;
+        }
+        if (!data.hasArray()) {
+            return Deserializer.super.deserialize(topic, headers, data);
+        }
+        // Parse straight from the fetch buffer without copying the record into a new array
+        try (JsonParser parser = objectMapper.getFactory()
+                .createParser(data.array(), data.arrayOffset() + data.position(), data.remaining())) {
+            return readEvent(parser);
+        } catch (IOException e) {
+            log.error("Failed to parse Kafka message from topic {} ({} bytes): {}", topic, data.remaining(), e.getMessage());
+            return null;
+        }
+    }
+
+    private QueryEvent readEvent(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        EventFields fields = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("eventPayload".equals(name) && token == JsonToken.START_OBJECT) {
+                fields = readPayload(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        // Events are stored by query ID, so one without it is dropped like one without metadata
+        return fields != null && fields.hasMetadata && fields.queryId != null ? fields.toQueryEvent() : null;
+    }
+
+    private EventFields readPayload(JsonParser parser) throws IOException {
+        EventFields fields = new EventFields();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (name) {
+                case "metadata" -> readMetadata(parser, token, fields);
+                case "context" -> readContext(parser, token, fields);
+                case "createTime" -> fields.createTime = readString(parser);
+                case "endTime" -> fields.endTime = readString(parser);
+                case "statistics" -> {
+                    if (token == JsonToken.START_OBJECT) {
+                        fields.statistics = objectMapper.readValue(parser, MAP_TYPE);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                case "ioMetadata" -> readIoMetadata(parser, token, fields);
+                default -> parser.skipChildren();
+            }
+        }
+        return fields;
+    }
+
+    private void readMetadata(JsonParser parser, JsonToken token, EventFields fields) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        fields.hasMetadata = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+                case "queryId" -> fields.queryId = readString(parser);
+                case "query" -> fields.query = readString(parser);
+                case "queryState" -> fields.queryState = readString(parser);
+                case "plan" -> fields.plan = readString(parser);
+                case "jsonPlan" -> fields.jsonPlan = readString(parser);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    private void readContext(JsonParser parser, JsonToken token, EventFields fields) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("user".equals(name)) {
+                fields.user = readString(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readIoMetadata(JsonParser parser, JsonToken token, EventFields fields) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        Map<String, Object> ioMetadata = new HashMap<>(4);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken valueToken = parser.nextToken();
+            if ("inputs".equals(name) && valueToken == JsonToken.START_ARRAY) {
+                List<Map<String, Object>> inputs = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        inputs.add(readInput(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                fields.inputs = inputs;
+                ioMetadata.put("inputs", inputs);
+            } else if ("output".equals(name) && valueToken == JsonToken.START_OBJECT) {
+                ioMetadata.put("output", readOutput(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        fields.ioMetadata = ioMetadata;
+    }
+
+    private Map<String, Object> readInput(JsonParser parser) throws IOException {
+        Map<String, Object> input = new HashMap<>(8);
+        input.put("catalogName", null);
+        input.put("connectorName", null);
+        input.put("schema", null);
+        input.put("table", null);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (name) {
+                case "catalogName", "connectorName", "schema", "table" -> input.put(name, readString(parser));
+                case "columns" -> {
+                    if (token == JsonToken.START_ARRAY) {
+                        input.put("columns", readColumns(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return input;
+    }
+
+    private List<Map<String, Object>> readColumns(JsonParser parser) throws IOException {
+        List<Map<String, Object>> columns = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            Map<String, Object> column = new HashMap<>(4);
+            column.put("name", null);
+            column.put("type", null);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("name".equals(name) || "type".equals(name)) {
+                    column.put(name, readString(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    private Map<String, Object> readOutput(JsonParser parser) throws IOException {
+        Map<String, Object> output = new HashMap<>(4);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("catalogName".equals(name) || "schema".equals(name) || "table".equals(name)) {
+                output.put(name, readString(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Reads the current scalar token as text, mirroring Jackson's String coercion; structured
+     * values are skipped and read as null.
+     */
+    private String readString(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        return token == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    /**
+     * Fields collected while streaming through one message, in whatever order they appear.
+     */
+    private static class EventFields {
+        boolean hasMetadata;
+        String queryId;
+        String query;
+        String queryState;
+        String plan;
+        String jsonPlan;
+        String user;
+        String createTime;
+        String endTime;
+        Map<String, Object> statistics;
+        List<Map<String, Object>> inputs;
+        Map<String, Object> ioMetadata;
+
+        QueryEvent toQueryEvent() {
+            // Parse timestamp from createTime or use current time
+            Instant timestamp = Instant.now();
+            if (createTime != null && !createTime.isEmpty()) {
+                try {
+                    timestamp = Instant.parse(createTime);
+                } catch (Exception e) {
+                    // Use current time if parsing fails
+                }
+            }
+
+            String primaryCatalog = null;
+            String primarySchema = null;
+            String primaryTable = null;
+            List<String> catalogs = new ArrayList<>();
+            List<String> schemas = new ArrayList<>();
+            List<String> tables = new ArrayList<>();
+            Map<String, Object> inputsMap = new HashMap<>();
+
+            if (inputs != null) {
+                for (Map<String, Object> input : inputs) {
+                    String catalogName = (String) input.get("catalogName");
+                    String schema = (String) input.get("schema");
+                    String table = (String) input.get("table");
+                    if (catalogName != null) {
+                        catalogs.add(catalogName);
+                        if (primaryCatalog == null) {
+                            primaryCatalog = catalogName;
+                        }
+                    }
+                    if (schema != null) {
+                        schemas.add(schema);
+                        if (primarySchema == null) {
+                            primarySchema = schema;
+                        }
+                    }
+                    if (table != null) {
+                        tables.add(table);
+                        if (primaryTable == null) {
+                            primaryTable = table;
+                        }
+                    }
+                }
+                inputsMap.put("inputs", inputs);
+            }
+
+            return QueryEvent.builder()
+                    .queryId(queryId)
+                    .query(query)
+                    .state(queryState)
+                    .user(user)
+                    .timestamp(timestamp)
+                    .createTime(createTime)
+                    .endTime(endTime)
+                    .cpuTimeMs(TrinoEventWrapper.extractDuration(statistics, "cpuTime"))
+                    .wallTimeMs(TrinoEventWrapper.extractDuration(statistics, "wallTime"))
+                    .queuedTimeMs(TrinoEventWrapper.extractDuration(statistics, "queuedTime"))
+                    .peakMemoryBytes(TrinoEventWrapper.extractLong(statistics, "peakMemoryBytes"))
+                    .totalBytes(TrinoEventWrapper.extractLong(statistics, "totalBytes"))
+                    .totalRows(TrinoEventWrapper.extractLong(statistics, "totalRows"))
+                    .completedSplits(TrinoEventWrapper.extractInteger(statistics, "completedSplits"))
+                    .plan(plan)
+                    .jsonPlan(jsonPlan)
+                    .eventType(TrinoEventWrapper.determineEventType(queryState))
+                    .catalog(primaryCatalog)
+                    .schema(primarySchema)
+                    .tableName(primaryTable)
+                    .catalogs(catalogs)
+                    .schemas(schemas)
+                    .tables(tables)
+                    .inputs(inputsMap)
+                    .ioMetadata(ioMetadata)
+                    .statistics(statistics)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.trinofed.parser.controller;
+
+import com.trinofed.parser.consumer.IngestHandoffQueue;
+import com.trinofed.parser.consumer.OffsetCommitCoordinator;
+import com.trinofed.parser.service.OutboundSessionMonitor;
+import com.trinofed.parser.service.PayloadEncodingNegotiator;
+import com.trinofed.parser.service.QueryEventService;
+import com.trinofed.parser.service.QueryUpdatePublisher;
+import com.trinofed.parser.service.QueryUpdateStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operational metrics for tuning the backend's in-memory stores.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/metrics")
+@CrossOrigin(origins = {
+        "http://localhost:5173",
+        "http://localhost:3000",
+        "http://localhost:3001",
+        "http://127.0.0.1:5173",
+        "http://[::1]:5173"
+})
+public class MetricsController {
+
+    private final QueryEventService queryEventService;
+    private final IngestHandoffQueue handoffQueue;
+    private final OffsetCommitCoordinator commitCoordinator;
+    private final QueryUpdatePublisher updatePublisher;
+    private final OutboundSessionMonitor sessionMonitor;
+    private final PayloadEncodingNegotiator encodingNegotiator;
+    private final QueryUpdateStream updateStream;
+
+    @Autowired
+    public MetricsController(QueryEventService queryEventService, IngestHandoffQueue handoffQueue,
+                             OffsetCommitCoordinator commitCoordinator, QueryUpdatePublisher updatePublisher,
+                             OutboundSessionMonitor sessionMonitor, PayloadEncodingNegotiator encodingNegotiator,
+                             QueryUpdateStream updateStream) {
+        this.queryEventService = queryEventService;
+        this.handoffQueue = handoffQueue;
+        this.commitCoordinator = commitCoordinator;
+        this.updatePublisher = updatePublisher;
+        this.sessionMonitor = sessionMonitor;
+        this.encodingNegotiator = encodingNegotiator;
+        this.updateStream = updateStream;
+    }
+
+    /**
+     * Query store size, retention limits and eviction counts.
+     */
+    @GetMapping("/store")
+    public ResponseEntity<Map<String, Object>> getStoreMetrics() {
+        return ResponseEntity.ok(queryEventService.getStoreStats());
+    }
+
+    /**
+     * Ingest queue depth, consumer pause time and offset commits.
+     */
+    @GetMapping("/ingest")
+    public ResponseEntity<Map<String, Object>> getIngestMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>(handoffQueue.getStats());
+        Map<String, Object> commits = new LinkedHashMap<>();
+        commits.put("commits", commitCoordinator.getCommitCount());
+        commits.put("failures", commitCoordinator.getCommitFailureCount());
+        commits.put("lastCommitMillis", commitCoordinator.getLastCommitMillis());
+        commits.put("pendingPartitions", commitCoordinator.getPendingPartitionCount());
+        metrics.put("commits", commits);
+        return ResponseEntity.ok(metrics);
+    }
+
+    /**
+     * WebSocket update counts by kind, per-session backlog and dropped messages, and CBOR
+     * encoding savings.
+     */
+    @GetMapping("/websocket")
+    public ResponseEntity<Map<String, Object>> getWebSocketMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>(updatePublisher.getStats());
+        metrics.put("outbound", sessionMonitor.getStats());
+        metrics.put("encoding", encodingNegotiator.getStats());
+        return ResponseEntity.ok(metrics);
+    }
+
+    /**
+     * Open Server-Sent Events streams and events sent to them.
+     */
+    @GetMapping("/stream")
+    public ResponseEntity<Map<String, Object>> getStreamMetrics() {
+        return ResponseEntity.ok(updateStream.getStats());
+    }
+}
@@ -1,14 +1,22 @@
 package com.trinofed.parser.controller;
 
+import com.trinofed.parser.model.QueryFilter;
+import com.trinofed.parser.model.QueryPage;
 import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryView;
 import com.trinofed.parser.service.QueryEventService;
+import com.trinofed.parser.service.SerializedPayloadCache;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.time.Instant;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,6 +34,7 @@ import java.util.regex.Pattern;
 public class QueryController {
 
     private final QueryEventService queryEventService;
+    private final SerializedPayloadCache payloadCache;
 
     // Cache to store query results by queryId
     private final Map<String, Map<String, Object>> resultsCache = new java.util.concurrent.ConcurrentHashMap<>();
@@ -37,9 +46,13 @@ public class QueryController {
     // Minimum time (in milliseconds) between auto-caching the same query text
     private static final long MIN_CACHE_INTERVAL_MS = 3000; // 3 seconds
 
+    // Largest page of query summaries served at once
+    private static final int MAX_PAGE_SIZE = 500;
+
     @Autowired
-    public QueryController(QueryEventService queryEventService) {
+    public QueryController(QueryEventService queryEventService, SerializedPayloadCache payloadCache) {
         this.queryEventService = queryEventService;
+        this.payloadCache = payloadCache;
     }
 
     /**
@@ -127,23 +140,164 @@ public class QueryController {
         }
     }
 
+    /**
+     * All query trees, assembled from each tree's cached JSON, optionally restricted to a
+     * {@link QueryView}. The weak ETag changes whenever a query is added, removed or updated.
+     * Listing parses no plans: the trees are the ones broadcast, and the root and fragments
+     * parsed from a query's plans are only returned by {@link #getQueryById}.
+     */
     @GetMapping
-    public ResponseEntity<List<QueryTree>> getAllQueries() {
+    public ResponseEntity<byte[]> getAllQueries(
+            @RequestParam(defaultValue = "full") String view,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         log.info("Fetching all query trees");
-        List<QueryTree> trees = queryEventService.getAllQueryTrees();
-        return ResponseEntity.ok(trees);
+        QueryView queryView = parseView(view);
+        if (queryView == null) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        // Versions are read before the trees, so a concurrent update can only make the body newer
+        // than its ETag, which the next request then refetches
+        String eTag = listETag(queryEventService.getQueryVersions(), queryView);
+        if (eTagMatches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(eTag)
+                .body(payloadCache.getList(queryEventService.getAllQueryTrees(), queryView));
     }
 
+    /**
+     * One query tree, optionally restricted to a {@link QueryView}, e.g. {@code ?view=tree} for
+     * just the operator tree. Its JSON is serialized once per version and view, and the ETag is
+     * the version, so polling clients get a 304 until the query changes. Views that need the
+     * plan parse it on the first read of each plan version. Unlike the list, the events include
+     * their plan text.
+     */
     @GetMapping("/{queryId}")
-    public ResponseEntity<QueryTree> getQueryById(@PathVariable String queryId) {
+    public ResponseEntity<byte[]> getQueryById(
+            @PathVariable String queryId,
+            @RequestParam(defaultValue = "full") String view,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
         log.info("Fetching query tree for queryId: {}", queryId);
-        QueryTree tree = queryEventService.getQueryTree(queryId);
+        QueryView queryView = parseView(view);
+        if (queryView == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        QueryTree tree = queryView.needsPlan()
+                ? queryEventService.getQueryTree(queryId)
+                : queryEventService.getQueryTree(queryId, false);
 
         if (tree == null) {
             return ResponseEntity.notFound().build();
         }
 
-        return ResponseEntity.ok(tree);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (tree.getVersion() > 0) {
+            String eTag = "\"" + tree.getVersion() + viewSuffix(queryView) + "\"";
+            if (eTagMatches(ifNoneMatch, eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+            }
+            response.eTag(eTag);
+        }
+
+        // Only a single query's events carry their plan text
+        if (queryView.includesEvents()) {
+            return response.body(payloadCache.getWithPlanText(SerializedPayloadCache.planTextKey(queryId, queryView),
+                    tree.getVersion(), tree, queryView));
+        }
+        return response.body(payloadCache.get(SerializedPayloadCache.detailKey(queryId, queryView),
+                tree.getVersion(), tree, queryView));
+    }
+
+    private static QueryView parseView(String view) {
+        try {
+            return QueryView.parse(view);
+        } catch (IllegalArgumentException e) {
+            log.debug("Unknown query view: {}", view);
+            return null;
+        }
+    }
+
+    /**
+     * Distinguishes the ETags of the views of one version; the full view has none.
+     */
+    private static String viewSuffix(QueryView view) {
+        return view == QueryView.FULL ? "" : "-" + view.name().toLowerCase();
+    }
+
+    /**
+     * Weak ETag over the IDs and versions of the stored queries. Each pair is hashed on its own
+     * and the hashes are summed, so the ETag does not depend on the order the map iterates in.
+     */
+    private static String listETag(Map<String, Long> versions, QueryView view) {
+        long hash = 0;
+        for (Map.Entry<String, Long> entry : versions.entrySet()) {
+            hash += mix(31L * entry.getKey().hashCode() + entry.getValue());
+        }
+        return "W/\"" + versions.size() + "-" + Long.toHexString(hash) + viewSuffix(view) + "\"";
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Weak comparison of an If-None-Match header against an ETag.
+     */
+    private static boolean eTagMatches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One page of query summaries (no events, plan or fragments), newest first by default.
+     * {@code state} takes several comma-separated states; {@code from} and {@code to} bound
+     * the start time as ISO-8601 instants. Pass the returned nextCursor, with the same filters,
+     * to get the following page.
+     */
+    @GetMapping("/page")
+    public ResponseEntity<QueryPage> getQueryPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) Set<String> state,
+            @RequestParam(required = false) String user,
+            @RequestParam(required = false) String catalog,
+            @RequestParam(required = false) Instant from,
+            @RequestParam(required = false) Instant to,
+            @RequestParam(defaultValue = "desc") String order) {
+        if (!"asc".equalsIgnoreCase(order) && !"desc".equalsIgnoreCase(order)) {
+            return ResponseEntity.badRequest().build();
+        }
+        QueryFilter filter = QueryFilter.builder()
+                .states(state)
+                .user(user)
+                .catalog(catalog)
+                .from(from)
+                .to(to)
+                .build();
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        try {
+            return ResponseEntity.ok(queryEventService.getQueryPage(filter, cursor, pageSize, "desc".equalsIgnoreCase(order)));
+        } catch (IllegalArgumentException e) {
+            log.debug("Rejecting query page request: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
     }
 
     @GetMapping("/ids")
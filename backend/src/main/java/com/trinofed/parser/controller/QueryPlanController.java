@@ -0,0 +1,62 @@
+package com.trinofed.parser.controller;
+
+import com.trinofed.parser.model.plan.BottleneckReport;
+import com.trinofed.parser.model.plan.PlanGraph;
+import com.trinofed.parser.service.BottleneckAnalyzer;
+import com.trinofed.parser.service.PlanGraphService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Views of a query's distributed plan across all of its fragments.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/queries")
+@CrossOrigin(origins = {
+        "http://localhost:5173",
+        "http://localhost:3000",
+        "http://localhost:3001",
+        "http://127.0.0.1:5173",
+        "http://[::1]:5173"
+})
+public class QueryPlanController {
+
+    private final PlanGraphService planGraphService;
+    private final BottleneckAnalyzer bottleneckAnalyzer;
+
+    @Autowired
+    public QueryPlanController(PlanGraphService planGraphService, BottleneckAnalyzer bottleneckAnalyzer) {
+        this.planGraphService = planGraphService;
+        this.bottleneckAnalyzer = bottleneckAnalyzer;
+    }
+
+    /**
+     * The query's fragments stitched into one graph through their exchanges.
+     */
+    @GetMapping("/{queryId}/plan-graph")
+    public ResponseEntity<PlanGraph> getPlanGraph(@PathVariable String queryId) {
+        log.info("Fetching plan graph for queryId: {}", queryId);
+        PlanGraph graph = planGraphService.getPlanGraph(queryId);
+        if (graph == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(graph);
+    }
+
+    /**
+     * Per-fragment CPU and scheduled time shares, the critical path through the fragments and
+     * the fragments ranked as bottlenecks.
+     */
+    @GetMapping("/{queryId}/bottlenecks")
+    public ResponseEntity<BottleneckReport> getBottlenecks(@PathVariable String queryId) {
+        log.info("Fetching bottleneck report for queryId: {}", queryId);
+        BottleneckReport report = bottleneckAnalyzer.getReport(queryId);
+        if (report == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(report);
+    }
+}
@@ -0,0 +1,60 @@
+package com.trinofed.parser.controller;
+
+import com.trinofed.parser.service.QueryUpdateStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-Sent Events stream of query updates, for clients that do not need a STOMP session.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/queries")
+@CrossOrigin(origins = {
+        "http://localhost:5173",
+        "http://localhost:3000",
+        "http://localhost:3001",
+        "http://127.0.0.1:5173",
+        "http://[::1]:5173"
+})
+public class QueryStreamController {
+
+    private final QueryUpdateStream updateStream;
+
+    @Autowired
+    public QueryStreamController(QueryUpdateStream updateStream) {
+        this.updateStream = updateStream;
+    }
+
+    /**
+     * Streams snapshots, patches and removals ({@code feed=updates}) or summaries and removals
+     * ({@code feed=summaries}), optionally of one query. A reconnecting client's
+     * {@code Last-Event-ID} resumes the stream where it left off.
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamUpdates(
+            @RequestParam(defaultValue = "updates") String feed,
+            @RequestParam(required = false) String queryId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        QueryUpdateStream.Feed streamFeed;
+        try {
+            streamFeed = QueryUpdateStream.Feed.valueOf(feed.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        SseEmitter emitter = updateStream.open(streamFeed, queryId, lastEventId);
+        if (emitter == null) {
+            log.warn("Rejecting {} stream: too many open streams", streamFeed);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(emitter);
+    }
+}
@@ -0,0 +1,81 @@
+package com.trinofed.parser.controller;
+
+import com.trinofed.parser.model.QueryResume;
+import com.trinofed.parser.model.QuerySummary;
+import com.trinofed.parser.model.QueryUpdate;
+import com.trinofed.parser.service.QueryEventService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.simp.annotation.SubscribeMapping;
+import org.springframework.stereotype.Controller;
+
+import java.util.List;
+
+/**
+ * Initial state for WebSocket clients of the query update topics.
+ * <p>
+ * Subscribing to one of these {@code /app} destinations answers the subscribing client only;
+ * clients subscribe to an update topic ({@code /topic/query-deltas}, {@code /topic/queries/{id}},
+ * {@code /topic/catalogs/{catalog}}, {@code /topic/users/{user}} or
+ * {@code /topic/query-summaries}) first and then fetch the initial state, so no update falls
+ * between the two. After a reconnect, {@code /app/query-resume/{epoch}/{sequence}} returns only
+ * what the client missed.
+ */
+@Slf4j
+@Controller
+public class QueryUpdateController {
+
+    private final QueryEventService queryEventService;
+
+    @Autowired
+    public QueryUpdateController(QueryEventService queryEventService) {
+        this.queryEventService = queryEventService;
+    }
+
+    /**
+     * Snapshots of all stored queries.
+     */
+    @SubscribeMapping("/query-snapshot")
+    public List<QueryUpdate> getSnapshots() {
+        List<QueryUpdate> snapshots = queryEventService.getQuerySnapshots();
+        log.debug("Sending initial snapshot of {} queries", snapshots.size());
+        return snapshots;
+    }
+
+    /**
+     * Snapshot of one query, to resynchronize after a patch whose base version the client
+     * does not hold. A query that is no longer stored is reported as removed.
+     */
+    @SubscribeMapping("/query-snapshot/{queryId}")
+    public QueryUpdate getSnapshot(@DestinationVariable String queryId) {
+        QueryUpdate snapshot = queryEventService.getQuerySnapshot(queryId);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return QueryUpdate.builder()
+                .type(QueryUpdate.Type.REMOVED)
+                .queryId(queryId)
+                .build();
+    }
+
+    /**
+     * Updates missed since the given epoch and sequence, or a full snapshot if they are no longer
+     * buffered. Clients that have not seen any update yet pass a sequence of 0.
+     */
+    @SubscribeMapping("/query-resume/{epoch}/{sequence}")
+    public QueryResume resume(@DestinationVariable String epoch, @DestinationVariable long sequence) {
+        QueryResume resume = queryEventService.resume(epoch, sequence);
+        log.debug("Resuming client from sequence {} with {} ({} updates)",
+                sequence, resume.getMode(), resume.getUpdates().size());
+        return resume;
+    }
+
+    /**
+     * Summaries of all stored queries, for clients of the summary feed.
+     */
+    @SubscribeMapping("/query-summaries")
+    public List<QuerySummary> getSummaries() {
+        return queryEventService.getQuerySummaries();
+    }
+}
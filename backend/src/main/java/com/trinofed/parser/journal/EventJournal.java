@@ -0,0 +1,187 @@
+package com.trinofed.parser.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of ingested events, split into memory-mapped {@link JournalSegment}s.
+ * <p>
+ * Every record gets a global sequence number and remembers the Kafka topic, partition and offset
+ * it came from, so the journal also knows the next offset to consume per partition. Segments
+ * whose records are all covered by a snapshot can be deleted.
+ */
+@Slf4j
+class EventJournal implements Closeable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{20})\\.log");
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<JournalSegment> segments = new ArrayList<>();
+    private final Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+    private long lastSequence;
+
+    private EventJournal(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Opens the journal in the given directory, recovering existing segments.
+     *
+     * @param minLastSequence sequence the journal continues after at minimum, e.g. the one
+     *                        covered by the latest snapshot when older segments were deleted
+     */
+    static EventJournal open(Path directory, int segmentBytes, long minLastSequence) throws IOException {
+        Files.createDirectories(directory);
+        EventJournal journal = new EventJournal(directory, segmentBytes);
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+
+        for (Path file : files) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+            matcher.matches();
+            long baseSequence = Long.parseLong(matcher.group(1));
+            if (!journal.segments.isEmpty() && baseSequence != journal.lastSequence + 1) {
+                // Anything after a gap cannot be trusted to be contiguous
+                log.warn("Discarding journal segment {} after a sequence gap (expected {})", file, journal.lastSequence + 1);
+                Files.delete(file);
+                continue;
+            }
+            JournalSegment segment = JournalSegment.open(file, baseSequence);
+            journal.segments.add(segment);
+            journal.lastSequence = segment.getLastSequence();
+            segment.forEach(0, (sequence, topic, partition, offset, event) ->
+                    journal.nextOffsets.merge(new TopicPartition(topic, partition), offset + 1, Math::max));
+        }
+
+        journal.lastSequence = Math.max(journal.lastSequence, minLastSequence);
+        log.info("Opened event journal in {} with {} segments, last sequence {}",
+                directory, journal.segments.size(), journal.lastSequence);
+        return journal;
+    }
+
+    /**
+     * Appends an event record.
+     *
+     * @return the record's sequence number
+     */
+    synchronized long append(String topic, int partition, long offset, byte[] event) throws IOException {
+        JournalSegment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (active == null || active.getLastSequence() != lastSequence
+                || !active.append(topic, partition, offset, event)) {
+            active = roll(JournalSegment.recordSize(topic, event));
+            if (!active.append(topic, partition, offset, event)) {
+                throw new IOException("Journal record does not fit into a new segment");
+            }
+        }
+        lastSequence = active.getLastSequence();
+        nextOffsets.merge(new TopicPartition(topic, partition), offset + 1, Math::max);
+        return lastSequence;
+    }
+
+    /**
+     * Visits all records with a sequence greater than the given one, oldest first.
+     */
+    synchronized void replay(long afterSequence, JournalSegment.RecordVisitor visitor) {
+        for (JournalSegment segment : segments) {
+            if (segment.getLastSequence() > afterSequence) {
+                segment.forEach(afterSequence, visitor);
+            }
+        }
+    }
+
+    /**
+     * Deletes segments that only contain records up to and including the given sequence.
+     *
+     * @return the number of deleted segments
+     */
+    synchronized int deleteThrough(long sequence) throws IOException {
+        int deleted = 0;
+        Iterator<JournalSegment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            JournalSegment segment = iterator.next();
+            // Never delete the segment currently being appended to
+            if (segment.getLastSequence() > sequence || segment == segments.get(segments.size() - 1)) {
+                break;
+            }
+            segment.close();
+            Files.deleteIfExists(segment.getPath());
+            iterator.remove();
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Sequence of the first record still in the journal, or the next sequence if it is empty.
+     */
+    synchronized long getFirstSequence() {
+        for (JournalSegment segment : segments) {
+            if (!segment.isEmpty()) {
+                return segment.getBaseSequence();
+            }
+        }
+        return lastSequence + 1;
+    }
+
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Next Kafka offset to consume per partition, based on the journaled records.
+     */
+    synchronized Map<TopicPartition, Long> getNextOffsets() {
+        return new HashMap<>(nextOffsets);
+    }
+
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    synchronized void force() {
+        for (JournalSegment segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (JournalSegment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private JournalSegment roll(int recordSize) throws IOException {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).force();
+        }
+        long baseSequence = lastSequence + 1;
+        Path path = directory.resolve(String.format("segment-%020d.log", baseSequence));
+        int capacity = Math.max(segmentBytes, recordSize + Integer.BYTES);
+        JournalSegment segment = JournalSegment.create(path, baseSequence, capacity);
+        segments.add(segment);
+        log.debug("Rolled journal segment {}", path);
+        return segment;
+    }
+}
@@ -0,0 +1,64 @@
+package com.trinofed.parser.journal;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.CompressedText;
+import com.trinofed.parser.model.QueryEvent;
+
+/**
+ * JSON format of journal records and snapshots. Unlike API payloads it keeps the plans of
+ * events: consumed events carry them as text, stored ones in the compressed form they are held
+ * in, so writing a snapshot does not inflate them.
+ */
+final class JournalFormat {
+
+    private JournalFormat() {
+    }
+
+    static ObjectMapper mapper(ObjectMapper objectMapper) {
+        return objectMapper.copy()
+                .addMixIn(QueryEvent.class, QueryEventMixIn.class)
+                .addMixIn(CompressedText.class, CompressedTextMixIn.class);
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    abstract static class QueryEventMixIn {
+
+        @JsonProperty("plan")
+        private String plan;
+
+        @JsonProperty("jsonPlan")
+        private String jsonPlan;
+
+        // Lombok copies the field annotations, which make the plans write-only, to the setters
+        @JsonProperty("plan")
+        abstract void setPlan(String plan);
+
+        @JsonProperty("jsonPlan")
+        abstract void setJsonPlan(String jsonPlan);
+
+        @JsonIgnore(false)
+        @JsonProperty("compressedPlan")
+        private CompressedText compressedPlan;
+
+        @JsonIgnore(false)
+        @JsonProperty("compressedJsonPlan")
+        private CompressedText compressedJsonPlan;
+    }
+
+    abstract static class CompressedTextMixIn {
+
+        @JsonProperty("data")
+        private byte[] data;
+
+        @JsonProperty("length")
+        private int length;
+
+        @JsonCreator
+        CompressedTextMixIn(@JsonProperty("data") byte[] data, @JsonProperty("length") int length) {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.trinofed.parser.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * One memory-mapped file of the event journal.
+ * <p>
+ * Records are laid out back to back as {@code [int bodyLength][int crc32c(body)][body]}, where the
+ * body is {@code [long sequence][int partition][long offset][short topicLength][topic][event]}.
+ * A zero length marks the end of the written part. Sequences within a segment are contiguous,
+ * so a stale or torn record left behind by a crash is recognised and cut off when the segment
+ * is reopened.
+ */
+final class JournalSegment implements Closeable {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int FIXED_BODY_BYTES = Long.BYTES + Integer.BYTES + Long.BYTES + Short.BYTES;
+
+    private final Path path;
+    private final long baseSequence;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private long lastSequence;
+
+    private JournalSegment(Path path, long baseSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.lastSequence = baseSequence - 1;
+    }
+
+    /**
+     * Creates a new, empty segment whose first record will carry the given sequence.
+     */
+    static JournalSegment create(Path path, long baseSequence, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return new JournalSegment(path, baseSequence, channel, buffer);
+    }
+
+    /**
+     * Maps an existing segment and positions it after its last valid record, clearing anything
+     * written beyond that point.
+     */
+    static JournalSegment open(Path path, long baseSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        JournalSegment segment = new JournalSegment(path, baseSequence, channel, buffer);
+        segment.recover();
+        return segment;
+    }
+
+    /**
+     * Bytes a record needs in a segment, including its header.
+     */
+    static int recordSize(String topic, byte[] event) {
+        return HEADER_BYTES + FIXED_BODY_BYTES + topic.getBytes(StandardCharsets.UTF_8).length + event.length;
+    }
+
+    /**
+     * Appends a record with the next sequence of this segment.
+     *
+     * @return false if the segment has no room left for it
+     */
+    boolean append(String topic, int partition, long offset, byte[] event) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_BYTES + topicBytes.length + event.length;
+        // Keep room for the zero length that terminates the segment
+        if (buffer.remaining() < HEADER_BYTES + bodyLength + Integer.BYTES) {
+            return false;
+        }
+
+        int start = buffer.position();
+        long sequence = lastSequence + 1;
+        buffer.position(start + HEADER_BYTES);
+        buffer.putLong(sequence);
+        buffer.putInt(partition);
+        buffer.putLong(offset);
+        buffer.putShort((short) topicBytes.length);
+        buffer.put(topicBytes);
+        buffer.put(event);
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start + HEADER_BYTES).limit(start + HEADER_BYTES + bodyLength));
+        // Write the length last so a torn write never looks like a complete record
+        buffer.putInt(start + 4, (int) crc.getValue());
+        buffer.putInt(start, bodyLength);
+        lastSequence = sequence;
+        return true;
+    }
+
+    /**
+     * Visits the records of this segment with a sequence greater than the given one.
+     */
+    void forEach(long afterSequence, RecordVisitor visitor) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        while (view.position() < buffer.position()) {
+            int bodyLength = view.getInt();
+            view.getInt();
+            int bodyStart = view.position();
+            long sequence = view.getLong();
+            int partition = view.getInt();
+            long offset = view.getLong();
+            byte[] topicBytes = new byte[view.getShort()];
+            view.get(topicBytes);
+            int eventStart = view.position();
+            int eventEnd = bodyStart + bodyLength;
+            if (sequence > afterSequence) {
+                ByteBuffer event = view.duplicate().position(eventStart).limit(eventEnd).slice();
+                visitor.visit(sequence, new String(topicBytes, StandardCharsets.UTF_8), partition, offset, event);
+            }
+            view.position(eventEnd);
+        }
+    }
+
+    private void recover() {
+        long expected = baseSequence;
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int bodyLength = buffer.getInt(position);
+            if (bodyLength < FIXED_BODY_BYTES || position + HEADER_BYTES + bodyLength > buffer.capacity()) {
+                break;
+            }
+            int bodyStart = position + HEADER_BYTES;
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.duplicate().position(bodyStart).limit(bodyStart + bodyLength));
+            if ((int) crc.getValue() != buffer.getInt(position + 4) || buffer.getLong(bodyStart) != expected) {
+                break;
+            }
+            expected++;
+            position = bodyStart + bodyLength;
+        }
+
+        lastSequence = expected - 1;
+        buffer.position(position);
+        if (position + Integer.BYTES <= buffer.capacity() && buffer.getInt(position) != 0) {
+            // Torn or stale data after the last good record
+            for (int i = position; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    boolean isEmpty() {
+        return lastSequence < baseSequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * Receives journal records; the event bytes are only valid during the call.
+     */
+    @FunctionalInterface
+    interface RecordVisitor {
+        void visit(long sequence, String topic, int partition, long offset, ByteBuffer event);
+    }
+}
@@ -0,0 +1,272 @@
+package com.trinofed.parser.journal;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.Database;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.service.DatabaseService;
+import com.trinofed.parser.service.QueryEventService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Makes ingested state survive restarts.
+ * <p>
+ * Every consumed batch is appended to the {@link EventJournal} before it is applied, and the
+ * applied state is periodically written to a gzip-compressed {@link JournalSnapshot}. On startup
+ * the latest snapshot is restored and only the journal records after it are replayed; Kafka
+ * consumption then resumes from the journaled offsets. Before Kafka offsets are committed the
+ * journal is {@link #flush() flushed}, so the committed position never runs ahead of what can
+ * be restored.
+ * <p>
+ * Disabled unless {@code trino.journal.enabled} is set, in which case everything passes
+ * straight through.
+ */
+@Slf4j
+@Service
+public class JournalService {
+
+    private static final String SNAPSHOT_FILE = "snapshot.json.gz";
+    private static final int REPLAY_BATCH_SIZE = 1000;
+    private static final TypeReference<List<Database>> DATABASE_LIST = new TypeReference<>() {};
+
+    private final QueryEventService queryEventService;
+    private final DatabaseService databaseService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentBytes;
+
+    // Batches hold the read lock while they are journaled and applied; snapshots take the
+    // write lock so they see a state that matches a journal sequence exactly
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final Map<TopicPartition, Long> nextOffsets = new ConcurrentHashMap<>();
+    private EventJournal journal;
+    private long snapshotSequence;
+
+    @Autowired
+    public JournalService(QueryEventService queryEventService, DatabaseService databaseService,
+                          ObjectMapper objectMapper,
+                          @Value("${trino.journal.enabled:false}") boolean enabled,
+                          @Value("${trino.journal.directory:data/journal}") String directory,
+                          @Value("${trino.journal.segment-bytes:67108864}") int segmentBytes) {
+        this.queryEventService = queryEventService;
+        this.databaseService = databaseService;
+        this.objectMapper = JournalFormat.mapper(objectMapper);
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Restores the latest snapshot and replays the journal tail. Runs before the Kafka
+     * listener, which depends on this service, starts consuming.
+     */
+    @PostConstruct
+    public void restore() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+
+        JournalSnapshot snapshot = readSnapshot();
+        if (snapshot != null) {
+            databaseService.restoreState(snapshot.getDatabases(), snapshot.getDatabaseQueryCounts());
+            queryEventService.restoreEvents(snapshot.getEvents(), false);
+            snapshotSequence = snapshot.getSequence();
+            snapshot.getOffsets().forEach((topic, partitions) -> partitions.forEach((partition, offset) ->
+                    nextOffsets.merge(new TopicPartition(topic, partition), offset, Math::max)));
+        }
+
+        journal = EventJournal.open(directory, segmentBytes, snapshotSequence);
+        if (journal.getFirstSequence() > snapshotSequence + 1) {
+            log.warn("Journal starts at sequence {} but the snapshot only covers up to {}; events in between are lost",
+                    journal.getFirstSequence(), snapshotSequence);
+        }
+
+        List<QueryEvent> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+        int[] replayed = {0};
+        journal.replay(snapshotSequence, (sequence, topic, partition, offset, event) -> {
+            QueryEvent queryEvent = readEvent(sequence, event);
+            if (queryEvent != null) {
+                batch.add(queryEvent);
+                replayed[0]++;
+            }
+            if (batch.size() >= REPLAY_BATCH_SIZE) {
+                queryEventService.restoreEvents(batch, true);
+                batch.clear();
+            }
+        });
+        queryEventService.restoreEvents(batch, true);
+        journal.getNextOffsets().forEach((partition, offset) -> nextOffsets.merge(partition, offset, Math::max));
+
+        log.info("Restored {} snapshot events and replayed {} journaled events in {} ms",
+                snapshot != null ? snapshot.getEvents().size() : 0, replayed[0], System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Journals a consumed batch and applies it while no snapshot is being taken. Records without
+     * a value are not journaled but still advance the partition's offset. Records below a
+     * partition's journaled offset were appended before, e.g. by an attempt of the same batch
+     * that failed to apply, and are not appended again.
+     */
+    public void appendAndApply(List<ConsumerRecord<String, QueryEvent>> records, Runnable apply) throws IOException {
+        if (!enabled) {
+            apply.run();
+            return;
+        }
+
+        snapshotLock.readLock().lock();
+        try {
+            for (ConsumerRecord<String, QueryEvent> record : records) {
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                Long journaled = nextOffsets.get(partition);
+                if (journaled != null && record.offset() < journaled) {
+                    continue;
+                }
+                if (record.value() != null) {
+                    journal.append(record.topic(), record.partition(), record.offset(),
+                            objectMapper.writeValueAsBytes(record.value()));
+                }
+                nextOffsets.merge(partition, record.offset() + 1, Math::max);
+            }
+            apply.run();
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Next offset to consume for a partition according to the restored state, or null if
+     * journaling is disabled or the partition has never been seen.
+     */
+    public Long nextOffset(TopicPartition partition) {
+        return enabled ? nextOffsets.get(partition) : null;
+    }
+
+    /**
+     * Forces journaled records to disk; called before the offsets they cover are committed.
+     */
+    public void flush() {
+        if (enabled && journal != null) {
+            journal.force();
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and drops journal segments it covers.
+     */
+    @Scheduled(fixedDelayString = "${trino.journal.snapshot-interval-ms:60000}",
+               initialDelayString = "${trino.journal.snapshot-interval-ms:60000}")
+    public synchronized void snapshot() {
+        if (!enabled || journal == null) {
+            return;
+        }
+
+        JournalSnapshot snapshot;
+        snapshotLock.writeLock().lock();
+        try {
+            long sequence = journal.getLastSequence();
+            if (sequence == snapshotSequence) {
+                return;
+            }
+            Map<String, Map<Integer, Long>> offsets = new HashMap<>();
+            nextOffsets.forEach((partition, offset) ->
+                    offsets.computeIfAbsent(partition.topic(), k -> new HashMap<>()).put(partition.partition(), offset));
+            // Stored events are not modified after ingestion, but catalogs are, so copy those now
+            snapshot = JournalSnapshot.builder()
+                    .createdAt(Instant.now())
+                    .sequence(sequence)
+                    .offsets(offsets)
+                    .events(queryEventService.exportEvents())
+                    .databases(objectMapper.convertValue(databaseService.getAllDatabases(), DATABASE_LIST))
+                    .databaseQueryCounts(databaseService.getDatabaseQueryCounts())
+                    .build();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            writeSnapshot(snapshot);
+            snapshotSequence = snapshot.getSequence();
+            int deleted = journal.deleteThrough(snapshot.getSequence());
+            log.info("Wrote snapshot at sequence {} with {} events in {} ms, deleted {} journal segments",
+                    snapshot.getSequence(), snapshot.getEvents().size(), System.currentTimeMillis() - start, deleted);
+        } catch (IOException e) {
+            log.error("Failed to write journal snapshot", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled || journal == null) {
+            return;
+        }
+        snapshot();
+        journal.close();
+    }
+
+    private JournalSnapshot readSnapshot() {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return objectMapper.readValue(in, JournalSnapshot.class);
+        } catch (IOException e) {
+            log.error("Ignoring unreadable snapshot {}; replaying the journal only", file, e);
+            return null;
+        }
+    }
+
+    private void writeSnapshot(JournalSnapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), 64 * 1024)) {
+            objectMapper.writeValue(out, snapshot);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private QueryEvent readEvent(long sequence, ByteBuffer event) {
+        byte[] bytes = new byte[event.remaining()];
+        event.get(bytes);
+        try {
+            return objectMapper.readValue(bytes, QueryEvent.class);
+        } catch (IOException e) {
+            log.warn("Skipping unreadable journal record {}: {}", sequence, e.getMessage());
+            return null;
+        }
+    }
+}
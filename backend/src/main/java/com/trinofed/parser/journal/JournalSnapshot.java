@@ -0,0 +1,52 @@
+package com.trinofed.parser.journal;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.trinofed.parser.model.Database;
+import com.trinofed.parser.model.QueryEvent;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact point-in-time copy of the ingested state: the events of every retained query plus the
+ * discovered catalogs, together with the journal sequence and Kafka offsets it covers.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class JournalSnapshot {
+
+    @JsonProperty("createdAt")
+    private Instant createdAt;
+
+    // Last journal sequence whose event is reflected in this snapshot
+    @JsonProperty("sequence")
+    private long sequence;
+
+    // Next offset to consume, by topic and partition
+    @JsonProperty("offsets")
+    @Builder.Default
+    private Map<String, Map<Integer, Long>> offsets = new HashMap<>();
+
+    @JsonProperty("events")
+    @Builder.Default
+    private List<QueryEvent> events = new ArrayList<>();
+
+    @JsonProperty("databases")
+    @Builder.Default
+    private List<Database> databases = new ArrayList<>();
+
+    @JsonProperty("databaseQueryCounts")
+    @Builder.Default
+    private Map<String, Integer> databaseQueryCounts = new HashMap<>();
+}
@@ -0,0 +1,102 @@
+package com.trinofed.parser.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable, deflate-compressed UTF-8 text.
+ * Used to keep large payloads such as query plans in memory in a compact form and only
+ * inflate them when a caller actually needs the text.
+ */
+public final class CompressedText {
+
+    private final byte[] data;
+    private final int length;
+
+    private CompressedText(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Compresses the given text, or returns null for null input.
+     */
+    public static CompressedText of(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return new CompressedText(out.toByteArray(), raw.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Restores the original text.
+     */
+    public String inflate() {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] raw = new byte[length];
+            int offset = 0;
+            while (offset < length && !inflater.finished()) {
+                int count = inflater.inflate(raw, offset, length - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            return new String(raw, 0, offset, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed text", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Size of the compressed representation in bytes.
+     */
+    public int compressedSize() {
+        return data.length;
+    }
+
+    /**
+     * Size of the original UTF-8 text in bytes.
+     */
+    public int originalSize() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompressedText other)) {
+            return false;
+        }
+        return length == other.length && Arrays.equals(data, other.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + Arrays.hashCode(data);
+    }
+}
@@ -1,5 +1,6 @@
 package com.trinofed.parser.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
@@ -98,12 +99,20 @@ public class QueryEvent {
     @JsonProperty("completedSplits")
     private Integer completedSplits;
 
-    @JsonProperty("plan")
+    // Read from producers but not written out; see getPlan()
+    @JsonProperty(value = "plan", access = JsonProperty.Access.WRITE_ONLY)
     private String plan;
 
-    @JsonProperty("jsonPlan")
+    @JsonProperty(value = "jsonPlan", access = JsonProperty.Access.WRITE_ONLY)
     private String jsonPlan;
 
+    // Plans of stored events are held compressed; see compactPlans()
+    @JsonIgnore
+    private CompressedText compressedPlan;
+
+    @JsonIgnore
+    private CompressedText compressedJsonPlan;
+
     @JsonProperty("errorCode")
     private String errorCode;
 
@@ -125,4 +134,53 @@ public class QueryEvent {
     // Detailed statistics from Kafka event
     @JsonProperty("statistics")
     private Map<String, Object> statistics;
+
+    /**
+     * The text plan, inflated if the event is stored. Not serialized: writing every stored event
+     * would inflate every plan, so only the single-query endpoint and the journal add plans.
+     */
+    @JsonIgnore
+    public String getPlan() {
+        if (plan == null && compressedPlan != null) {
+            return compressedPlan.inflate();
+        }
+        return plan;
+    }
+
+    @JsonIgnore
+    public String getJsonPlan() {
+        if (jsonPlan == null && compressedJsonPlan != null) {
+            return compressedJsonPlan.inflate();
+        }
+        return jsonPlan;
+    }
+
+    /**
+     * Whether this event carries a non-blank text plan, without inflating it.
+     */
+    public boolean hasPlan() {
+        return compressedPlan != null || (plan != null && !plan.trim().isEmpty());
+    }
+
+    /**
+     * Whether this event carries a non-blank JSON plan, without inflating it.
+     */
+    public boolean hasJsonPlan() {
+        return compressedJsonPlan != null || (jsonPlan != null && !jsonPlan.trim().isEmpty());
+    }
+
+    /**
+     * Moves the plan strings into compressed form. The getters keep returning the same text,
+     * inflating it on each call, so this should only be done once an event is stored.
+     */
+    public void compactPlans() {
+        if (plan != null && !plan.trim().isEmpty()) {
+            compressedPlan = CompressedText.of(plan);
+            plan = null;
+        }
+        if (jsonPlan != null && !jsonPlan.trim().isEmpty()) {
+            compressedJsonPlan = CompressedText.of(jsonPlan);
+            jsonPlan = null;
+        }
+    }
 }
@@ -0,0 +1,49 @@
+package com.trinofed.parser.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.Set;
+
+/**
+ * Criteria for listing queries; unset fields match every query.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueryFilter {
+
+    // Any of these states, ignoring case
+    private Set<String> states;
+
+    private String user;
+
+    private String catalog;
+
+    // Start time range, from inclusive and to exclusive
+    private Instant from;
+
+    private Instant to;
+
+    /**
+     * Whether the tree matches everything but the catalog, which is looked up in the index.
+     */
+    public boolean matches(QueryTree tree) {
+        if (states != null && !states.isEmpty()
+                && (tree.getState() == null || states.stream().noneMatch(tree.getState()::equalsIgnoreCase))) {
+            return false;
+        }
+        if (user != null && !user.equals(tree.getUser())) {
+            return false;
+        }
+        Instant startTime = tree.getStartTime();
+        if (from != null && (startTime == null || startTime.isBefore(from))) {
+            return false;
+        }
+        return to == null || (startTime != null && startTime.isBefore(to));
+    }
+}
@@ -0,0 +1,31 @@
+package com.trinofed.parser.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of query summaries. {@code nextCursor} is opaque; pass it back to get the following
+ * page, it is null on the last one.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueryPage {
+
+    @JsonProperty("items")
+    @Builder.Default
+    private List<QuerySummary> items = new ArrayList<>();
+
+    @JsonProperty("nextCursor")
+    private String nextCursor;
+
+    @JsonProperty("limit")
+    private int limit;
+}
@@ -0,0 +1,43 @@
+package com.trinofed.parser.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answer to a reconnecting WebSocket client.
+ * <p>
+ * REPLAY carries the updates the client missed since the sequence it reported, to be applied in
+ * order. SNAPSHOT carries a snapshot of every stored query, replacing whatever the client held,
+ * because the missed updates are no longer buffered or the client's sequence is from an earlier
+ * run of the server. Either way the client continues from {@code epoch} and {@code sequence}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QueryResume {
+
+    public enum Mode {
+        REPLAY,
+        SNAPSHOT
+    }
+
+    @JsonProperty("mode")
+    private Mode mode;
+
+    @JsonProperty("epoch")
+    private String epoch;
+
+    @JsonProperty("sequence")
+    private long sequence;
+
+    @JsonProperty("updates")
+    @Builder.Default
+    private List<QueryUpdate> updates = new ArrayList<>();
+}
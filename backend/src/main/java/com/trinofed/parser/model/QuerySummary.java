@@ -0,0 +1,86 @@
+package com.trinofed.parser.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lightweight projection of a {@link QueryTree} for lists and dashboards: everything but the
+ * events, plan tree and fragments.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuerySummary {
+
+    @JsonProperty("queryId")
+    private String queryId;
+
+    @JsonProperty("query")
+    private String query;
+
+    @JsonProperty("user")
+    private String user;
+
+    @JsonProperty("state")
+    private String state;
+
+    @JsonProperty("startTime")
+    private Instant startTime;
+
+    @JsonProperty("endTime")
+    private Instant endTime;
+
+    @JsonProperty("totalExecutionTime")
+    private Long totalExecutionTime;
+
+    @JsonProperty("errorMessage")
+    private String errorMessage;
+
+    @JsonProperty("catalogs")
+    @Builder.Default
+    private List<String> catalogs = new ArrayList<>();
+
+    @JsonProperty("eventCount")
+    private int eventCount;
+
+    @JsonProperty("version")
+    private long version;
+
+    public static QuerySummary from(QueryTree tree, long version) {
+        return QuerySummary.builder()
+                .queryId(tree.getQueryId())
+                .query(tree.getQuery())
+                .user(tree.getUser())
+                .state(tree.getState())
+                .startTime(tree.getStartTime())
+                .endTime(tree.getEndTime())
+                .totalExecutionTime(tree.getTotalExecutionTime())
+                .errorMessage(tree.getErrorMessage())
+                .catalogs(catalogsOf(tree))
+                .eventCount(tree.getEvents().size())
+                .version(version)
+                .build();
+    }
+
+    /**
+     * Distinct catalogs the query's events touched, in order of appearance.
+     */
+    public static List<String> catalogsOf(QueryTree tree) {
+        List<String> catalogs = new ArrayList<>(1);
+        for (QueryEvent event : tree.getEvents()) {
+            String catalog = event.getCatalog();
+            if (catalog != null && !catalogs.contains(catalog)) {
+                catalogs.add(catalog);
+            }
+        }
+        return catalogs;
+    }
+}
@@ -1,6 +1,8 @@
 package com.trinofed.parser.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonView;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -11,43 +13,61 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class QueryTree {
 
     @JsonProperty("queryId")
+    @JsonView(QueryView.Summary.class)
     private String queryId;
 
     @JsonProperty("query")
+    @JsonView(QueryView.Summary.class)
     private String query;
 
     @JsonProperty("user")
+    @JsonView(QueryView.Summary.class)
     private String user;
 
     @JsonProperty("state")
+    @JsonView(QueryView.Summary.class)
     private String state;
 
     @JsonProperty("startTime")
+    @JsonView(QueryView.Summary.class)
     private Instant startTime;
 
     @JsonProperty("endTime")
+    @JsonView(QueryView.Summary.class)
     private Instant endTime;
 
     @JsonProperty("totalExecutionTime")
+    @JsonView(QueryView.Summary.class)
     private Long totalExecutionTime;
 
     @JsonProperty("errorMessage")
+    @JsonView(QueryView.Summary.class)
     private String errorMessage;
 
     @JsonProperty("root")
+    @JsonView(QueryView.Tree.class)
     private QueryTreeNode root;
 
     @JsonProperty("events")
+    @JsonView(QueryView.Events.class)
     @Builder.Default
     private List<QueryEvent> events = new ArrayList<>();
 
     @JsonProperty("fragments")
+    @JsonView(QueryView.Fragments.class)
     @Builder.Default
     private List<Fragment> fragments = new ArrayList<>();
+
+    /**
+     * Version of the stored query this tree was built from, or 0 if it was not built by the
+     * store. Not serialized; used to cache encodings and to derive ETags.
+     */
+    @JsonIgnore
+    private long version;
 }
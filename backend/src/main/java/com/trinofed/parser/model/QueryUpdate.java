@@ -0,0 +1,81 @@
+package com.trinofed.parser.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * A versioned change to one query, as sent over WebSocket.
+ * <p>
+ * A SNAPSHOT carries the full tree at {@code version}. A PATCH turns the tree at
+ * {@code baseVersion} into the one at {@code version} and only carries what changed: fields that
+ * are absent did not change, and {@code events} holds just the events added since the base.
+ * Clients apply a patch whose base matches the version they hold, ignore one whose version they
+ * already have, and otherwise re-request the query's snapshot. REMOVED means the query was
+ * evicted from the store. SUMMARY carries only a {@link QuerySummary}, for the summary feed.
+ * <p>
+ * Trees are sent without their parsed plan: {@code fragments} is empty and {@code root} only comes
+ * from event metadata. Clients that show the plan read it from {@code /api/queries/{queryId}}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class QueryUpdate {
+
+    public enum Type {
+        SNAPSHOT,
+        PATCH,
+        SUMMARY,
+        REMOVED
+    }
+
+    @JsonProperty("type")
+    private Type type;
+
+    @JsonProperty("queryId")
+    private String queryId;
+
+    @JsonProperty("version")
+    private long version;
+
+    @JsonProperty("baseVersion")
+    private Long baseVersion;
+
+    /**
+     * Increases with every update sent, across all queries.
+     */
+    @JsonProperty("sequence")
+    private long sequence;
+
+    @JsonProperty("tree")
+    private QueryTree tree;
+
+    @JsonProperty("summary")
+    private QuerySummary summary;
+
+    @JsonProperty("state")
+    private String state;
+
+    @JsonProperty("endTime")
+    private Instant endTime;
+
+    @JsonProperty("totalExecutionTime")
+    private Long totalExecutionTime;
+
+    @JsonProperty("errorMessage")
+    private String errorMessage;
+
+    @JsonProperty("events")
+    private List<QueryEvent> events;
+
+    @JsonProperty("root")
+    private QueryTreeNode root;
+}
@@ -0,0 +1,69 @@
+package com.trinofed.parser.model;
+
+/**
+ * Parts of a {@link QueryTree} returned by the REST API, selected with {@code ?view=}. The nested
+ * interfaces are the Jackson views its fields are annotated with.
+ */
+public enum QueryView {
+
+    /** Query text, user, state and timing */
+    SUMMARY(Summary.class, false),
+    /** The summary and the operator tree */
+    TREE(Tree.class, true),
+    /** The summary and the plan fragments */
+    FRAGMENTS(Fragments.class, true),
+    /** The summary and the raw events */
+    EVENTS(Events.class, false),
+    /** Everything; the default */
+    FULL(Full.class, true);
+
+    public interface Summary {
+    }
+
+    public interface Tree extends Summary {
+    }
+
+    public interface Fragments extends Summary {
+    }
+
+    public interface Events extends Summary {
+    }
+
+    public interface Full extends Tree, Fragments, Events {
+    }
+
+    private final Class<?> jsonView;
+    private final boolean needsPlan;
+
+    QueryView(Class<?> jsonView, boolean needsPlan) {
+        this.jsonView = jsonView;
+        this.needsPlan = needsPlan;
+    }
+
+    public Class<?> getJsonView() {
+        return jsonView;
+    }
+
+    /**
+     * Whether the view includes anything built from the query's parsed plans.
+     */
+    public boolean needsPlan() {
+        return needsPlan;
+    }
+
+    /**
+     * Whether the view includes the raw events of the query.
+     */
+    public boolean includesEvents() {
+        return Events.class.isAssignableFrom(jsonView);
+    }
+
+    /**
+     * The view with the given name, ignoring case.
+     *
+     * @throws IllegalArgumentException if there is none
+     */
+    public static QueryView parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
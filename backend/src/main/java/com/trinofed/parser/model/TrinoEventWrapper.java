@@ -340,7 +340,7 @@ public class TrinoEventWrapper {
     /**
      * Parse duration string like "1.23s" or "123.45ms" to milliseconds
      */
-    private Long parseDuration(String duration) {
+    public static Long parseDuration(String duration) {
         if (duration == null || duration.isEmpty()) {
             return null;
         }
@@ -361,7 +361,7 @@ public class TrinoEventWrapper {
     /**
      * Extract duration from statistics map
      */
-    private Long extractDuration(Map<String, Object> stats, String key) {
+    public static Long extractDuration(Map<String, Object> stats, String key) {
         if (stats == null || !stats.containsKey(key)) {
             return null;
         }
@@ -378,7 +378,7 @@ public class TrinoEventWrapper {
     /**
      * Extract Long value from statistics map
      */
-    private Long extractLong(Map<String, Object> stats, String key) {
+    public static Long extractLong(Map<String, Object> stats, String key) {
         if (stats == null || !stats.containsKey(key)) {
             return null;
         }
@@ -392,7 +392,7 @@ public class TrinoEventWrapper {
     /**
      * Extract Integer value from statistics map
      */
-    private Integer extractInteger(Map<String, Object> stats, String key) {
+    public static Integer extractInteger(Map<String, Object> stats, String key) {
         if (stats == null || !stats.containsKey(key)) {
             return null;
         }
@@ -406,7 +406,7 @@ public class TrinoEventWrapper {
     /**
      * Determine event type from query state
      */
-    private String determineEventType(String queryState) {
+    public static String determineEventType(String queryState) {
         if (queryState == null) {
             return "UNKNOWN";
         }
@@ -0,0 +1,34 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fragment ranked in a {@link BottleneckReport}, with the reasons it ranks where it does.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Bottleneck {
+
+    @JsonProperty("rank")
+    private int rank;
+
+    @JsonProperty("fragmentId")
+    private String fragmentId;
+
+    // The larger of its CPU and scheduled time shares, halved off the critical path
+    @JsonProperty("score")
+    private double score;
+
+    @JsonProperty("reasons")
+    @Builder.Default
+    private List<String> reasons = new ArrayList<>();
+}
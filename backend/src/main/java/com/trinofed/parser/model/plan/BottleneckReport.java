@@ -0,0 +1,60 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where a query spent its time, per fragment of its distributed plan, and the fragments most
+ * worth looking at first.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BottleneckReport {
+
+    @JsonProperty("queryId")
+    private String queryId;
+
+    @JsonProperty("state")
+    private String state;
+
+    // Version of the stored query the report was computed from
+    @JsonProperty("version")
+    private long version;
+
+    @JsonProperty("rootFragmentId")
+    private String rootFragmentId;
+
+    @JsonProperty("totalCpuTimeMs")
+    private double totalCpuTimeMs;
+
+    @JsonProperty("totalScheduledTimeMs")
+    private double totalScheduledTimeMs;
+
+    @JsonProperty("totalBlockedTimeMs")
+    private double totalBlockedTimeMs;
+
+    // Fragment IDs in data flow order, from a leaf fragment to the root
+    @JsonProperty("criticalPath")
+    @Builder.Default
+    private List<String> criticalPath = new ArrayList<>();
+
+    @JsonProperty("criticalPathTimeMs")
+    private double criticalPathTimeMs;
+
+    @JsonProperty("fragments")
+    @Builder.Default
+    private List<FragmentCost> fragments = new ArrayList<>();
+
+    // Most significant first
+    @JsonProperty("bottlenecks")
+    @Builder.Default
+    private List<Bottleneck> bottlenecks = new ArrayList<>();
+}
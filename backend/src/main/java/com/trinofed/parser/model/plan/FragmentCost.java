@@ -0,0 +1,55 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A fragment's time and its share of the query's totals, for a {@link BottleneckReport}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class FragmentCost {
+
+    @JsonProperty("fragmentId")
+    private String fragmentId;
+
+    @JsonProperty("cpuTimeMs")
+    private double cpuTimeMs;
+
+    @JsonProperty("scheduledTimeMs")
+    private double scheduledTimeMs;
+
+    @JsonProperty("blockedTimeMs")
+    private double blockedTimeMs;
+
+    // Fractions between 0 and 1
+    @JsonProperty("cpuShare")
+    private double cpuShare;
+
+    @JsonProperty("scheduledShare")
+    private double scheduledShare;
+
+    // Blocked time relative to blocked and scheduled (running) time
+    @JsonProperty("blockedRatio")
+    private double blockedRatio;
+
+    @JsonProperty("inputRows")
+    private Long inputRows;
+
+    @JsonProperty("outputRows")
+    private Long outputRows;
+
+    @JsonProperty("peakMemoryBytes")
+    private Long peakMemoryBytes;
+
+    @JsonProperty("taskCount")
+    private Integer taskCount;
+
+    @JsonProperty("onCriticalPath")
+    private boolean onCriticalPath;
+}
@@ -0,0 +1,52 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Edge of a {@link PlanGraph}: the output of one fragment read by a remote operator of another.
+ * Estimates come from the remote operator, rows and bytes from the source fragment's statistics.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlanExchange {
+
+    // Fragment producing the data
+    @JsonProperty("sourceFragmentId")
+    private String sourceFragmentId;
+
+    // Fragment reading it
+    @JsonProperty("targetFragmentId")
+    private String targetFragmentId;
+
+    @JsonProperty("remoteNodeId")
+    private String remoteNodeId;
+
+    // RemoteSource or RemoteMerge
+    @JsonProperty("operatorType")
+    private String operatorType;
+
+    // E.g. REPARTITION, GATHER or REPLICATE
+    @JsonProperty("exchangeType")
+    private String exchangeType;
+
+    @JsonProperty("partitioning")
+    private String partitioning;
+
+    @JsonProperty("estimatedRows")
+    private Double estimatedRows;
+
+    @JsonProperty("estimatedBytes")
+    private Double estimatedBytes;
+
+    @JsonProperty("rows")
+    private Long rows;
+
+    @JsonProperty("bytes")
+    private Long bytes;
+}
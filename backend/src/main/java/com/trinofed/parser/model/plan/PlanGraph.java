@@ -0,0 +1,37 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A query's distributed plan as a DAG: every fragment's operator tree, connected by the exchanges
+ * its RemoteSource and RemoteMerge operators read from.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlanGraph {
+
+    @JsonProperty("queryId")
+    private String queryId;
+
+    // The fragment producing the query's output, usually "0"; null if there is no JSON plan
+    @JsonProperty("rootFragmentId")
+    private String rootFragmentId;
+
+    // Root fragment first, then each fragment after the ones consuming its output
+    @JsonProperty("fragments")
+    @Builder.Default
+    private List<PlanGraphFragment> fragments = new ArrayList<>();
+
+    @JsonProperty("exchanges")
+    @Builder.Default
+    private List<PlanExchange> exchanges = new ArrayList<>();
+}
@@ -0,0 +1,65 @@
+package com.trinofed.parser.model.plan;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.trinofed.parser.model.QueryTreeNode;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One fragment (stage) of a {@link PlanGraph}. The runtime statistics come from the query's text
+ * plan and are null when it has none.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlanGraphFragment {
+
+    @JsonProperty("fragmentId")
+    private String fragmentId;
+
+    @JsonProperty("root")
+    private QueryTreeNode root;
+
+    @JsonProperty("operatorCount")
+    private int operatorCount;
+
+    // Exchanges between this fragment and the root fragment, or -1 if it does not feed it
+    @JsonProperty("depth")
+    private int depth;
+
+    @JsonProperty("partitioningType")
+    private String partitioningType;
+
+    @JsonProperty("outputPartitioning")
+    private String outputPartitioning;
+
+    @JsonProperty("taskCount")
+    private Integer taskCount;
+
+    @JsonProperty("cpuTimeMs")
+    private Double cpuTimeMs;
+
+    @JsonProperty("scheduledTimeMs")
+    private Double scheduledTimeMs;
+
+    @JsonProperty("blockedTimeMs")
+    private Double blockedTimeMs;
+
+    @JsonProperty("inputRows")
+    private Long inputRows;
+
+    @JsonProperty("inputBytes")
+    private Long inputBytes;
+
+    @JsonProperty("outputRows")
+    private Long outputRows;
+
+    @JsonProperty("outputBytes")
+    private Long outputBytes;
+
+    @JsonProperty("peakMemoryBytes")
+    private Long peakMemoryBytes;
+}
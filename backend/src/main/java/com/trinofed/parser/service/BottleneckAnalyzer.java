@@ -0,0 +1,334 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.Fragment;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryUpdate;
+import com.trinofed.parser.model.plan.Bottleneck;
+import com.trinofed.parser.model.plan.BottleneckReport;
+import com.trinofed.parser.model.plan.FragmentCost;
+import com.trinofed.parser.model.plan.PlanExchange;
+import com.trinofed.parser.model.plan.PlanGraph;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes a {@link BottleneckReport} from the fragment statistics of a query's text plan and the
+ * fragment DAG of its plan graph.
+ * <p>
+ * The critical path is the chain of fragments from a leaf to the root with the largest total
+ * scheduled time (CPU time where none was reported); a fragment cannot finish before the
+ * fragments it reads from, so this chain bounds the query's wall time. Fragments are ranked by
+ * the larger of their CPU and scheduled time shares, halved when they are off the critical path.
+ * <p>
+ * Reports are computed in the background as soon as a query finishes or fails, and on request
+ * for running queries; each is kept until the query changes or is evicted.
+ */
+@Slf4j
+@Service
+public class BottleneckAnalyzer implements QueryUpdatePublisher.UpdateListener {
+
+    // Fragment references in text plans without a JSON plan, e.g. "RemoteSource[sourceFragmentIds = [1, 2]]"
+    private static final Pattern REMOTE_SOURCE_PATTERN =
+            Pattern.compile("Remote(?:Source|Merge)\\[sourceFragmentIds = \\[([^]]*)]");
+    private static final double BLOCKED_RATIO_THRESHOLD = 0.5;
+
+    private final QueryEventService queryEventService;
+    private final PlanGraphService planGraphService;
+    private final QueryUpdatePublisher updatePublisher;
+    private final int maxReports;
+
+    // Guarded by itself
+    private final Map<String, BottleneckReport> reports = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bottleneck-analyzer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public BottleneckAnalyzer(QueryEventService queryEventService, PlanGraphService planGraphService,
+                              QueryUpdatePublisher updatePublisher,
+                              @Value("${trino.bottlenecks.max-reports:1000}") int maxReports) {
+        this.queryEventService = queryEventService;
+        this.planGraphService = planGraphService;
+        this.updatePublisher = updatePublisher;
+        this.maxReports = maxReports;
+    }
+
+    @PostConstruct
+    public void start() {
+        updatePublisher.addListener(this);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The report for the query's current version, or null if the query is not stored.
+     */
+    public BottleneckReport getReport(String queryId) {
+        QueryTree tree = queryEventService.getQueryTree(queryId);
+        if (tree == null) {
+            return null;
+        }
+        synchronized (reports) {
+            BottleneckReport report = reports.get(queryId);
+            if (report != null && tree.getVersion() > 0 && report.getVersion() == tree.getVersion()) {
+                return report;
+            }
+        }
+
+        BottleneckReport report = analyze(tree, planGraphService.getPlanGraph(tree));
+        if (tree.getVersion() > 0) {
+            synchronized (reports) {
+                BottleneckReport current = reports.get(queryId);
+                if (current == null || current.getVersion() < report.getVersion()) {
+                    reports.put(queryId, report);
+                    Iterator<BottleneckReport> eldest = reports.values().iterator();
+                    while (reports.size() > maxReports) {
+                        eldest.next();
+                        eldest.remove();
+                    }
+                }
+            }
+        }
+        return report;
+    }
+
+    @Override
+    public boolean isListening() {
+        return true;
+    }
+
+    /**
+     * Queues finished queries for analysis; called while updates are published, so no work is
+     * done here. Live changes arrive as summaries, while a backlog applied in catch-up mode or
+     * restored from the journal is published as one snapshot per query.
+     */
+    @Override
+    public void onUpdate(QueryUpdate update) {
+        String queryId = update.getQueryId();
+        if (update.getType() == QueryUpdate.Type.REMOVED) {
+            synchronized (reports) {
+                reports.remove(queryId);
+            }
+        } else if (update.getType() == QueryUpdate.Type.SUMMARY && update.getSummary() != null
+                && EventDeduplicator.isFinalState(update.getSummary().getState())) {
+            queue(queryId);
+        } else if (update.getType() == QueryUpdate.Type.SNAPSHOT && update.getTree() != null
+                && EventDeduplicator.isFinalState(update.getTree().getState())) {
+            queue(queryId);
+        }
+    }
+
+    private void queue(String queryId) {
+        if (!queued.add(queryId)) {
+            return;
+        }
+        executor.execute(() -> {
+            queued.remove(queryId);
+            try {
+                getReport(queryId);
+            } catch (RuntimeException e) {
+                log.warn("Failed to analyze bottlenecks of query {}", queryId, e);
+            }
+        });
+    }
+
+    /**
+     * Analyzes a query tree with its plan parsed and its plan graph.
+     */
+    public BottleneckReport analyze(QueryTree tree, PlanGraph graph) {
+        Map<String, Fragment> fragments = new LinkedHashMap<>();
+        for (Fragment fragment : tree.getFragments()) {
+            if (fragment.getFragmentId() != null) {
+                fragments.put(String.valueOf(fragment.getFragmentId()), fragment);
+            }
+        }
+        Map<String, List<String>> sources = sources(graph, fragments);
+        String rootFragmentId = graph != null && graph.getRootFragmentId() != null
+                ? graph.getRootFragmentId()
+                : fragments.keySet().stream().min(Comparator.comparingInt(Integer::parseInt)).orElse(null);
+
+        double totalCpu = 0;
+        double totalScheduled = 0;
+        double totalBlocked = 0;
+        for (Fragment fragment : fragments.values()) {
+            totalCpu += valueOf(fragment.getCpuTimeMs());
+            totalScheduled += valueOf(fragment.getScheduledTimeMs());
+            totalBlocked += valueOf(fragment.getBlockedTimeMs());
+        }
+
+        // Longest path into each fragment, following the fragments it reads from
+        Map<String, Double> pathTimes = new HashMap<>();
+        Map<String, String> slowestSource = new HashMap<>();
+        double criticalPathTime = rootFragmentId != null
+                ? pathTime(rootFragmentId, fragments, sources, pathTimes, slowestSource, new HashSet<>())
+                : 0;
+        List<String> criticalPath = new ArrayList<>();
+        for (String fragmentId = rootFragmentId; fragmentId != null && !criticalPath.contains(fragmentId);
+             fragmentId = slowestSource.get(fragmentId)) {
+            criticalPath.add(fragmentId);
+        }
+        Collections.reverse(criticalPath);
+        Set<String> onCriticalPath = new HashSet<>(criticalPath);
+
+        List<FragmentCost> costs = new ArrayList<>(fragments.size());
+        String peakMemoryFragment = null;
+        long peakMemory = 0;
+        for (Map.Entry<String, Fragment> entry : fragments.entrySet()) {
+            Fragment fragment = entry.getValue();
+            double cpu = valueOf(fragment.getCpuTimeMs());
+            double scheduled = valueOf(fragment.getScheduledTimeMs());
+            double blocked = valueOf(fragment.getBlockedTimeMs());
+            costs.add(FragmentCost.builder()
+                    .fragmentId(entry.getKey())
+                    .cpuTimeMs(cpu)
+                    .scheduledTimeMs(scheduled)
+                    .blockedTimeMs(blocked)
+                    .cpuShare(share(cpu, totalCpu))
+                    .scheduledShare(share(scheduled, totalScheduled))
+                    .blockedRatio(share(blocked, blocked + scheduled))
+                    .inputRows(fragment.getInputRows())
+                    .outputRows(fragment.getOutputRows())
+                    .peakMemoryBytes(fragment.getPeakMemoryBytes())
+                    .taskCount(fragment.getTaskCount())
+                    .onCriticalPath(onCriticalPath.contains(entry.getKey()))
+                    .build());
+            if (fragment.getPeakMemoryBytes() != null && fragment.getPeakMemoryBytes() > peakMemory) {
+                peakMemory = fragment.getPeakMemoryBytes();
+                peakMemoryFragment = entry.getKey();
+            }
+        }
+
+        return BottleneckReport.builder()
+                .queryId(tree.getQueryId())
+                .state(tree.getState())
+                .version(tree.getVersion())
+                .rootFragmentId(rootFragmentId)
+                .totalCpuTimeMs(totalCpu)
+                .totalScheduledTimeMs(totalScheduled)
+                .totalBlockedTimeMs(totalBlocked)
+                .criticalPath(criticalPath)
+                .criticalPathTimeMs(criticalPathTime)
+                .fragments(costs)
+                .bottlenecks(rank(costs, peakMemoryFragment))
+                .build();
+    }
+
+    /**
+     * The fragments each fragment reads from: the plan graph's exchanges, or the remote operators
+     * of the text plan when there is no JSON plan.
+     */
+    private static Map<String, List<String>> sources(PlanGraph graph, Map<String, Fragment> fragments) {
+        Map<String, List<String>> sources = new HashMap<>();
+        if (graph != null && !graph.getFragments().isEmpty()) {
+            for (PlanExchange exchange : graph.getExchanges()) {
+                sources.computeIfAbsent(exchange.getTargetFragmentId(), k -> new ArrayList<>())
+                        .add(exchange.getSourceFragmentId());
+            }
+            return sources;
+        }
+        for (Map.Entry<String, Fragment> entry : fragments.entrySet()) {
+            for (String operator : entry.getValue().getOperators()) {
+                Matcher matcher = REMOTE_SOURCE_PATTERN.matcher(operator);
+                while (matcher.find()) {
+                    for (String sourceId : PlanGraphService.parseFragmentIds(matcher.group(1))) {
+                        if (!sourceId.equals(entry.getKey())) {
+                            sources.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(sourceId);
+                        }
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    private static double pathTime(String fragmentId, Map<String, Fragment> fragments,
+                                   Map<String, List<String>> sources, Map<String, Double> pathTimes,
+                                   Map<String, String> slowestSource, Set<String> visiting) {
+        Double known = pathTimes.get(fragmentId);
+        if (known != null) {
+            return known;
+        }
+        visiting.add(fragmentId);
+        double slowest = 0;
+        for (String source : sources.getOrDefault(fragmentId, List.of())) {
+            if (visiting.contains(source)) {
+                continue;
+            }
+            double time = pathTime(source, fragments, sources, pathTimes, slowestSource, visiting);
+            if (time > slowest || !slowestSource.containsKey(fragmentId)) {
+                slowest = time;
+                slowestSource.put(fragmentId, source);
+            }
+        }
+        visiting.remove(fragmentId);
+
+        double pathTime = weight(fragments.get(fragmentId)) + slowest;
+        pathTimes.put(fragmentId, pathTime);
+        return pathTime;
+    }
+
+    private static List<Bottleneck> rank(List<FragmentCost> costs, String peakMemoryFragment) {
+        List<Bottleneck> bottlenecks = new ArrayList<>();
+        for (FragmentCost cost : costs) {
+            double score = Math.max(cost.getCpuShare(), cost.getScheduledShare()) * (cost.isOnCriticalPath() ? 1 : 0.5);
+            if (score <= 0) {
+                continue;
+            }
+            List<String> reasons = new ArrayList<>(4);
+            reasons.add(String.format("%.0f%% of scheduled time", cost.getScheduledShare() * 100));
+            reasons.add(String.format("%.0f%% of CPU time", cost.getCpuShare() * 100));
+            if (cost.isOnCriticalPath()) {
+                reasons.add("on the critical path");
+            }
+            if (cost.getBlockedRatio() >= BLOCKED_RATIO_THRESHOLD) {
+                reasons.add(String.format("blocked %.0f%% of the time", cost.getBlockedRatio() * 100));
+            }
+            if (cost.getFragmentId().equals(peakMemoryFragment)) {
+                reasons.add("highest peak memory");
+            }
+            bottlenecks.add(Bottleneck.builder()
+                    .fragmentId(cost.getFragmentId())
+                    .score(score)
+                    .reasons(reasons)
+                    .build());
+        }
+        bottlenecks.sort(Comparator.comparingDouble(Bottleneck::getScore).reversed());
+        for (int i = 0; i < bottlenecks.size(); i++) {
+            bottlenecks.get(i).setRank(i + 1);
+        }
+        return bottlenecks;
+    }
+
+    private static double weight(Fragment fragment) {
+        if (fragment == null) {
+            return 0;
+        }
+        double scheduled = valueOf(fragment.getScheduledTimeMs());
+        return scheduled > 0 ? scheduled : valueOf(fragment.getCpuTimeMs());
+    }
+
+    private static double share(double part, double total) {
+        return total > 0 ? part / total : 0;
+    }
+
+    private static double valueOf(Double value) {
+        return value != null && !value.isNaN() ? value : 0;
+    }
+}
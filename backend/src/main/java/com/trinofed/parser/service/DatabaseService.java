@@ -11,6 +11,7 @@ import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -100,15 +101,20 @@ public class DatabaseService {
                                 .build()
                 );
 
-                database.setLastSeen(timestamp);
-                database.setTotalQueries(database.getTotalQueries() + 1);
                 incrementQueryCount(catalogName);
 
-                // Handle MongoDB differently - use collections instead of schemas/tables
-                if ("mongodb".equals(dbType)) {
-                    handleMongoDatabase(database, schemaName, tableName, input, timestamp);
-                } else {
-                    handleRelationalDatabase(database, schemaName, tableName, input, timestamp);
+                // Ingestion lanes process different queries in parallel, so serialize
+                // updates to the same catalog's schema/table hierarchy
+                synchronized (database) {
+                    database.setLastSeen(timestamp);
+                    database.setTotalQueries(database.getTotalQueries() + 1);
+
+                    // Handle MongoDB differently - use collections instead of schemas/tables
+                    if ("mongodb".equals(dbType)) {
+                        handleMongoDatabase(database, schemaName, tableName, input, timestamp);
+                    } else {
+                        handleRelationalDatabase(database, schemaName, tableName, input, timestamp);
+                    }
                 }
             }
         } catch (Exception e) {
@@ -399,8 +405,15 @@ public class DatabaseService {
         return catalogName; // Use the catalog name as type if no match
     }
 
+    /**
+     * Returns copies of all databases. Ingestion lanes keep updating the originals, so readers,
+     * including JSON serialization, only ever see copies taken under each database's lock.
+     */
     public List<Database> getAllDatabases() {
-        List<Database> allDatabases = new ArrayList<>(databases.values());
+        List<Database> allDatabases = new ArrayList<>(databases.size());
+        for (Database database : databases.values()) {
+            allDatabases.add(copyOf(database));
+        }
         
         // Log database summary for debugging
         for (Database db : allDatabases) {
@@ -428,21 +441,22 @@ public class DatabaseService {
 
     public Database getDatabaseById(String id) {
         log.debug("Getting database by id: {}", id);
-        return databases.get(id);
+        Database database = databases.get(id);
+        return database != null ? copyOf(database) : null;
     }
 
     public List<Schema> getSchemas(String databaseId) {
         log.debug("Getting schemas for database: {}", databaseId);
-        Database database = databases.get(databaseId);
+        Database database = getDatabaseById(databaseId);
         if (database != null && database.getSchemas() != null) {
-            return new ArrayList<>(database.getSchemas());
+            return database.getSchemas();
         }
         return new ArrayList<>();
     }
 
     public Schema getSchema(String databaseId, String schemaName) {
         log.debug("Getting schema {} in database {}", schemaName, databaseId);
-        Database database = databases.get(databaseId);
+        Database database = getDatabaseById(databaseId);
         if (database != null && database.getSchemas() != null) {
             return database.getSchemas().stream()
                     .filter(schema -> schemaName.equals(schema.getName()))
@@ -456,7 +470,7 @@ public class DatabaseService {
         log.debug("Getting tables for schema {} in database {}", schemaName, databaseId);
         Schema schema = getSchema(databaseId, schemaName);
         if (schema != null && schema.getTables() != null) {
-            return new ArrayList<>(schema.getTables());
+            return schema.getTables();
         }
         return new ArrayList<>();
     }
@@ -473,6 +487,76 @@ public class DatabaseService {
         return null;
     }
 
+    /**
+     * Copies a database's schema/table and collection hierarchy while holding the lock its
+     * writers take. Columns and fields are never changed once added, so they are shared.
+     */
+    private Database copyOf(Database database) {
+        synchronized (database) {
+            return Database.builder()
+                    .id(database.getId())
+                    .name(database.getName())
+                    .type(database.getType())
+                    .host(database.getHost())
+                    .port(database.getPort())
+                    .status(database.getStatus())
+                    .schemas(copyList(database.getSchemas(), this::copyOf))
+                    .collections(copyList(database.getCollections(), this::copyOf))
+                    .metadata(database.getMetadata())
+                    .firstSeen(database.getFirstSeen())
+                    .lastSeen(database.getLastSeen())
+                    .totalQueries(database.getTotalQueries())
+                    .build();
+        }
+    }
+
+    private Schema copyOf(Schema schema) {
+        return Schema.builder()
+                .name(schema.getName())
+                .tables(copyList(schema.getTables(), this::copyOf))
+                .metadata(schema.getMetadata())
+                .firstSeen(schema.getFirstSeen())
+                .lastSeen(schema.getLastSeen())
+                .totalQueries(schema.getTotalQueries())
+                .build();
+    }
+
+    private Table copyOf(Table table) {
+        return Table.builder()
+                .name(table.getName())
+                .columns(copyList(table.getColumns(), column -> column))
+                .rowCount(table.getRowCount())
+                .sizeBytes(table.getSizeBytes())
+                .metadata(table.getMetadata())
+                .firstSeen(table.getFirstSeen())
+                .lastSeen(table.getLastSeen())
+                .totalQueries(table.getTotalQueries())
+                .build();
+    }
+
+    private Database.Collection copyOf(Database.Collection collection) {
+        return Database.Collection.builder()
+                .name(collection.getName())
+                .documentCount(collection.getDocumentCount())
+                .sizeBytes(collection.getSizeBytes())
+                .fields(copyList(collection.getFields(), field -> field))
+                .metadata(collection.getMetadata())
+                .firstSeen(collection.getFirstSeen())
+                .lastSeen(collection.getLastSeen())
+                .totalQueries(collection.getTotalQueries())
+                .build();
+    }
+
+    private static <T> List<T> copyList(List<T> list, UnaryOperator<T> copy) {
+        List<T> copied = new ArrayList<>(list != null ? list.size() : 0);
+        if (list != null) {
+            for (T item : list) {
+                copied.add(copy.apply(item));
+            }
+        }
+        return copied;
+    }
+
     public Map<String, Integer> getDatabaseQueryCounts() {
         log.debug("Getting database query counts");
         return new HashMap<>(queryCountsByDatabase);
@@ -489,6 +573,21 @@ public class DatabaseService {
         }
     }
 
+    /**
+     * Replaces all discovered databases and query counts, e.g. with state recovered from a snapshot.
+     */
+    public void restoreState(List<Database> restoredDatabases, Map<String, Integer> queryCounts) {
+        databases.clear();
+        queryCountsByDatabase.clear();
+        for (Database database : restoredDatabases) {
+            if (database != null && database.getId() != null) {
+                databases.put(database.getId(), database);
+            }
+        }
+        queryCountsByDatabase.putAll(queryCounts);
+        log.info("Restored {} databases", databases.size());
+    }
+
     public void removeDatabase(String databaseId) {
         databases.remove(databaseId);
         queryCountsByDatabase.remove(databaseId);
@@ -0,0 +1,235 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Detects redelivered query events with bounded memory.
+ * <p>
+ * Every event is reduced to a 64-bit fingerprint of its query ID, timestamp and state. While a
+ * query is still running its fingerprints are kept exactly on its {@link QueryState}. Once the
+ * query reaches a final state they are moved into a time-windowed Bloom filter made of two
+ * generations that are rotated every half window, so a finished query's events are remembered
+ * for between half a window and a full window and the filter never grows. A generation that
+ * reaches the number of entries it was sized for is rotated early, which shortens the window
+ * rather than letting the false positive rate climb.
+ * <p>
+ * The filter is approximate: a late event for an already finished query may occasionally be
+ * treated as a duplicate. It is therefore only consulted for events that are plausibly late,
+ * see {@link #isPlausiblyLate}, and {@link #getEstimatedFalsePositiveRate()} reports the rate
+ * implied by the current fill.
+ */
+@Slf4j
+@Component
+public class EventDeduplicator {
+
+    private final long generationMillis;
+    private final Clock clock;
+    private final int bitCount;
+    private final int hashCount;
+    private final int capacity;
+
+    private long[] current;
+    private long[] previous;
+    private long generationStart;
+    private int currentInserts;
+    private int previousInserts;
+    private long earlyRotations;
+
+    public EventDeduplicator() {
+        this(Duration.ofHours(1), 500_000, 0.001);
+    }
+
+    @Autowired
+    public EventDeduplicator(@Value("${trino.dedup.window:PT1H}") Duration window,
+                             @Value("${trino.dedup.expected-events-per-window:500000}") int expectedEvents,
+                             @Value("${trino.dedup.false-positive-rate:0.001}") double falsePositiveRate) {
+        this(window, expectedEvents, falsePositiveRate, Clock.systemUTC());
+    }
+
+    EventDeduplicator(Duration window, int expectedEvents, double falsePositiveRate, Clock clock) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("Deduplication window must be positive: " + window);
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        this.generationMillis = Math.max(1, window.toMillis() / 2);
+        this.clock = clock;
+
+        // Standard Bloom filter sizing for the expected number of entries per generation
+        int entries = Math.max(1, expectedEvents);
+        long bits = (long) Math.ceil(-entries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, bits));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / entries * Math.log(2)));
+        this.capacity = entries;
+        this.current = new long[(bitCount + 63) >>> 6];
+        this.previous = new long[current.length];
+        this.generationStart = clock.millis();
+
+        log.info("Event deduplication window {} ({} bits per generation, {} hashes)", window, bitCount, hashCount);
+    }
+
+    /**
+     * Records the event's fingerprint for the given query.
+     *
+     * @param state the query's state, or null if the query is not stored
+     * @return true if the event has not been seen before
+     */
+    boolean markSeen(QueryState state, long fingerprint) {
+        if (state != null && !state.isRetired()) {
+            return state.addFingerprint(fingerprint);
+        }
+        return addFinished(fingerprint);
+    }
+
+    /**
+     * Whether an event of a query that is not stored could be a redelivery of a finished query's
+     * event: it carries a final state, or it was stamped before the current generation began.
+     * Other events start a new query, so a false positive cannot drop them.
+     */
+    public synchronized boolean isPlausiblyLate(QueryEvent event) {
+        if (isFinalState(event.getState())) {
+            return true;
+        }
+        rotateIfDue();
+        return event.getTimestamp().toEpochMilli() < generationStart;
+    }
+
+    /**
+     * Whether the event belongs to a finished query that is still inside the window.
+     */
+    public synchronized boolean seenFinished(long fingerprint) {
+        rotateIfDue();
+        return contains(current, fingerprint) || contains(previous, fingerprint);
+    }
+
+    /**
+     * Moves a query's exact fingerprints into the windowed filter once it has finished.
+     */
+    void retire(QueryState state) {
+        long[] fingerprints = state.retireFingerprints();
+        for (long fingerprint : fingerprints) {
+            addFinished(fingerprint);
+        }
+    }
+
+    /**
+     * Approximate memory held by the filter, in bytes.
+     */
+    public long getFilterSizeBytes() {
+        return 2L * current.length * Long.BYTES;
+    }
+
+    /**
+     * Probability that an event never seen is reported by {@link #seenFinished}, estimated
+     * from the number of fingerprints in each generation.
+     */
+    public synchronized double getEstimatedFalsePositiveRate() {
+        rotateIfDue();
+        return 1 - (1 - falsePositiveRate(currentInserts)) * (1 - falsePositiveRate(previousInserts));
+    }
+
+    /**
+     * How many generations were rotated before their half window because they were full.
+     */
+    public synchronized long getEarlyRotations() {
+        return earlyRotations;
+    }
+
+    public static boolean isFinalState(String state) {
+        return "FINISHED".equals(state) || "FAILED".equals(state);
+    }
+
+    /**
+     * 64-bit fingerprint of the event's identity (query ID, timestamp and state).
+     */
+    public static long fingerprint(QueryEvent event) {
+        long hash = 0xcbf29ce484222325L;
+        String queryId = event.getQueryId();
+        if (queryId != null) {
+            for (int i = 0; i < queryId.length(); i++) {
+                hash ^= queryId.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        hash = mix(hash ^ event.getTimestamp().toEpochMilli());
+        String state = event.getState();
+        return mix(hash ^ (state != null ? state.hashCode() : 0));
+    }
+
+    private synchronized boolean addFinished(long fingerprint) {
+        rotateIfDue();
+        boolean inCurrent = contains(current, fingerprint);
+        boolean seen = inCurrent || contains(previous, fingerprint);
+        if (!inCurrent) {
+            if (currentInserts >= capacity) {
+                // Full; past this point the false positive rate would exceed the configured one
+                rotate(false);
+                earlyRotations++;
+                log.debug("Rotated deduplication filter early after {} entries", previousInserts);
+            }
+            long hash2 = mix(fingerprint) | 1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = bitIndex(fingerprint, hash2, i);
+                current[bit >>> 6] |= 1L << bit;
+            }
+            currentInserts++;
+        }
+        return !seen;
+    }
+
+    private double falsePositiveRate(int inserts) {
+        return Math.pow(1 - Math.exp(-(double) hashCount * inserts / bitCount), hashCount);
+    }
+
+    private boolean contains(long[] bits, long fingerprint) {
+        long hash2 = mix(fingerprint) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = bitIndex(fingerprint, hash2, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int bitIndex(long hash1, long hash2, int i) {
+        return (int) Long.remainderUnsigned(hash1 + i * hash2, bitCount);
+    }
+
+    private void rotateIfDue() {
+        long now = clock.millis();
+        if (now - generationStart < generationMillis) {
+            return;
+        }
+        // After a full window without rotation both generations have expired
+        rotate(now - generationStart >= 2 * generationMillis);
+    }
+
+    private void rotate(boolean clearBoth) {
+        long[] recycled = previous;
+        if (clearBoth) {
+            Arrays.fill(current, 0L);
+        }
+        Arrays.fill(recycled, 0L);
+        previous = current;
+        previousInserts = clearBoth ? 0 : currentInserts;
+        current = recycled;
+        currentInserts = 0;
+        generationStart = clock.millis();
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
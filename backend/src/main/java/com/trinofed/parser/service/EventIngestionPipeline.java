@@ -0,0 +1,133 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryEvent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shards incoming events across a fixed number of single-threaded lanes keyed by queryId.
+ * Different queries are processed in parallel, while all events of one query always land
+ * on the same lane and are therefore applied strictly in the order they were received.
+ */
+@Slf4j
+@Service
+public class EventIngestionPipeline {
+
+    private final QueryEventService queryEventService;
+    private final ExecutorService[] lanes;
+
+    @Autowired
+    public EventIngestionPipeline(QueryEventService queryEventService,
+                                  @Value("${trino.ingest.lanes:0}") int laneCount) {
+        this.queryEventService = queryEventService;
+        int count = laneCount > 0 ? laneCount : Runtime.getRuntime().availableProcessors();
+        this.lanes = new ExecutorService[count];
+        for (int i = 0; i < count; i++) {
+            String threadName = "ingest-lane-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        log.info("Started event ingestion pipeline with {} lanes", count);
+    }
+
+    /**
+     * Dispatches a batch of events to their lanes and waits until every lane has applied its share.
+     * Lanes keep applying their share even if another lane fails, so once this returns or throws
+     * no lane is still working on the batch.
+     *
+     * @throws RuntimeException the first failure of a lane, or an {@link IllegalStateException}
+     *                          if the caller was interrupted while waiting; either way the batch
+     *                          must not be treated as applied
+     */
+    public void ingest(List<QueryEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        List<List<QueryEvent>> perLane = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            perLane.add(null);
+        }
+        for (QueryEvent event : events) {
+            int lane = laneFor(event.getQueryId());
+            List<QueryEvent> laneEvents = perLane.get(lane);
+            if (laneEvents == null) {
+                laneEvents = new ArrayList<>();
+                perLane.set(lane, laneEvents);
+            }
+            laneEvents.add(event);
+        }
+
+        List<Future<?>> pending = new ArrayList<>();
+        for (int i = 0; i < lanes.length; i++) {
+            List<QueryEvent> laneEvents = perLane.get(i);
+            if (laneEvents != null) {
+                pending.add(lanes[i].submit(() -> queryEventService.processEvents(laneEvents)));
+            }
+        }
+
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Keep waiting; the lane is still applying events of this batch
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException cause
+                                ? cause
+                                : new IllegalStateException("Ingestion lane failed", e.getCause());
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+
+        // A future that completed before the wait does not notice a pending interrupt
+        if (interrupted || Thread.interrupted()) {
+            Thread.currentThread().interrupt();
+            IllegalStateException interruption = new IllegalStateException("Interrupted while waiting for ingestion lanes");
+            if (failure != null) {
+                interruption.addSuppressed(failure);
+            }
+            throw interruption;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    int laneFor(String queryId) {
+        return queryId == null ? 0 : Math.floorMod(queryId.hashCode(), lanes.length);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+}
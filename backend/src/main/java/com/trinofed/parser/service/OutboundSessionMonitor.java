@@ -0,0 +1,298 @@
+package com.trinofed.parser.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches what each WebSocket session still has to receive and sheds load for sessions that
+ * fall behind, e.g. a browser tab on a slow connection.
+ * <p>
+ * Messages routed to a session on the client outbound channel are counted against those
+ * actually written to its socket; the difference is the session's backlog, whether it waits in
+ * the channel's executor or in the session's send buffer. A session whose backlog exceeds
+ * {@code trino.websocket.lag.max-pending-messages}, or whose current write has taken longer
+ * than {@code trino.websocket.lag.threshold-ms}, is lagging: messages marked with
+ * {@link #DROPPABLE_HEADER} are held back for it until its backlog has halved. Only the newest
+ * held message per destination and query ({@link #QUERY_ID_HEADER}) is kept, and those are
+ * sent once the session has drained, so a lagging client still ends up with each query's last
+ * update, e.g. the one that finished it. Query updates are droppable because a client that
+ * misses a patch resynchronizes from the query's latest snapshot; removals are not.
+ * <p>
+ * The transport's own send limits stay the last resort: a session that exceeds them despite
+ * this is closed by Spring and counted as terminated.
+ */
+@Slf4j
+@Component
+public class OutboundSessionMonitor implements ChannelInterceptor {
+
+    /**
+     * Message header marking broker messages that may be dropped for lagging sessions. It is not
+     * a STOMP header, so it is not sent to clients.
+     */
+    public static final String DROPPABLE_HEADER = "trinoDroppable";
+
+    /**
+     * Message header with the ID of the query a broker message is about; a held message replaces
+     * the previously held one of the same query and destination.
+     */
+    public static final String QUERY_ID_HEADER = "trinoQueryId";
+
+    private final long lagThresholdNanos;
+    private final int maxPendingMessages;
+
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong terminated = new AtomicLong();
+
+    @Autowired
+    public OutboundSessionMonitor(@Value("${trino.websocket.lag.threshold-ms:2000}") long lagThresholdMs,
+                                  @Value("${trino.websocket.lag.max-pending-messages:256}") int maxPendingMessages) {
+        this.lagThresholdNanos = TimeUnit.MILLISECONDS.toNanos(lagThresholdMs);
+        this.maxPendingMessages = maxPendingMessages;
+    }
+
+    /**
+     * Wraps the STOMP handler so writes to each session are observed.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                SessionState state = new SessionState(session.getExtensions().stream()
+                        .map(WebSocketExtension::getName)
+                        .toList());
+                sessions.put(session.getId(), state);
+                super.afterConnectionEstablished(new TrackedSession(session, state));
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                SessionState state = sessions.remove(session.getId());
+                if (CloseStatus.SESSION_NOT_RELIABLE.equals(closeStatus)) {
+                    terminated.incrementAndGet();
+                    log.warn("Closed WebSocket session {} after exceeding its send limits", session.getId());
+                } else if (state != null && state.dropped.get() > 0) {
+                    log.debug("WebSocket session {} closed; {} updates were dropped while it lagged",
+                            session.getId(), state.dropped.get());
+                }
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        SessionState state = sessionId != null ? sessions.get(sessionId) : null;
+        if (state == null) {
+            return message;
+        }
+        state.channel = channel;
+        boolean droppable = SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) == SimpMessageType.MESSAGE
+                && Boolean.TRUE.equals(message.getHeaders().get(DROPPABLE_HEADER));
+        List<Message<?>> held;
+        synchronized (state) {
+            if (isLagging(state)) {
+                if (droppable) {
+                    // Superseded by the newest message for the same destination and query
+                    state.held.put(heldKey(message), message);
+                    state.dropped.incrementAndGet();
+                    dropped.incrementAndGet();
+                    return null;
+                }
+                held = List.of();
+            } else {
+                held = state.takeHeld();
+            }
+            state.routed.incrementAndGet();
+        }
+        send(state, held);
+        return message;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> perSession = new LinkedHashMap<>();
+        int lagging = 0;
+        long now = System.nanoTime();
+        for (Map.Entry<String, SessionState> entry : sessions.entrySet()) {
+            SessionState state = entry.getValue();
+            if (state.lagging) {
+                lagging++;
+            }
+            long sendStarted = state.sendStarted;
+            Map<String, Object> session = new LinkedHashMap<>();
+            session.put("pendingMessages", state.pending());
+            session.put("sentMessages", state.written.get());
+            session.put("sentBytes", state.writtenBytes.get());
+            session.put("droppedMessages", state.dropped.get());
+            session.put("heldMessages", state.heldCount());
+            session.put("lagging", state.lagging);
+            session.put("lagEpisodes", state.lagEpisodes.get());
+            session.put("extensions", state.extensions);
+            session.put("currentSendMillis", sendStarted != 0 ? TimeUnit.NANOSECONDS.toMillis(now - sendStarted) : 0);
+            perSession.put(entry.getKey(), session);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", perSession.size());
+        stats.put("laggingSessions", lagging);
+        stats.put("droppedMessages", dropped.get());
+        stats.put("flushedMessages", flushed.get());
+        stats.put("terminatedSessions", terminated.get());
+        stats.put("lagThresholdMs", TimeUnit.NANOSECONDS.toMillis(lagThresholdNanos));
+        stats.put("maxPendingMessages", maxPendingMessages);
+        stats.put("perSession", perSession);
+        return stats;
+    }
+
+    /**
+     * Sends the messages held for a session once it has drained, after a write completed.
+     */
+    private void onWritten(SessionState state) {
+        List<Message<?>> held;
+        synchronized (state) {
+            if (!state.lagging || isLagging(state)) {
+                return;
+            }
+            held = state.takeHeld();
+        }
+        send(state, held);
+    }
+
+    /**
+     * Sends held messages back through the outbound channel; this monitor routes them like any
+     * other message, so they are held again if the session falls behind once more.
+     */
+    private void send(SessionState state, List<Message<?>> held) {
+        MessageChannel channel = state.channel;
+        if (held.isEmpty() || channel == null) {
+            return;
+        }
+        for (Message<?> message : held) {
+            channel.send(message);
+        }
+        flushed.addAndGet(held.size());
+        log.debug("Sent {} held updates after the session drained", held.size());
+    }
+
+    private static String heldKey(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        Object queryId = message.getHeaders().get(QUERY_ID_HEADER);
+        return destination + (queryId != null ? "\n" + queryId : "");
+    }
+
+    /**
+     * Re-evaluates whether a session lags. It starts lagging above the pending limit or during a
+     * slow write, and recovers once the write completed and half of the limit has drained.
+     * Callers hold the state's lock.
+     */
+    private boolean isLagging(SessionState state) {
+        long sendStarted = state.sendStarted;
+        boolean slowWrite = sendStarted != 0 && System.nanoTime() - sendStarted > lagThresholdNanos;
+        long pending = state.pending();
+        if (state.lagging) {
+            if (!slowWrite && pending <= maxPendingMessages / 2) {
+                state.lagging = false;
+            }
+        } else if (slowWrite || pending > maxPendingMessages) {
+            state.lagging = true;
+            state.lagEpisodes.incrementAndGet();
+        }
+        return state.lagging;
+    }
+
+    private static final class SessionState {
+        // Negotiated in the handshake, e.g. permessage-deflate
+        private final List<String> extensions;
+        private final AtomicLong routed = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong writtenBytes = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong lagEpisodes = new AtomicLong();
+        // Newest droppable message per destination and query while lagging; guarded by this
+        private final Map<String, Message<?>> held = new LinkedHashMap<>();
+        // The client outbound channel, to send held messages through
+        private volatile MessageChannel channel;
+        // System.nanoTime() when the current write started, 0 when not writing
+        private volatile long sendStarted;
+        private volatile boolean lagging;
+
+        private SessionState(List<String> extensions) {
+            this.extensions = extensions;
+        }
+
+        /**
+         * Approximate: frames the STOMP handler writes directly, such as errors, are not routed.
+         */
+        long pending() {
+            return Math.max(0, routed.get() - written.get());
+        }
+
+        synchronized int heldCount() {
+            return held.size();
+        }
+
+        /**
+         * Removes and returns the held messages, oldest first; callers hold the lock.
+         */
+        List<Message<?>> takeHeld() {
+            if (held.isEmpty()) {
+                return List.of();
+            }
+            List<Message<?>> messages = new ArrayList<>(held.values());
+            held.clear();
+            return messages;
+        }
+    }
+
+    /**
+     * Records writes to the underlying session. The transport's concurrent decorator wraps this
+     * one, so writes arrive one at a time.
+     */
+    private final class TrackedSession extends WebSocketSessionDecorator {
+
+        private final SessionState state;
+
+        private TrackedSession(WebSocketSession session, SessionState state) {
+            super(session);
+            this.state = state;
+        }
+
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            state.sendStarted = System.nanoTime();
+            try {
+                super.sendMessage(message);
+            } finally {
+                state.sendStarted = 0;
+                state.written.incrementAndGet();
+                state.writtenBytes.addAndGet(message.getPayloadLength());
+            }
+            onWritten(state);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in CBOR encoding of messages to WebSocket clients, negotiated per session.
+ * <p>
+ * A client that connects to the binary endpoint and sends {@code payload-encoding: cbor} in its
+ * STOMP CONNECT frame receives every JSON message body as CBOR in a binary frame, marked with the
+ * same {@code payload-encoding} header. Other clients, including all SockJS sessions, which can
+ * only carry text, keep receiving JSON. Bodies are transcoded once per message rather than once
+ * per session: the broker hands the same payload to every subscriber, so recent results are
+ * reused by identity.
+ */
+@Slf4j
+@Component
+public class PayloadEncodingNegotiator implements ChannelInterceptor {
+
+    public static final String ENCODING_HEADER = "payload-encoding";
+    public static final String CBOR = "cbor";
+
+    // Session attribute set by the handshake of endpoints that can send binary frames
+    static final String BINARY_FRAMES_ATTRIBUTE = "trinoBinaryFrames";
+
+    private static final int RECENT_PAYLOADS = 64;
+
+    private final ObjectMapper objectMapper;
+    private final CBORFactory cborFactory = new CBORFactory();
+
+    @Value("${trino.websocket.binary-encoding.enabled:true}")
+    private boolean enabled = true;
+
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+    // JSON payload -> CBOR; arrays hash by identity. Guarded by itself
+    private final Map<byte[], byte[]> recent = new LinkedHashMap<>(RECENT_PAYLOADS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<byte[], byte[]> eldest) {
+            return size() > RECENT_PAYLOADS;
+        }
+    };
+    private final AtomicLong transcoded = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong jsonBytes = new AtomicLong();
+    private final AtomicLong cborBytes = new AtomicLong();
+
+    @Autowired
+    public PayloadEncodingNegotiator(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Marks sessions of an endpoint as able to receive binary frames.
+     */
+    public HandshakeInterceptor binaryFramesInterceptor() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                attributes.put(BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+                return true;
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    @EventListener
+    public void onConnect(SessionConnectEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        if (!CBOR.equalsIgnoreCase(headers.getFirstNativeHeader(ENCODING_HEADER))) {
+            return;
+        }
+        Map<String, Object> attributes = headers.getSessionAttributes();
+        if (enabled && attributes != null && Boolean.TRUE.equals(attributes.get(BINARY_FRAMES_ATTRIBUTE))) {
+            cborSessions.add(headers.getSessionId());
+            log.debug("WebSocket session {} receives CBOR", headers.getSessionId());
+        } else {
+            log.debug("WebSocket session {} asked for CBOR but receives JSON", headers.getSessionId());
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        cborSessions.remove(event.getSessionId());
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null || !cborSessions.contains(sessionId)
+                || SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE
+                || !(message.getPayload() instanceof byte[] json)) {
+            return message;
+        }
+        Object contentType = message.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        MimeType mimeType = contentType instanceof String value ? MimeTypeUtils.parseMimeType(value) : (MimeType) contentType;
+        if (mimeType == null || !MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(mimeType)) {
+            return message;
+        }
+
+        byte[] cbor;
+        try {
+            cbor = toCbor(json);
+        } catch (IOException e) {
+            // The frame has no encoding header, so the client still recognizes it as JSON
+            log.warn("Failed to encode message for session {} as CBOR; sending JSON", sessionId, e);
+            return message;
+        }
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+        // Only octet-stream bodies are sent in binary frames
+        headers.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        headers.setNativeHeader(ENCODING_HEADER, CBOR);
+        return MessageBuilder.createMessage(cbor, headers.getMessageHeaders());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("cborSessions", cborSessions.size());
+        stats.put("transcodedPayloads", transcoded.get());
+        stats.put("reusedPayloads", reused.get());
+        stats.put("jsonBytes", jsonBytes.get());
+        stats.put("cborBytes", cborBytes.get());
+        return stats;
+    }
+
+    private byte[] toCbor(byte[] json) throws IOException {
+        synchronized (recent) {
+            byte[] cached = recent.get(json);
+            if (cached != null) {
+                reused.incrementAndGet();
+                return cached;
+            }
+        }
+
+        // Streams token by token; no tree of the payload is built
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 2 + 16);
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        byte[] cbor = out.toByteArray();
+
+        transcoded.incrementAndGet();
+        jsonBytes.addAndGet(json.length);
+        cborBytes.addAndGet(cbor.length);
+        synchronized (recent) {
+            recent.put(json, cbor);
+        }
+        return cbor;
+    }
+}
@@ -0,0 +1,213 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.Fragment;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryTreeNode;
+import com.trinofed.parser.model.plan.PlanExchange;
+import com.trinofed.parser.model.plan.PlanGraph;
+import com.trinofed.parser.model.plan.PlanGraphFragment;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Builds a query's {@link PlanGraph} by stitching the fragments of its JSON plan together through
+ * the {@code sourceFragmentIds} of their remote operators, and annotating fragments and exchanges
+ * with the statistics of its text plan.
+ */
+@Slf4j
+@Service
+public class PlanGraphService {
+
+    private static final Set<String> REMOTE_OPERATORS = Set.of("RemoteSource", "RemoteMerge");
+    private static final String ROOT_FRAGMENT = "0";
+
+    private final QueryEventService queryEventService;
+    private final QueryPlanParser queryPlanParser;
+
+    @Autowired
+    public PlanGraphService(QueryEventService queryEventService, QueryPlanParser queryPlanParser) {
+        this.queryEventService = queryEventService;
+        this.queryPlanParser = queryPlanParser;
+    }
+
+    /**
+     * The plan graph of a stored query, from its first parseable JSON plan, or null if the query
+     * is not stored. A query without a JSON plan has an empty graph.
+     */
+    public PlanGraph getPlanGraph(String queryId) {
+        QueryTree tree = queryEventService.getQueryTree(queryId);
+        return tree != null ? getPlanGraph(tree) : null;
+    }
+
+    /**
+     * The plan graph of a query tree with its plan parsed, e.g. as returned by
+     * {@link QueryEventService#getQueryTree(String)}.
+     */
+    public PlanGraph getPlanGraph(QueryTree tree) {
+        for (QueryEvent event : tree.getEvents()) {
+            if (event.hasJsonPlan()) {
+                Map<String, QueryTreeNode> fragments = queryPlanParser.parseJsonPlanFragments(event.getJsonPlan());
+                if (!fragments.isEmpty()) {
+                    return build(tree.getQueryId(), fragments, tree.getFragments());
+                }
+            }
+        }
+        return PlanGraph.builder().queryId(tree.getQueryId()).build();
+    }
+
+    /**
+     * Stitches parsed fragments into a graph.
+     *
+     * @param fragments each fragment's operator tree by fragment ID, in plan order
+     * @param stats     fragments of the text plan, matched by ID; may be empty
+     */
+    public PlanGraph build(String queryId, Map<String, QueryTreeNode> fragments, List<Fragment> stats) {
+        Map<String, Fragment> statsById = new HashMap<>();
+        if (stats != null) {
+            for (Fragment fragment : stats) {
+                if (fragment.getFragmentId() != null) {
+                    statsById.put(String.valueOf(fragment.getFragmentId()), fragment);
+                }
+            }
+        }
+
+        // Exchanges, and the fragments each fragment reads from
+        List<PlanExchange> exchanges = new ArrayList<>();
+        Map<String, List<String>> sources = new HashMap<>();
+        for (Map.Entry<String, QueryTreeNode> entry : fragments.entrySet()) {
+            collectExchanges(entry.getKey(), entry.getValue(), fragments, statsById, exchanges, sources);
+        }
+
+        // Breadth-first from the root, against the direction of data flow
+        String rootFragmentId = fragments.containsKey(ROOT_FRAGMENT) ? ROOT_FRAGMENT : fragments.keySet().iterator().next();
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        Deque<String> queue = new ArrayDeque<>();
+        depths.put(rootFragmentId, 0);
+        queue.add(rootFragmentId);
+        while (!queue.isEmpty()) {
+            String fragmentId = queue.poll();
+            for (String source : sources.getOrDefault(fragmentId, List.of())) {
+                if (depths.putIfAbsent(source, depths.get(fragmentId) + 1) == null) {
+                    queue.add(source);
+                }
+            }
+        }
+        for (String fragmentId : fragments.keySet()) {
+            depths.putIfAbsent(fragmentId, -1);
+        }
+
+        List<PlanGraphFragment> graphFragments = new ArrayList<>(fragments.size());
+        for (Map.Entry<String, Integer> entry : depths.entrySet()) {
+            graphFragments.add(toGraphFragment(entry.getKey(), fragments.get(entry.getKey()),
+                    entry.getValue(), statsById.get(entry.getKey())));
+        }
+
+        return PlanGraph.builder()
+                .queryId(queryId)
+                .rootFragmentId(rootFragmentId)
+                .fragments(graphFragments)
+                .exchanges(exchanges)
+                .build();
+    }
+
+    private void collectExchanges(String fragmentId, QueryTreeNode node, Map<String, QueryTreeNode> fragments,
+                                  Map<String, Fragment> statsById, List<PlanExchange> exchanges,
+                                  Map<String, List<String>> sources) {
+        if (REMOTE_OPERATORS.contains(node.getOperatorType()) && node.getMetadata() != null
+                && node.getMetadata().get("descriptor") instanceof Map<?, ?> descriptor) {
+            Map<?, ?> estimates = node.getMetadata().get("estimates") instanceof Map<?, ?> map ? map : Map.of();
+            for (String sourceId : parseFragmentIds(descriptor.get("sourceFragmentIds"))) {
+                if (!fragments.containsKey(sourceId) || sourceId.equals(fragmentId)) {
+                    log.debug("Ignoring exchange from unknown fragment {} in fragment {}", sourceId, fragmentId);
+                    continue;
+                }
+                Fragment source = statsById.get(sourceId);
+                exchanges.add(PlanExchange.builder()
+                        .sourceFragmentId(sourceId)
+                        .targetFragmentId(fragmentId)
+                        .remoteNodeId(node.getId())
+                        .operatorType(node.getOperatorType())
+                        .exchangeType(descriptor.get("type") != null ? String.valueOf(descriptor.get("type")) : null)
+                        .partitioning(source != null ? source.getOutputPartitioning() : null)
+                        .estimatedRows(parseEstimate(estimates.get("outputRowCount")))
+                        .estimatedBytes(parseEstimate(estimates.get("outputSizeInBytes")))
+                        .rows(source != null ? source.getOutputRows() : null)
+                        .bytes(source != null ? source.getOutputBytesValue() : null)
+                        .build());
+                sources.computeIfAbsent(fragmentId, k -> new ArrayList<>()).add(sourceId);
+            }
+        }
+        if (node.getChildren() != null) {
+            for (QueryTreeNode child : node.getChildren()) {
+                collectExchanges(fragmentId, child, fragments, statsById, exchanges, sources);
+            }
+        }
+    }
+
+    private static PlanGraphFragment toGraphFragment(String fragmentId, QueryTreeNode root, int depth, Fragment stats) {
+        PlanGraphFragment.PlanGraphFragmentBuilder fragment = PlanGraphFragment.builder()
+                .fragmentId(fragmentId)
+                .root(root)
+                .operatorCount(countOperators(root))
+                .depth(depth);
+        if (stats != null) {
+            fragment.partitioningType(stats.getPartitioningType())
+                    .outputPartitioning(stats.getOutputPartitioning())
+                    .taskCount(stats.getTaskCount())
+                    .cpuTimeMs(stats.getCpuTimeMs())
+                    .scheduledTimeMs(stats.getScheduledTimeMs())
+                    .blockedTimeMs(stats.getBlockedTimeMs())
+                    .inputRows(stats.getInputRows())
+                    .inputBytes(stats.getInputBytesValue())
+                    .outputRows(stats.getOutputRows())
+                    .outputBytes(stats.getOutputBytesValue())
+                    .peakMemoryBytes(stats.getPeakMemoryBytes());
+        }
+        return fragment.build();
+    }
+
+    private static int countOperators(QueryTreeNode node) {
+        int count = 1;
+        if (node.getChildren() != null) {
+            for (QueryTreeNode child : node.getChildren()) {
+                count += countOperators(child);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fragment IDs as Trino renders them, e.g. {@code "[1, 2]"}.
+     */
+    static List<String> parseFragmentIds(Object value) {
+        if (value == null) {
+            return List.of();
+        }
+        List<String> ids = new ArrayList<>(2);
+        for (String id : String.valueOf(value).replaceAll("[\\[\\]]", "").split(",")) {
+            if (!id.isBlank()) {
+                ids.add(id.trim());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Plan estimates are rendered as text and are "NaN" when unknown.
+     */
+    private static Double parseEstimate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            double estimate = Double.parseDouble(String.valueOf(value));
+            return Double.isNaN(estimate) ? null : estimate;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
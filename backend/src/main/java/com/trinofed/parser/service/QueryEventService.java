@@ -1,24 +1,34 @@
 package com.trinofed.parser.service;
 
 import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryFilter;
+import com.trinofed.parser.model.QueryPage;
+import com.trinofed.parser.model.QueryResume;
 import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QuerySummary;
 import com.trinofed.parser.model.QueryTreeNode;
+import com.trinofed.parser.model.QueryUpdate;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Slf4j
 @Service
 public class QueryEventService {
 
-    private final Map<String, QueryTree> queryTrees = new ConcurrentHashMap<>();
-    private final Map<String, List<QueryEvent>> queryEvents = new ConcurrentHashMap<>();
-    private final Set<String> processedEventIds = ConcurrentHashMap.newKeySet();
+    private final Map<String, QueryState> queries = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> catalogQueries = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> schemaQueries = new ConcurrentHashMap<>();
     private final Map<String, Set<String>> tableQueries = new ConcurrentHashMap<>();
@@ -27,6 +37,47 @@ public class QueryEventService {
     private final QueryPlanParser queryPlanParser;
     private final TextPlanParser textPlanParser;
     private com.trinofed.parser.controller.QueryController queryController;
+    private volatile EventDeduplicator eventDeduplicator;
+    private volatile QueryUpdatePublisher updatePublisher;
+
+    // Stored events keep their plans compressed; parsed plans are only materialized when a
+    // client reads a single query, and the most recently read ones are memoized here by plan version
+    @Value("${trino.plans.parsed-cache-size:256}")
+    private int parsedPlanCacheSize = 256;
+
+    private final Map<String, QueryState.ParsedPlan> parsedPlans = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, QueryState.ParsedPlan> eldest) {
+                    return size() > parsedPlanCacheSize;
+                }
+            });
+    private final AtomicLong parsedPlanHits = new AtomicLong();
+    private final AtomicLong parsedPlanMisses = new AtomicLong();
+
+    // Retention: queries are dropped after max-age without new events; beyond max-queries or the
+    // estimated heap budget, finished queries are evicted first, least recently accessed first
+    @Value("${trino.retention.max-queries:5000}")
+    private int maxQueries = 5000;
+
+    @Value("${trino.retention.max-age:PT24H}")
+    private Duration maxAge = Duration.ofHours(24);
+
+    @Value("${trino.retention.max-heap-bytes:268435456}")
+    private long maxHeapBytes = 256L * 1024 * 1024;
+
+    private Clock clock = Clock.systemUTC();
+    private final AtomicLong storeBytes = new AtomicLong();
+    private final AtomicLong ageEvictions = new AtomicLong();
+    private final AtomicLong countEvictions = new AtomicLong();
+    private final AtomicLong memoryEvictions = new AtomicLong();
+    private final ReentrantLock retentionLock = new ReentrantLock();
+
+    // While a backlog is replayed, trees are neither broadcast nor events logged one by one;
+    // clients get a single snapshot of every query once the consumer reaches the head
+    private volatile boolean catchingUp;
+    private volatile long catchUpStartMillis;
+    private final AtomicLong catchUpEvents = new AtomicLong();
 
     @Autowired
     public QueryEventService(SimpMessagingTemplate messagingTemplate, DatabaseService databaseService,
@@ -42,55 +93,195 @@ public class QueryEventService {
         this.queryController = queryController;
     }
 
+    @Autowired
+    public void setEventDeduplicator(EventDeduplicator eventDeduplicator) {
+        this.eventDeduplicator = eventDeduplicator;
+    }
+
+    @Autowired
+    public void setUpdatePublisher(QueryUpdatePublisher updatePublisher) {
+        this.updatePublisher = updatePublisher;
+    }
+
     
 
     public void processEvent(QueryEvent event) {
-        String queryId = event.getQueryId();
+        processEvents(List.of(event));
+    }
 
-        // Create unique event ID to prevent duplicates
-        String eventId = queryId + "-" + event.getTimestamp().toEpochMilli() + "-" + event.getState();
+    /**
+     * Applies a batch of events (typically one Kafka poll) and rebuilds/broadcasts
+     * each affected query tree exactly once, after all of its events in the batch
+     * have been stored.
+     */
+    public void processEvents(List<QueryEvent> events) {
+        boolean live = !catchingUp;
+        Set<String> affectedQueryIds = new LinkedHashSet<>();
+        for (QueryEvent event : events) {
+            if (applyEvent(event, true, live)) {
+                affectedQueryIds.add(event.getQueryId());
+            }
+        }
 
-        // Check if we've already processed this exact event
-        if (processedEventIds.contains(eventId)) {
-            log.debug("Skipping duplicate event: queryId={}, state={}, timestamp={}",
-                     queryId, event.getState(), event.getTimestamp());
-            return;
+        if (!live) {
+            catchUpEvents.addAndGet(events.size());
+            affectedQueryIds.clear();
+        }
+        for (String queryId : affectedQueryIds) {
+            // Send the refreshed snapshot; plans are not parsed on the ingest path. Only this
+            // lane updates the query, so the version matches the tree
+            QueryState state = queries.get(queryId);
+            QueryTree tree = currentTree(state, false);
+
+            // Send update via WebSocket
+            if (tree != null) {
+                updatePublisher().publish(queryId, state.getSnapshot().version(), tree);
+            }
         }
 
-        // Mark event as processed
-        processedEventIds.add(eventId);
+        if (events.size() > 1) {
+            log.debug("Processed batch of {} events affecting {} queries", events.size(), affectedQueryIds.size());
+        }
 
-        // Store event
-        queryEvents.computeIfAbsent(queryId, k -> new ArrayList<>()).add(event);
+        // Don't wait for the next sweep when the batch pushed the store over its limits
+        if (queries.size() > maxQueries || storeBytes.get() > maxHeapBytes) {
+            enforceRetention();
+        }
+    }
 
-        // Process database information IMMEDIATELY
-        databaseService.processEvent(event);
-        
-        // Invalidate catalog cache to ensure fresh data
-        if (event.getCatalog() != null) {
-            // Force immediate database discovery
-            log.debug("Processing new catalog discovery: {}", event.getCatalog());
+    /**
+     * Enters catch-up mode: subsequent batches are applied without broadcasting trees or logging
+     * each event, until {@link #endCatchUp()}.
+     */
+    public void beginCatchUp() {
+        if (catchingUp) {
+            return;
         }
+        catchUpStartMillis = clock.millis();
+        catchUpEvents.set(0);
+        catchingUp = true;
+        log.info("Consumer is behind; applying backlog without broadcasting updates");
+    }
 
-        // Track database metadata
-        if (event.getCatalog() != null) {
-            catalogQueries.computeIfAbsent(event.getCatalog(), k -> new HashSet<>()).add(queryId);
+    /**
+     * Leaves catch-up mode and broadcasts one snapshot of every stored query to
+     * {@code /topic/query-snapshot}, so clients do not have to replay the backlog themselves.
+     */
+    public void endCatchUp() {
+        if (!catchingUp) {
+            return;
         }
-        if (event.getSchema() != null) {
-            String fullSchema = (event.getCatalog() != null ? event.getCatalog() + "." : "") + event.getSchema();
-            schemaQueries.computeIfAbsent(fullSchema, k -> new HashSet<>()).add(queryId);
+        catchingUp = false;
+        List<QueryUpdatePublisher.VersionedTree> trees = versionedTrees();
+        updatePublisher().publishAll(trees);
+        log.info("Caught up after applying {} backlog events in {} ms; broadcast snapshot of {} queries",
+                catchUpEvents.get(), clock.millis() - catchUpStartMillis, trees.size());
+    }
+
+    public boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    /**
+     * Re-applies events recovered at startup (from a snapshot or the journal) without
+     * broadcasting them or logging each one.
+     *
+     * @param updateDatabases whether the events still need to be reflected in DatabaseService;
+     *                        false when its state was restored along with the events
+     */
+    public void restoreEvents(List<QueryEvent> events, boolean updateDatabases) {
+        for (QueryEvent event : events) {
+            applyEvent(event, updateDatabases, false);
         }
-        if (event.getTableName() != null) {
-            String fullTable = (event.getCatalog() != null ? event.getCatalog() + "." : "") + 
-                             (event.getSchema() != null ? event.getSchema() + "." : "") + event.getTableName();
-            tableQueries.computeIfAbsent(fullTable, k -> new HashSet<>()).add(queryId);
+        if (queries.size() > maxQueries || storeBytes.get() > maxHeapBytes) {
+            enforceRetention();
+        }
+    }
+
+    /**
+     * Events of every stored query, in timestamp order per query.
+     */
+    public List<QueryEvent> exportEvents() {
+        List<QueryEvent> events = new ArrayList<>();
+        for (QueryState state : queries.values()) {
+            QueryState.Snapshot snapshot = state.getSnapshot();
+            if (snapshot != null) {
+                events.addAll(snapshot.tree().getEvents());
+            }
         }
+        return events;
+    }
+
+    /**
+     * Stores a single event and updates the database/catalog indexes.
+     *
+     * @param updateDatabases whether to feed the event to DatabaseService
+     * @param logEvent        whether to log the event at INFO level
+     * @return true if the event was new, false if it was a duplicate
+     */
+    private boolean applyEvent(QueryEvent event, boolean updateDatabases, boolean logEvent) {
+        String queryId = event.getQueryId();
+
+        // Fingerprint the event to prevent duplicates
+        long fingerprint = EventDeduplicator.fingerprint(event);
+        EventDeduplicator deduplicator = eventDeduplicator();
 
-        // Build or update query tree
-        QueryTree tree = buildQueryTree(queryId);
+        // Events of a query that is no longer stored are only checked against the finished-query
+        // filter, and only if they could be late; a false positive must not drop a new query
+        if (!queries.containsKey(queryId) && deduplicator.isPlausiblyLate(event)
+                && deduplicator.seenFinished(fingerprint)) {
+            logDuplicate(event);
+            return false;
+        }
+
+        int totalEvents;
+        while (true) {
+            QueryState state = queries.computeIfAbsent(queryId, QueryState::new);
+            // Only this query's ingestion lane writes to its state; the lock keeps the retention
+            // sweep from evicting it halfway through
+            synchronized (state) {
+                if (state.isEvicted()) {
+                    continue;
+                }
+
+                // Mark event as processed, skipping it if we've already seen this exact event
+                if (!deduplicator.markSeen(state, fingerprint)) {
+                    logDuplicate(event);
+                    return false;
+                }
+
+                // Process database information IMMEDIATELY
+                if (updateDatabases) {
+                    databaseService.processEvent(event);
+                }
 
-        // Send update via WebSocket
-        messagingTemplate.convertAndSend("/topic/query-updates", tree);
+                // Plans are only needed again when a client asks for this query's detail
+                event.compactPlans();
+
+                // Store event in timestamp order and refresh the query's snapshot; readers just
+                // pick up the published snapshot
+                long bytesBefore = state.getEstimatedBytes();
+                List<QueryEvent> storedEvents = state.addEvent(event, clock.millis());
+                storeBytes.addAndGet(state.getEstimatedBytes() - bytesBefore);
+                refreshSnapshot(state, storedEvents);
+                totalEvents = storedEvents.size();
+
+                // A finished query's fingerprints move to the bounded, time-windowed filter
+                if (EventDeduplicator.isFinalState(event.getState())) {
+                    deduplicator.retire(state);
+                }
+
+                // Invalidate catalog cache to ensure fresh data
+                if (event.getCatalog() != null) {
+                    // Force immediate database discovery
+                    log.debug("Processing new catalog discovery: {}", event.getCatalog());
+                }
+
+                // Track database metadata
+                updateIndexes(queryId, event, true);
+            }
+            break;
+        }
 
         // AUTO-CACHING DISABLED - Prevents duplicate query entries in history
         // Re-executing queries to cache results causes them to appear as new queries with different IDs
@@ -103,75 +294,229 @@ public class QueryEventService {
         }
         */
 
-        log.info("Processed event for query: {}, catalog: {}, schema: {}, table: {}, total events: {}",
-                queryId, event.getCatalog(), event.getSchema(), event.getTableName(),
-                queryEvents.get(queryId).size());
+        if (logEvent) {
+            log.info("Processed event for query: {}, catalog: {}, schema: {}, table: {}, total events: {}",
+                    queryId, event.getCatalog(), event.getSchema(), event.getTableName(), totalEvents);
+        }
+        return true;
     }
 
-    private QueryTree buildQueryTree(String queryId) {
-        List<QueryEvent> events = queryEvents.get(queryId);
+    private void logDuplicate(QueryEvent event) {
+        log.debug("Skipping duplicate event: queryId={}, state={}, timestamp={}",
+                 event.getQueryId(), event.getState(), event.getTimestamp());
+    }
 
-        if (events == null || events.isEmpty()) {
-            return null;
+    /**
+     * Adds the query to, or removes it from, the catalog/schema/table indexes for the event's tables.
+     */
+    private void updateIndexes(String queryId, QueryEvent event, boolean add) {
+        if (event.getCatalog() != null) {
+            updateIndex(catalogQueries, event.getCatalog(), queryId, add);
+        }
+        if (event.getSchema() != null) {
+            String fullSchema = (event.getCatalog() != null ? event.getCatalog() + "." : "") + event.getSchema();
+            updateIndex(schemaQueries, fullSchema, queryId, add);
+        }
+        if (event.getTableName() != null) {
+            String fullTable = (event.getCatalog() != null ? event.getCatalog() + "." : "") +
+                             (event.getSchema() != null ? event.getSchema() + "." : "") + event.getTableName();
+            updateIndex(tableQueries, fullTable, queryId, add);
         }
+    }
 
-        // Sort events by timestamp
-        events.sort(Comparator.comparing(QueryEvent::getTimestamp));
+    private static void updateIndex(Map<String, Set<String>> index, String key, String queryId, boolean add) {
+        // compute() keeps adds and removal of an emptied entry atomic per key
+        index.compute(key, (k, queryIds) -> {
+            if (add) {
+                Set<String> ids = queryIds != null ? queryIds : ConcurrentHashMap.newKeySet();
+                ids.add(queryId);
+                return ids;
+            }
+            if (queryIds != null) {
+                queryIds.remove(queryId);
+                return queryIds.isEmpty() ? null : queryIds;
+            }
+            return null;
+        });
+    }
 
-        // Find the latest event with complete information
-        QueryEvent latestEvent = events.get(events.size() - 1);
+    private QueryUpdatePublisher updatePublisher() {
+        QueryUpdatePublisher publisher = updatePublisher;
+        if (publisher == null) {
+            synchronized (this) {
+                if (updatePublisher == null) {
+                    // Not wired by Spring (e.g. constructed directly)
+                    updatePublisher = new QueryUpdatePublisher(messagingTemplate);
+                }
+                publisher = updatePublisher;
+            }
+        }
+        return publisher;
+    }
 
-        // Build tree structure from stage stats and operator stats
-        QueryTreeNode root = buildTreeFromEvents(events);
+    /**
+     * Current snapshot trees of all stored queries with their versions, oldest first, as
+     * broadcast: without parsed plans.
+     */
+    private List<QueryUpdatePublisher.VersionedTree> versionedTrees() {
+        List<QueryUpdatePublisher.VersionedTree> trees = new ArrayList<>();
+        for (QueryState state : queries.values()) {
+            QueryUpdatePublisher.VersionedTree tree = versionedTree(state);
+            if (tree != null) {
+                trees.add(tree);
+            }
+        }
+        trees.sort(Comparator.comparing(tree -> tree.tree().getStartTime()));
+        return trees;
+    }
 
-        // Parse fragments from plan text if available
-        List<com.trinofed.parser.model.Fragment> fragments = new ArrayList<>();
-        for (QueryEvent event : events) {
-            if (event.getPlan() != null && !event.getPlan().trim().isEmpty()) {
-                log.info("Parsing fragments from text plan for query: {}", event.getQueryId());
-                fragments = textPlanParser.parseTextPlan(event.getPlan());
-                if (!fragments.isEmpty()) {
-                    log.info("Successfully parsed {} fragments from text plan", fragments.size());
-                    break; // Use the first available plan
+    private QueryUpdatePublisher.VersionedTree versionedTree(QueryState state) {
+        if (state == null) {
+            return null;
+        }
+        // Read the version first; a concurrent update only makes the tree newer than claimed,
+        // which the next patch then repeats
+        QueryState.Snapshot snapshot = state.getSnapshot();
+        QueryTree tree = currentTree(state, false);
+        return snapshot != null && tree != null
+                ? new QueryUpdatePublisher.VersionedTree(state.getQueryId(), snapshot.version(), tree)
+                : null;
+    }
+
+    private EventDeduplicator eventDeduplicator() {
+        EventDeduplicator deduplicator = eventDeduplicator;
+        if (deduplicator == null) {
+            synchronized (this) {
+                if (eventDeduplicator == null) {
+                    // Not wired by Spring (e.g. constructed directly); use the default window
+                    eventDeduplicator = new EventDeduplicator();
                 }
+                deduplicator = eventDeduplicator;
             }
         }
+        return deduplicator;
+    }
 
-        return QueryTree.builder()
-                .queryId(queryId)
+    /**
+     * Builds and publishes the snapshot for the state's current events. Only the fields derived
+     * from the first and latest event change; the parsed plan is attached on read.
+     * Callers hold the state's lock so the snapshot matches the events it was built from.
+     */
+    private void refreshSnapshot(QueryState state, List<QueryEvent> events) {
+        long version = state.getVersion();
+        List<QueryEvent> planEvents = state.getPlanEvents();
+
+        QueryEvent firstEvent = events.get(0);
+        QueryEvent latestEvent = events.get(events.size() - 1);
+
+        QueryTreeNode root = null;
+        if (planEvents.stream().noneMatch(QueryEvent::hasJsonPlan)) {
+            // Fallback to legacy method if no jsonPlan is available
+            log.debug("No JSON plan available, building tree from event metadata");
+            root = buildTreeFromEventMetadata(events);
+        }
+
+        QueryTree tree = QueryTree.builder()
+                .queryId(state.getQueryId())
                 .query(latestEvent.getQuery())
                 .user(latestEvent.getUser())
                 .state(latestEvent.getState())
-                .startTime(events.get(0).getTimestamp())
+                .startTime(firstEvent.getTimestamp())
                 .endTime(latestEvent.getTimestamp())
                 .totalExecutionTime(latestEvent.getExecutionTime())
                 .errorMessage(latestEvent.getErrorMessage())
                 .root(root)
-                .events(new ArrayList<>(events))
-                .fragments(fragments)
+                .events(events)
+                .version(version)
                 .build();
+
+        state.publish(new QueryState.Snapshot(version, tree, state.getPlanVersion(), planEvents));
     }
 
-    private QueryTreeNode buildTreeFromEvents(List<QueryEvent> events) {
-        // Build a hierarchical tree from events
-        // First, try to parse from jsonPlan if available
-        for (QueryEvent event : events) {
-            if (event.getJsonPlan() != null && !event.getJsonPlan().trim().isEmpty()) {
-                log.info("Parsing query tree from JSON plan for query: {}", event.getQueryId());
+    /**
+     * Returns the query's current tree from its published snapshot.
+     *
+     * @param withPlan whether to attach the parsed plan, inflating and parsing the query's plans
+     *                 unless they are memoized for its plan version; the tree without it is the
+     *                 one broadcast to subscribers and listed
+     */
+    private QueryTree currentTree(QueryState state, boolean withPlan) {
+        QueryState.Snapshot snapshot = state != null ? state.getSnapshot() : null;
+        if (snapshot == null) {
+            return null;
+        }
+        if (!withPlan || snapshot.planEvents().isEmpty()) {
+            return snapshot.tree();
+        }
+
+        String queryId = state.getQueryId();
+        QueryState.ParsedPlan plan = parsedPlans.get(queryId);
+        if (plan != null && plan.planVersion() == snapshot.planVersion()) {
+            parsedPlanHits.incrementAndGet();
+        } else {
+            // Concurrent readers of a new plan version may both parse it; the result is the same
+            parsedPlanMisses.incrementAndGet();
+            plan = parsePlans(snapshot.planVersion(), snapshot.planEvents());
+            if (!state.isEvicted()) {
+                parsedPlans.merge(queryId, plan,
+                        (cached, parsed) -> parsed.planVersion() >= cached.planVersion() ? parsed : cached);
+            }
+        }
+
+        QueryTreeNode root = plan.root();
+        if (root == null) {
+            // None of the JSON plans could be parsed
+            root = snapshot.tree().getRoot() != null
+                    ? snapshot.tree().getRoot()
+                    : buildTreeFromEventMetadata(snapshot.tree().getEvents());
+        }
+        return snapshot.tree().toBuilder()
+                .root(root)
+                .fragments(plan.fragments())
+                .build();
+    }
+
+    /**
+     * Inflates and parses the plans carried by the given events (in timestamp order). A plan
+     * that fails to parse is left out rather than failing the read.
+     */
+    private QueryState.ParsedPlan parsePlans(long planVersion, List<QueryEvent> planEvents) {
+        // Build a hierarchical tree from the first parseable jsonPlan
+        QueryTreeNode root = null;
+        for (QueryEvent event : planEvents) {
+            if (event.hasJsonPlan()) {
+                log.debug("Parsing query tree from JSON plan for query: {}", event.getQueryId());
                 QueryTreeNode parsedRoot = queryPlanParser.parseJsonPlan(event.getJsonPlan());
 
                 if (parsedRoot != null) {
                     // Enrich the parsed tree with event metadata
                     enrichTreeWithEventData(parsedRoot, event);
-                    log.info("Successfully parsed JSON plan with operator: {}", parsedRoot.getOperatorType());
-                    return parsedRoot;
+                    log.debug("Successfully parsed JSON plan with operator: {}", parsedRoot.getOperatorType());
+                    root = parsedRoot;
+                    break;
+                }
+            }
+        }
+
+        // Parse fragments from plan text if available
+        List<com.trinofed.parser.model.Fragment> fragments = new ArrayList<>();
+        for (QueryEvent event : planEvents) {
+            if (event.hasPlan()) {
+                log.debug("Parsing fragments from text plan for query: {}", event.getQueryId());
+                try {
+                    fragments = textPlanParser.parseTextPlan(event.getPlan());
+                } catch (RuntimeException e) {
+                    log.warn("Failed to parse text plan for query: {}", event.getQueryId(), e);
+                    fragments = new ArrayList<>();
+                }
+                if (!fragments.isEmpty()) {
+                    log.debug("Successfully parsed {} fragments from text plan", fragments.size());
+                    break; // Use the first available plan
                 }
             }
         }
 
-        // Fallback to legacy method if no jsonPlan is available
-        log.debug("No JSON plan available, building tree from event metadata");
-        return buildTreeFromEventMetadata(events);
+        return new QueryState.ParsedPlan(planVersion, root, fragments);
     }
 
     /**
@@ -289,17 +634,325 @@ public class QueryEventService {
         }
     }
 
+    /**
+     * Applies the retention limits: drops queries without new events for longer than max-age,
+     * then evicts until both the query count and the estimated heap are within budget,
+     * finished queries first and least recently accessed first within each group.
+     */
+    @Scheduled(fixedDelayString = "${trino.retention.sweep-interval-ms:10000}")
+    public void enforceRetention() {
+        // A sweep already in progress covers whatever triggered this one
+        if (!retentionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = clock.millis();
+            long cutoff = now - maxAge.toMillis();
+            int evicted = 0;
+            for (QueryState state : queries.values()) {
+                if (state.getLastUpdateMillis() < cutoff && evict(state)) {
+                    ageEvictions.incrementAndGet();
+                    evicted++;
+                }
+            }
+
+            if (queries.size() > maxQueries || storeBytes.get() > maxHeapBytes) {
+                // Capture the ordering keys first; they keep changing while we sort
+                List<EvictionCandidate> candidates = new ArrayList<>(queries.size());
+                for (QueryState state : queries.values()) {
+                    candidates.add(new EvictionCandidate(state, state.isFinished(), state.getLastAccessMillis()));
+                }
+                candidates.sort(Comparator.comparing((EvictionCandidate c) -> !c.finished())
+                        .thenComparingLong(EvictionCandidate::lastAccessMillis));
+
+                for (EvictionCandidate candidate : candidates) {
+                    boolean overCount = queries.size() > maxQueries;
+                    if (!overCount && storeBytes.get() <= maxHeapBytes) {
+                        break;
+                    }
+                    if (evict(candidate.state())) {
+                        (overCount ? countEvictions : memoryEvictions).incrementAndGet();
+                        evicted++;
+                    }
+                }
+            }
+
+            if (evicted > 0) {
+                log.info("Retention evicted {} queries; {} remain, ~{} bytes", evicted, queries.size(), storeBytes.get());
+            }
+            // Patch bases re-recorded by a lane racing with an eviction
+            updatePublisher().retainAll(queries.keySet());
+        } finally {
+            retentionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a query from the store and from every index that references it.
+     *
+     * @return false if the query had already been evicted
+     */
+    private boolean evict(QueryState state) {
+        synchronized (state) {
+            if (state.isEvicted()) {
+                return false;
+            }
+            state.markEvicted();
+            String queryId = state.getQueryId();
+            queries.remove(queryId, state);
+            parsedPlans.remove(queryId);
+            storeBytes.addAndGet(-state.getEstimatedBytes());
+
+            QueryState.Snapshot snapshot = state.getSnapshot();
+            if (snapshot != null) {
+                for (QueryEvent event : snapshot.tree().getEvents()) {
+                    updateIndexes(queryId, event, false);
+                }
+            }
+
+            // Redeliveries of an evicted query are still recognised while inside the window
+            eventDeduplicator().retire(state);
+            if (catchingUp) {
+                updatePublisher().forget(queryId);
+            } else {
+                updatePublisher().remove(queryId);
+            }
+            log.debug("Evicted query {} ({} bytes)", queryId, state.getEstimatedBytes());
+            return true;
+        }
+    }
+
+    private record EvictionCandidate(QueryState state, boolean finished, long lastAccessMillis) {
+    }
+
+    /**
+     * Current size of the in-memory query store and how many queries retention has evicted.
+     */
+    public Map<String, Object> getStoreStats() {
+        int finished = 0;
+        for (QueryState state : queries.values()) {
+            if (state.isFinished()) {
+                finished++;
+            }
+        }
+
+        Map<String, Object> limits = new LinkedHashMap<>();
+        limits.put("maxQueries", maxQueries);
+        limits.put("maxAgeMs", maxAge.toMillis());
+        limits.put("maxHeapBytes", maxHeapBytes);
+
+        Map<String, Object> evictions = new LinkedHashMap<>();
+        evictions.put("age", ageEvictions.get());
+        evictions.put("count", countEvictions.get());
+        evictions.put("memory", memoryEvictions.get());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queries", queries.size());
+        stats.put("finishedQueries", finished);
+        stats.put("runningQueries", queries.size() - finished);
+        stats.put("estimatedBytes", storeBytes.get());
+        stats.put("parsedPlans", parsedPlans.size());
+        stats.put("parsedPlanHits", parsedPlanHits.get());
+        stats.put("parsedPlanMisses", parsedPlanMisses.get());
+        stats.put("catalogs", catalogQueries.size());
+        stats.put("schemas", schemaQueries.size());
+        stats.put("tables", tableQueries.size());
+        stats.put("dedupFilterBytes", eventDeduplicator().getFilterSizeBytes());
+        stats.put("dedupFalsePositiveRate", eventDeduplicator().getEstimatedFalsePositiveRate());
+        stats.put("dedupEarlyRotations", eventDeduplicator().getEarlyRotations());
+        stats.put("limits", limits);
+        stats.put("evictions", evictions);
+        return stats;
+    }
+
+    /**
+     * Snapshot updates of all stored queries, for a WebSocket client that just subscribed.
+     */
+    public List<QueryUpdate> getQuerySnapshots() {
+        QueryUpdatePublisher publisher = updatePublisher();
+        return versionedTrees().stream()
+                .map(tree -> publisher.snapshot(tree.queryId(), tree.version(), tree.tree()))
+                .toList();
+    }
+
+    /**
+     * Summaries of all stored queries, oldest first.
+     */
+    public List<QuerySummary> getQuerySummaries() {
+        return versionedTrees().stream()
+                .map(tree -> QuerySummary.from(tree.tree(), tree.version()))
+                .toList();
+    }
+
+    /**
+     * One page of query summaries matching the filter, ordered by start time and then query ID.
+     * Only the stored snapshots are read, no plan is parsed, and only the page's queries are
+     * projected, so the cost grows with the number of stored queries but not with their size.
+     *
+     * @param cursor      the previous page's {@link QueryPage#getNextCursor()}, or null for the first page
+     * @param newestFirst whether the latest started queries come first
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public QueryPage getQueryPage(QueryFilter filter, String cursor, int limit, boolean newestFirst) {
+        Comparator<PageEntry> order = Comparator.comparingLong(PageEntry::startMillis)
+                .thenComparing(PageEntry::queryId);
+        if (newestFirst) {
+            order = order.reversed();
+        }
+        PageEntry after = cursor != null ? PageEntry.decode(cursor) : null;
+
+        Iterable<QueryState> candidates = queries.values();
+        if (filter.getCatalog() != null) {
+            Set<String> queryIds = catalogQueries.getOrDefault(filter.getCatalog(), Set.of());
+            candidates = () -> queryIds.stream().map(queries::get).filter(Objects::nonNull).iterator();
+        }
+
+        // Keep the first limit + 1 entries after the cursor; the extra one says whether there is more
+        PriorityQueue<PageEntry> selected = new PriorityQueue<>(limit + 2, order.reversed());
+        for (QueryState state : candidates) {
+            QueryState.Snapshot snapshot = state.getSnapshot();
+            if (snapshot == null || !filter.matches(snapshot.tree())) {
+                continue;
+            }
+            Instant startTime = snapshot.tree().getStartTime();
+            PageEntry entry = new PageEntry(startTime != null ? startTime.toEpochMilli() : 0,
+                    state.getQueryId(), snapshot);
+            if (after != null && order.compare(entry, after) <= 0) {
+                continue;
+            }
+            selected.add(entry);
+            if (selected.size() > limit + 1) {
+                selected.poll();
+            }
+        }
+
+        List<PageEntry> entries = new ArrayList<>(selected);
+        entries.sort(order);
+        boolean more = entries.size() > limit;
+        if (more) {
+            entries = entries.subList(0, limit);
+        }
+        return QueryPage.builder()
+                .items(entries.stream()
+                        .map(entry -> QuerySummary.from(entry.snapshot().tree(), entry.snapshot().version()))
+                        .toList())
+                .nextCursor(more ? entries.get(entries.size() - 1).encode() : null)
+                .limit(limit)
+                .build();
+    }
+
+    /**
+     * Position of a query in a page; the cursor is its encoded start time and ID.
+     */
+    private record PageEntry(long startMillis, String queryId, QueryState.Snapshot snapshot) {
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((startMillis + ":" + queryId).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static PageEntry decode(String cursor) {
+            try {
+                String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = position.indexOf(':');
+                return new PageEntry(Long.parseLong(position.substring(0, separator)),
+                        position.substring(separator + 1), null);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+            }
+        }
+    }
+
+    /**
+     * Snapshot update of one query, or null if it is not stored.
+     */
+    public QueryUpdate getQuerySnapshot(String queryId) {
+        QueryUpdatePublisher.VersionedTree tree = versionedTree(queries.get(queryId));
+        return tree != null ? updatePublisher().snapshot(queryId, tree.version(), tree.tree()) : null;
+    }
+
+    /**
+     * What a reconnecting WebSocket client needs to catch up from the epoch and sequence it
+     * last saw: the missed updates if they are still buffered, otherwise a full snapshot.
+     */
+    public QueryResume resume(String epoch, long lastSequence) {
+        QueryUpdatePublisher publisher = updatePublisher();
+        List<QueryUpdate> missed = publisher.updatesSince(epoch, lastSequence);
+        if (missed != null) {
+            return QueryResume.builder()
+                    .mode(QueryResume.Mode.REPLAY)
+                    .epoch(publisher.getEpoch())
+                    .sequence(missed.isEmpty() ? lastSequence : missed.get(missed.size() - 1).getSequence())
+                    .updates(missed)
+                    .build();
+        }
+        // Read the sequence first; updates after it may already be in the snapshot, and
+        // clients ignore versions they hold
+        long sequence = publisher.getSequence();
+        return QueryResume.builder()
+                .mode(QueryResume.Mode.SNAPSHOT)
+                .epoch(publisher.getEpoch())
+                .sequence(sequence)
+                .updates(getQuerySnapshots())
+                .build();
+    }
+
+    /**
+     * The query's tree with its parsed plan, or null if it is not stored.
+     */
     public QueryTree getQueryTree(String queryId) {
-        return buildQueryTree(queryId);
+        return readTree(queryId, true);
+    }
+
+    /**
+     * The query's tree, or null if it is not stored.
+     *
+     * @param withPlan whether to include the parsed plan's root and fragments, parsing the plans
+     *                 unless they were read recently; when false, this is the tree as broadcast
+     *                 to subscribers
+     */
+    public QueryTree getQueryTree(String queryId, boolean withPlan) {
+        return readTree(queryId, withPlan);
+    }
+
+    /**
+     * A client's read of a single query, which keeps it warm for LRU eviction. Listings and
+     * broadcasts don't touch queries, so polling clients leave the eviction order alone.
+     */
+    private QueryTree readTree(String queryId, boolean withPlan) {
+        QueryState state = queries.get(queryId);
+        if (state != null) {
+            state.touch(clock.millis());
+        }
+        return currentTree(state, withPlan);
     }
 
     public List<String> getAllQueryIds() {
-        return new ArrayList<>(queryEvents.keySet());
+        return new ArrayList<>(queries.keySet());
+    }
+
+    /**
+     * Current version of every stored query by query ID, read from the published snapshots
+     * without building any trees, e.g. to answer a conditional request for the whole list.
+     */
+    public Map<String, Long> getQueryVersions() {
+        Map<String, Long> versions = new HashMap<>(queries.size() * 2);
+        for (QueryState state : queries.values()) {
+            QueryState.Snapshot snapshot = state.getSnapshot();
+            if (snapshot != null) {
+                versions.put(state.getQueryId(), snapshot.version());
+            }
+        }
+        return versions;
     }
 
+    /**
+     * All query trees, oldest first, as broadcast: listing queries parses no plans, so root and
+     * fragments from plans are only in {@link #getQueryTree(String)}.
+     */
     public List<QueryTree> getAllQueryTrees() {
-        return queryEvents.keySet().stream()
-                .map(this::buildQueryTree)
+        return queries.values().stream()
+                .map(state -> currentTree(state, false))
                 .filter(Objects::nonNull)
                 .sorted(Comparator.comparing(QueryTree::getStartTime))
                 .toList();
@@ -323,7 +976,7 @@ public class QueryEventService {
             return new ArrayList<>();
         }
         return queryIds.stream()
-                .map(this::buildQueryTree)
+                .map(queryId -> currentTree(queries.get(queryId), false))
                 .filter(Objects::nonNull)
                 .toList();
     }
@@ -334,7 +987,7 @@ public class QueryEventService {
             return new ArrayList<>();
         }
         return queryIds.stream()
-                .map(this::buildQueryTree)
+                .map(queryId -> currentTree(queries.get(queryId), false))
                 .filter(Objects::nonNull)
                 .toList();
     }
@@ -345,7 +998,7 @@ public class QueryEventService {
             return new ArrayList<>();
         }
         return queryIds.stream()
-                .map(this::buildQueryTree)
+                .map(queryId -> currentTree(queries.get(queryId), false))
                 .filter(Objects::nonNull)
                 .toList();
     }
@@ -355,7 +1008,7 @@ public class QueryEventService {
         summary.put("catalogs", getAllCatalogs());
         summary.put("schemas", getAllSchemas());
         summary.put("tables", getAllTables());
-        summary.put("totalQueries", queryEvents.size());
+        summary.put("totalQueries", queries.size());
         
         Map<String, Integer> catalogCounts = new HashMap<>();
         catalogQueries.forEach((catalog, queries) -> catalogCounts.put(catalog, queries.size()));
@@ -1,28 +1,37 @@
 package com.trinofed.parser.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.trinofed.parser.model.QueryTreeNode;
-import com.trinofed.parser.model.plan.PlanNode;
-import com.trinofed.parser.model.plan.PlanEstimate;
-import com.trinofed.parser.model.plan.PlanOutput;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Service to parse Trino JSON query execution plans and convert them into QueryTreeNode structures.
+ * <p>
+ * Plans are read token by token and turned into QueryTreeNodes in a single pass; the node layout
+ * follows {@link com.trinofed.parser.model.plan.PlanNode}, but no intermediate objects are built.
+ * {@link #parseJsonPlan} converts only the root fragment and skips the others.
  */
 @Slf4j
 @Service
 public class QueryPlanParser {
 
+    private static final String ROOT_FRAGMENT = "0";
+
     private final ObjectMapper objectMapper;
+    // Descriptors and costs keep the types the mapper would give them, e.g. Double or "NaN"
+    private final ObjectReader untypedReader;
 
     public QueryPlanParser(ObjectMapper objectMapper) {
         this.objectMapper = objectMapper;
+        this.untypedReader = objectMapper.readerFor(Object.class);
     }
 
     /**
@@ -37,34 +46,32 @@ public class QueryPlanParser {
             return null;
         }
 
-        try {
-            // Parse the JSON plan string into a Map of fragment ID -> PlanNode
-            Map<String, PlanNode> fragments = objectMapper.readValue(
-                jsonPlanString,
-                new TypeReference<Map<String, PlanNode>>() {}
-            );
+        try (JsonParser parser = objectMapper.getFactory().createParser(jsonPlanString)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            // Fragment "0" is typically the root/coordinator fragment; otherwise the first one is used
+            QueryTreeNode root = null;
+            boolean rootFound = false;
+            int fragments = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fragmentId = parser.currentName();
+                JsonToken token = parser.nextToken();
+                fragments++;
+                if (!rootFound && (root == null || ROOT_FRAGMENT.equals(fragmentId))) {
+                    root = readNode(parser, token, fragmentId);
+                    rootFound = ROOT_FRAGMENT.equals(fragmentId);
+                } else {
+                    // Still tokenized, so a malformed plan is rejected as a whole
+                    parser.skipChildren();
+                }
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
 
-            if (fragments == null || fragments.isEmpty()) {
+            if (fragments == 0) {
                 log.warn("Parsed JSON plan is empty");
                 return null;
             }
-
-            // Fragment "0" is typically the root/coordinator fragment
-            PlanNode rootFragment = fragments.get("0");
-            if (rootFragment == null) {
-                // If no "0" fragment, get the first available
-                rootFragment = fragments.values().iterator().next();
-            }
-
-            // Convert all fragments to QueryTreeNodes
-            Map<String, QueryTreeNode> convertedFragments = new HashMap<>();
-            for (Map.Entry<String, PlanNode> entry : fragments.entrySet()) {
-                QueryTreeNode node = convertPlanNodeToTreeNode(entry.getValue(), entry.getKey());
-                convertedFragments.put(entry.getKey(), node);
-            }
-
-            // Return the root fragment's tree node
-            return convertedFragments.get(fragments.containsKey("0") ? "0" : fragments.keySet().iterator().next());
+            return root;
 
         } catch (Exception e) {
             log.error("Error parsing JSON plan: {}", e.getMessage(), e);
@@ -73,74 +80,184 @@ public class QueryPlanParser {
     }
 
     /**
-     * Recursively converts a PlanNode into a QueryTreeNode.
+     * Parses every fragment of a JSON plan, e.g. to stitch them into a plan graph.
+     *
+     * @return each fragment's QueryTreeNode by fragment ID, in plan order; empty if parsing fails
      */
-    private QueryTreeNode convertPlanNodeToTreeNode(PlanNode planNode, String fragmentId) {
-        QueryTreeNode treeNode = new QueryTreeNode();
+    public Map<String, QueryTreeNode> parseJsonPlanFragments(String jsonPlanString) {
+        if (jsonPlanString == null || jsonPlanString.trim().isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        try {
+            return readFragments(jsonPlanString);
+        } catch (Exception e) {
+            log.error("Error parsing JSON plan fragments: {}", e.getMessage(), e);
+            return new LinkedHashMap<>();
+        }
+    }
+
+    private Map<String, QueryTreeNode> readFragments(String jsonPlanString) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(jsonPlanString)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            Map<String, QueryTreeNode> fragments = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fragmentId = parser.currentName();
+                fragments.put(fragmentId, readNode(parser, parser.nextToken(), fragmentId));
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+            return fragments;
+        }
+    }
+
+    /**
+     * Reads the plan node starting at the current token, and its children, into a QueryTreeNode.
+     */
+    private QueryTreeNode readNode(JsonParser parser, JsonToken token, String fragmentId) throws IOException {
+        expect(parser, token, JsonToken.START_OBJECT);
 
-        // Set basic properties
-        treeNode.setId(planNode.getId());
-        treeNode.setOperatorType(planNode.getName());
+        QueryTreeNode treeNode = new QueryTreeNode();
         treeNode.setNodeType("OPERATOR");
 
         // Set fragment information in metadata
-        Map<String, Object> metadata = new HashMap<>();
+        Map<String, Object> metadata = new HashMap<>(8);
         metadata.put("fragmentId", fragmentId);
-
-        // Add descriptor information
-        if (planNode.getDescriptor() != null && !planNode.getDescriptor().isEmpty()) {
-            metadata.put("descriptor", planNode.getDescriptor());
-
-            // Extract table information if this is a TableScan
-            if ("TableScan".equals(planNode.getName()) && planNode.getDescriptor().containsKey("table")) {
-                String tableInfo = planNode.getDescriptor().get("table").toString();
-                metadata.put("table", tableInfo);
+        Map<?, ?> descriptor = null;
+        List<QueryTreeNode> children = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "id" -> treeNode.setId(readText(parser, value));
+                case "name" -> treeNode.setOperatorType(readText(parser, value));
+                case "descriptor" -> descriptor = untypedReader.readValue(parser) instanceof Map<?, ?> map ? map : null;
+                case "outputs" -> {
+                    List<Map<String, String>> outputs = readOutputs(parser, value);
+                    if (!outputs.isEmpty()) {
+                        metadata.put("outputs", outputs);
+                    }
+                }
+                case "details" -> {
+                    List<String> details = readTexts(parser, value);
+                    if (!details.isEmpty()) {
+                        metadata.put("details", details);
+                    }
+                }
+                case "estimates" -> {
+                    Map<String, Object> costInfo = readFirstEstimate(parser, value);
+                    if (costInfo != null) {
+                        metadata.put("estimates", costInfo);
+                    }
+                }
+                case "children" -> {
+                    expect(parser, value, JsonToken.START_ARRAY);
+                    children = new ArrayList<>(2);
+                    JsonToken child;
+                    while ((child = parser.nextToken()) != JsonToken.END_ARRAY) {
+                        children.add(readNode(parser, child, fragmentId));
+                    }
+                }
+                default -> parser.skipChildren();
             }
         }
 
-        // Add output columns
-        if (planNode.getOutputs() != null && !planNode.getOutputs().isEmpty()) {
-            List<Map<String, String>> outputInfo = planNode.getOutputs().stream()
-                .map(output -> {
-                    Map<String, String> info = new HashMap<>();
-                    info.put("name", output.getName());
-                    info.put("type", output.getType());
-                    return info;
-                })
-                .collect(Collectors.toList());
-            metadata.put("outputs", outputInfo);
+        // The name may follow the descriptor, so table information is extracted last
+        if (descriptor != null && !descriptor.isEmpty()) {
+            metadata.put("descriptor", descriptor);
+            if ("TableScan".equals(treeNode.getOperatorType()) && descriptor.containsKey("table")) {
+                metadata.put("table", String.valueOf(descriptor.get("table")));
+            }
         }
 
-        // Add details
-        if (planNode.getDetails() != null && !planNode.getDetails().isEmpty()) {
-            metadata.put("details", planNode.getDetails());
+        treeNode.setMetadata(metadata);
+        treeNode.setChildren(children != null ? children : new ArrayList<>());
+        return treeNode;
+    }
+
+    private List<Map<String, String>> readOutputs(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_ARRAY);
+        List<Map<String, String>> outputs = new ArrayList<>();
+        JsonToken output;
+        while ((output = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(parser, output, JsonToken.START_OBJECT);
+            Map<String, String> info = new HashMap<>(4);
+            info.put("name", null);
+            info.put("type", null);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("name".equals(field) || "type".equals(field)) {
+                    info.put(field, readText(parser, value));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            outputs.add(info);
         }
+        return outputs;
+    }
 
-        // Add cost estimates
-        if (planNode.getEstimates() != null && !planNode.getEstimates().isEmpty()) {
-            PlanEstimate estimate = planNode.getEstimates().get(0);
-            Map<String, Object> costInfo = new HashMap<>();
-            costInfo.put("outputRowCount", estimate.getOutputRowCount());
-            costInfo.put("outputSizeInBytes", estimate.getOutputSizeInBytes());
-            costInfo.put("cpuCost", estimate.getCpuCost());
-            costInfo.put("memoryCost", estimate.getMemoryCost());
-            costInfo.put("networkCost", estimate.getNetworkCost());
-            metadata.put("estimates", costInfo);
+    private List<String> readTexts(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_ARRAY);
+        List<String> texts = new ArrayList<>();
+        JsonToken value;
+        while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+            texts.add(readText(parser, value));
         }
+        return texts;
+    }
 
-        treeNode.setMetadata(metadata);
+    /**
+     * Cost estimates of the first entry of an estimates array, or null if it is empty.
+     */
+    private Map<String, Object> readFirstEstimate(JsonParser parser, JsonToken token) throws IOException {
+        expect(parser, token, JsonToken.START_ARRAY);
+        Map<String, Object> costInfo = null;
+        JsonToken estimate;
+        while ((estimate = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (costInfo != null || estimate == JsonToken.VALUE_NULL) {
+                parser.skipChildren();
+                continue;
+            }
+            expect(parser, estimate, JsonToken.START_OBJECT);
+            costInfo = new HashMap<>(8);
+            costInfo.put("outputRowCount", null);
+            costInfo.put("outputSizeInBytes", null);
+            costInfo.put("cpuCost", null);
+            costInfo.put("memoryCost", null);
+            costInfo.put("networkCost", null);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "outputRowCount", "outputSizeInBytes" -> costInfo.put(field, readText(parser, value));
+                    case "cpuCost", "memoryCost", "networkCost" -> costInfo.put(field, untypedReader.readValue(parser));
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return costInfo;
+    }
 
-        // Recursively process children
-        if (planNode.getChildren() != null && !planNode.getChildren().isEmpty()) {
-            List<QueryTreeNode> childNodes = planNode.getChildren().stream()
-                .map(child -> convertPlanNodeToTreeNode(child, fragmentId))
-                .collect(Collectors.toList());
-            treeNode.setChildren(childNodes);
-        } else {
-            treeNode.setChildren(new ArrayList<>());
+    /**
+     * Scalar value as text, numbers as written; null for null and for objects or arrays, which
+     * are skipped.
+     */
+    private static String readText(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isStructStart()) {
+            parser.skipChildren();
+            return null;
         }
+        return token == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+    }
 
-        return treeNode;
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
     }
 
     /**
@@ -155,12 +272,7 @@ public class QueryPlanParser {
         }
 
         try {
-            Map<String, PlanNode> fragments = objectMapper.readValue(
-                jsonPlanString,
-                new TypeReference<Map<String, PlanNode>>() {}
-            );
-
-            for (PlanNode fragment : fragments.values()) {
+            for (QueryTreeNode fragment : readFragments(jsonPlanString).values()) {
                 collectOperators(fragment, operators);
             }
 
@@ -174,15 +286,15 @@ public class QueryPlanParser {
     /**
      * Recursively collects operator names from a plan node and its children.
      */
-    private void collectOperators(PlanNode node, List<String> operators) {
+    private void collectOperators(QueryTreeNode node, List<String> operators) {
         if (node == null) {
             return;
         }
 
-        operators.add(node.getName());
+        operators.add(node.getOperatorType());
 
         if (node.getChildren() != null) {
-            for (PlanNode child : node.getChildren()) {
+            for (QueryTreeNode child : node.getChildren()) {
                 collectOperators(child, operators);
             }
         }
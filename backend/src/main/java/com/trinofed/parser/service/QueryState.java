@@ -0,0 +1,265 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.Fragment;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryTreeNode;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materialized state of a single query: its events in timestamp order plus a ready-to-serve
+ * snapshot of its tree.
+ * <p>
+ * Events are only added from the query's ingestion lane, which also publishes the refreshed
+ * snapshot afterwards. Readers just pick up the current snapshot, so serving a query never
+ * copies or sorts anything; plans are only parsed when a client reads the query itself.
+ */
+class QueryState {
+
+    private final String queryId;
+    private final List<QueryEvent> events = new ArrayList<>(4);
+    private List<QueryEvent> planEvents = List.of();
+    private long version;
+    private long planVersion;
+
+    // Bookkeeping for the retention sweep
+    private long estimatedBytes;
+    private boolean finished;
+    private boolean evicted;
+    private volatile long lastUpdateMillis;
+    private volatile long lastReadMillis;
+
+    // Exact fingerprints of the events seen while the query is running; handed over to the
+    // deduplicator's windowed filter once it finishes
+    private long[] fingerprints = new long[4];
+    private int fingerprintCount;
+
+    private volatile Snapshot snapshot;
+
+    QueryState(String queryId) {
+        this.queryId = queryId;
+    }
+
+    String getQueryId() {
+        return queryId;
+    }
+
+    /**
+     * Inserts the event at its timestamp position, after any events with the same timestamp.
+     *
+     * @param nowMillis when the event was received, for age-based retention
+     * @return an immutable copy of the events after the insert, for building the next snapshot
+     */
+    synchronized List<QueryEvent> addEvent(QueryEvent event, long nowMillis) {
+        int index = insertionIndex(event.getTimestamp());
+        events.add(index, event);
+        version++;
+        estimatedBytes += estimateSize(event);
+        finished = EventDeduplicator.isFinalState(events.get(events.size() - 1).getState());
+        lastUpdateMillis = nowMillis;
+        if (event.hasPlan() || event.hasJsonPlan()) {
+            planVersion = version;
+            planEvents = events.stream()
+                    .filter(stored -> stored.hasPlan() || stored.hasJsonPlan())
+                    .toList();
+        }
+        return List.copyOf(events);
+    }
+
+    /**
+     * Plan-carrying events in timestamp order, as of the last {@link #addEvent}.
+     */
+    synchronized List<QueryEvent> getPlanEvents() {
+        return planEvents;
+    }
+
+    synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Version at which the last plan-carrying event was added, or 0 if there is none. Parsed
+     * plans stay valid until it changes.
+     */
+    synchronized long getPlanVersion() {
+        return planVersion;
+    }
+
+    /**
+     * Approximate heap held by this query's events.
+     */
+    synchronized long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Whether the latest event puts the query in a final state.
+     */
+    synchronized boolean isFinished() {
+        return finished;
+    }
+
+    synchronized boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Marks the state as removed from the store; events must not be added afterwards.
+     */
+    synchronized void markEvicted() {
+        evicted = true;
+    }
+
+    long getLastUpdateMillis() {
+        return lastUpdateMillis;
+    }
+
+    /**
+     * Last time the query was received or read by a client, whichever is later.
+     */
+    long getLastAccessMillis() {
+        return Math.max(lastUpdateMillis, lastReadMillis);
+    }
+
+    void touch(long nowMillis) {
+        lastReadMillis = nowMillis;
+    }
+
+    /**
+     * Rough heap footprint of a stored event: a fixed object overhead plus its strings,
+     * compressed plans and statistics.
+     */
+    static long estimateSize(QueryEvent event) {
+        long size = 512;
+        size += textSize(event.getQueryId()) + textSize(event.getQuery()) + textSize(event.getUser())
+                + textSize(event.getErrorMessage()) + textSize(event.getCreateTime()) + textSize(event.getEndTime());
+        if (event.getCompressedPlan() != null) {
+            size += 32 + event.getCompressedPlan().compressedSize();
+        }
+        if (event.getCompressedJsonPlan() != null) {
+            size += 32 + event.getCompressedJsonPlan().compressedSize();
+        }
+        // Plans that were never compacted are held as plain strings
+        size += textSize(event.getCompressedPlan() == null ? event.getPlan() : null);
+        size += textSize(event.getCompressedJsonPlan() == null ? event.getJsonPlan() : null);
+        size += mapSize(event.getStatistics()) + mapSize(event.getMetadata())
+                + mapSize(event.getStageStats()) + mapSize(event.getOperatorStats());
+        size += listSize(event.getCatalogs()) + listSize(event.getSchemas()) + listSize(event.getTables());
+        if (event.getIoMetadata() != null) {
+            size += 1024;
+        }
+        return size;
+    }
+
+    private static long textSize(String text) {
+        return text != null ? 40 + text.length() : 0;
+    }
+
+    private static long mapSize(Map<String, Object> map) {
+        return map != null ? 64 + map.size() * 96L : 0;
+    }
+
+    private static long listSize(List<String> values) {
+        if (values == null) {
+            return 0;
+        }
+        long size = 40;
+        for (String value : values) {
+            size += 8 + textSize(value);
+        }
+        return size;
+    }
+
+    /**
+     * Records an event fingerprint while the query is running.
+     *
+     * @return true if the fingerprint was not recorded before
+     */
+    synchronized boolean addFingerprint(long fingerprint) {
+        for (int i = 0; i < fingerprintCount; i++) {
+            if (fingerprints[i] == fingerprint) {
+                return false;
+            }
+        }
+        if (fingerprintCount == fingerprints.length) {
+            fingerprints = Arrays.copyOf(fingerprints, fingerprintCount * 2);
+        }
+        fingerprints[fingerprintCount++] = fingerprint;
+        return true;
+    }
+
+    /**
+     * Whether the fingerprints have been handed over after the query finished.
+     */
+    synchronized boolean isRetired() {
+        return fingerprints == null;
+    }
+
+    /**
+     * Releases the recorded fingerprints, returning them for the windowed filter.
+     */
+    synchronized long[] retireFingerprints() {
+        if (fingerprints == null) {
+            return new long[0];
+        }
+        long[] retired = Arrays.copyOf(fingerprints, fingerprintCount);
+        fingerprints = null;
+        fingerprintCount = 0;
+        return retired;
+    }
+
+    /**
+     * Replaces the current snapshot unless a newer one has already been published.
+     */
+    synchronized void publish(Snapshot next) {
+        if (snapshot == null || next.version() > snapshot.version()) {
+            snapshot = next;
+        }
+    }
+
+    /**
+     * Latest published snapshot, or null before the first event has been applied.
+     */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private int insertionIndex(Instant timestamp) {
+        int low = 0;
+        int high = events.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (events.get(mid).getTimestamp().compareTo(timestamp) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Tree for one version of the query, without anything parsed from its plans.
+     *
+     * @param version     number of events applied when this snapshot was built
+     * @param tree        the query tree with its events, as broadcast; root is only set when the query has no JSON plan
+     * @param planVersion the state's {@link #getPlanVersion()} for this snapshot
+     * @param planEvents  the plan-carrying events, in timestamp order; parsed when a client reads the query
+     */
+    record Snapshot(long version, QueryTree tree, long planVersion, List<QueryEvent> planEvents) {
+    }
+
+    /**
+     * Parsed form of a query's plans, as of a {@link #getPlanVersion() plan version}.
+     *
+     * @param root      root of the tree parsed from the first parseable JSON plan, or null if there is none
+     * @param fragments fragments of the first text plan that has any
+     */
+    record ParsedPlan(long planVersion, QueryTreeNode root, List<Fragment> fragments) {
+    }
+}
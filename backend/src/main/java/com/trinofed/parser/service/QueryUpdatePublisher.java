@@ -0,0 +1,688 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QuerySummary;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryUpdate;
+import com.trinofed.parser.model.QueryView;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcasts query changes to WebSocket clients as {@link QueryUpdate}s.
+ * <p>
+ * The first update of a query is a snapshot; after that only patches against the previously sent
+ * version go out, so message size follows what changed rather than the size of the tree. The last
+ * sent tree of each query is kept as the base for its next patch; trees are immutable snapshots,
+ * so this only holds references. Clients that join late fetch their initial snapshot by
+ * subscribing to {@code /app/query-snapshot}.
+ * <p>
+ * Updates go to {@link #DELTA_TOPIC} for everything, and to narrower topics per query, per
+ * catalog and per user; {@link #SUMMARY_TOPIC} only carries {@link QuerySummary}s. A message is
+ * only built and serialized for destinations the {@link SubscriptionRegistry} knows a subscriber
+ * of. Full trees are still sent to {@link #FULL_TREE_TOPIC} for existing clients unless
+ * {@code trino.websocket.full-tree-updates} is disabled. No topic carries parsed plans: trees are
+ * published as listed, without fragments, and clients read a query's plan over REST.
+ * <p>
+ * With a {@link SerializedPayloadCache}, each message is encoded to JSON once and the same bytes
+ * are sent to all of its destinations; full trees are cached per version. Such messages, except
+ * removals, are marked as droppable for sessions the {@link OutboundSessionMonitor} finds lagging,
+ * and carry the ID of the query they are about.
+ * <p>
+ * When {@code trino.websocket.coalesce-window-ms} is set, updates are not sent as they happen:
+ * the latest tree of each changed query is held and a flusher thread sends them once per window,
+ * so a query that emits several events in quick succession costs one message. Flushes stay
+ * within {@code trino.websocket.max-messages-per-second}; queries whose state changed go first,
+ * and whatever does not fit waits for the next window, coalescing further in the meantime.
+ * <p>
+ * Every update carries a sequence number that increases across all queries. The latest
+ * {@code trino.websocket.resume-buffer-size} snapshots, patches and removals are kept, so a
+ * client that reconnects can fetch just the ones it missed ({@link #updatesSince}).
+ */
+@Slf4j
+@Component
+public class QueryUpdatePublisher {
+
+    public static final String FULL_TREE_TOPIC = "/topic/query-updates";
+    public static final String DELTA_TOPIC = "/topic/query-deltas";
+    public static final String SNAPSHOT_TOPIC = "/topic/query-snapshot";
+    public static final String SUMMARY_TOPIC = "/topic/query-summaries";
+    public static final String QUERY_TOPIC_PREFIX = "/topic/queries/";
+    public static final String CATALOG_TOPIC_PREFIX = "/topic/catalogs/";
+    public static final String USER_TOPIC_PREFIX = "/topic/users/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final SubscriptionRegistry subscriptions;
+    private final SerializedPayloadCache payloadCache;
+
+    @Value("${trino.websocket.full-tree-updates:true}")
+    private boolean fullTreeUpdates = true;
+
+    // 0 sends every update immediately, as does an instance not started by Spring
+    @Value("${trino.websocket.coalesce-window-ms:150}")
+    private long coalesceWindowMs;
+
+    // 0 disables the budget
+    @Value("${trino.websocket.max-messages-per-second:500}")
+    private int maxMessagesPerSecond;
+
+    private final Map<String, Sent> lastSent = new ConcurrentHashMap<>();
+    // Latest unsent tree of each changed query while coalescing
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    // Held while sending, so removals and snapshots are not interleaved with a flush
+    private final Object sendLock = new Object();
+    private volatile ScheduledExecutorService flusher;
+    private double tokens;
+    private long refilledNanos;
+
+    // 0 disables resuming, as for an instance not configured by Spring
+    @Value("${trino.websocket.resume-buffer-size:1024}")
+    private int resumeBufferSize;
+
+    // Identifies this run; sequences restart with every run
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    // Latest snapshots, patches and removals in sequence order, guarded by the send lock
+    private final Deque<QueryUpdate> recent = new ArrayDeque<>();
+    private long evictedThrough;
+
+    private final List<UpdateListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong patches = new AtomicLong();
+    private final AtomicLong summaries = new AtomicLong();
+    private final AtomicLong removals = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+
+    @Autowired
+    public QueryUpdatePublisher(SimpMessagingTemplate messagingTemplate, SubscriptionRegistry subscriptions,
+                                SerializedPayloadCache payloadCache) {
+        this.messagingTemplate = messagingTemplate;
+        this.subscriptions = subscriptions;
+        this.payloadCache = payloadCache;
+    }
+
+    /**
+     * Without a payload cache, messages are converted per destination by the template.
+     */
+    public QueryUpdatePublisher(SimpMessagingTemplate messagingTemplate, SubscriptionRegistry subscriptions) {
+        this(messagingTemplate, subscriptions, null);
+    }
+
+    /**
+     * Without a registry, updates only go to the topics every client can see.
+     */
+    public QueryUpdatePublisher(SimpMessagingTemplate messagingTemplate) {
+        this(messagingTemplate, null, null);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (coalesceWindowMs <= 0) {
+            return;
+        }
+        synchronized (sendLock) {
+            tokens = maxMessagesPerSecond;
+            refilledNanos = System.nanoTime();
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "websocket-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushSafely, coalesceWindowMs, coalesceWindowMs, TimeUnit.MILLISECONDS);
+        flusher = executor;
+        log.info("Coalescing WebSocket updates every {} ms, at most {} messages per second",
+                coalesceWindowMs, maxMessagesPerSecond > 0 ? maxMessagesPerSecond : "unlimited");
+    }
+
+    @PreDestroy
+    public void stop() {
+        ScheduledExecutorService executor = flusher;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Publishes a query's new tree: a patch against the last version sent, or a snapshot if none
+     * was. While coalescing it only replaces the query's pending tree, to be sent by the next
+     * flush.
+     */
+    public void publish(String queryId, long version, QueryTree tree) {
+        if (flusher == null) {
+            synchronized (sendLock) {
+                send(queryId, version, tree);
+            }
+            return;
+        }
+        pending.merge(queryId, new Pending(version, tree, System.nanoTime()), (current, update) -> {
+            if (update.version <= current.version) {
+                return current;
+            }
+            coalesced.incrementAndGet();
+            return new Pending(update.version, update.tree, current.since);
+        });
+    }
+
+    /**
+     * Sends pending trees, state changes first and then the longest waiting, until the message
+     * budget of this window is spent.
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Due> due = new ArrayList<>(pending.size());
+        pending.forEach((queryId, update) -> due.add(new Due(queryId, update, stateChanged(queryId, update.tree))));
+        due.sort(Comparator.comparing((Due d) -> !d.stateChanged()).thenComparingLong(d -> d.update().since));
+
+        synchronized (sendLock) {
+            refillTokens();
+            for (int i = 0; i < due.size(); i++) {
+                if (maxMessagesPerSecond > 0 && tokens < 1) {
+                    deferred.addAndGet(due.size() - i);
+                    break;
+                }
+                Due next = due.get(i);
+                // A newer tree that arrived since is sent by the next flush
+                if (pending.remove(next.queryId(), next.update())) {
+                    tokens -= send(next.queryId(), next.update().version, next.update().tree);
+                }
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to flush WebSocket updates", e);
+        }
+    }
+
+    /**
+     * Sends a query's tree to its listened destinations and returns the number of messages sent.
+     * Callers hold the send lock.
+     */
+    private int send(String queryId, long version, QueryTree tree) {
+        Sent previous = lastSent.get(queryId);
+        if (previous != null && previous.version() >= version) {
+            return 0;
+        }
+        lastSent.put(queryId, new Sent(version, tree));
+        long updateSequence = sequence.incrementAndGet();
+        int messages = 0;
+
+        if (fullTreeUpdates && listened(FULL_TREE_TOPIC, true)) {
+            messages += send(List.of(FULL_TREE_TOPIC), tree, SerializedPayloadCache.treeKey(queryId), version);
+        }
+
+        List<String> destinations = destinations(queryId, tree);
+        // Without subscribers the update is still built if clients may resume past it later
+        if (destinations.isEmpty() && resumeBufferSize <= 0 && !listenersActive()) {
+            skipped.incrementAndGet();
+        } else {
+            QueryUpdate update;
+            if (previous == null) {
+                update = snapshot(queryId, version, tree);
+                snapshots.incrementAndGet();
+            } else {
+                update = patch(previous, queryId, version, tree);
+                patches.incrementAndGet();
+            }
+            update.setSequence(updateSequence);
+            emit(update);
+            if (destinations.isEmpty()) {
+                skipped.incrementAndGet();
+            } else {
+                messages += send(destinations, update);
+            }
+        }
+
+        boolean summaryListened = listened(SUMMARY_TOPIC, false);
+        if ((previous == null || summaryChanged(previous.tree(), tree)) && (summaryListened || listenersActive())) {
+            summaries.incrementAndGet();
+            QueryUpdate summary = QueryUpdate.builder()
+                    .type(QueryUpdate.Type.SUMMARY)
+                    .queryId(queryId)
+                    .version(version)
+                    .sequence(updateSequence)
+                    .summary(QuerySummary.from(tree, version))
+                    .build();
+            notifyListeners(summary);
+            if (summaryListened) {
+                messages += send(List.of(SUMMARY_TOPIC), summary);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Sends the given trees as one list of snapshots to {@link #SNAPSHOT_TOPIC} and makes them
+     * the base for later patches, e.g. after a backlog was applied without broadcasting.
+     * Pending trees the snapshots cover are dropped.
+     */
+    public void publishAll(List<VersionedTree> trees) {
+        synchronized (sendLock) {
+            List<QueryUpdate> updates = new ArrayList<>(trees.size());
+            for (VersionedTree tree : trees) {
+                pending.computeIfPresent(tree.queryId(),
+                        (queryId, update) -> update.version <= tree.version() ? null : update);
+                lastSent.put(tree.queryId(), new Sent(tree.version(), tree.tree()));
+                QueryUpdate update = snapshot(tree.queryId(), tree.version(), tree.tree());
+                update.setSequence(sequence.incrementAndGet());
+                emit(update);
+                updates.add(update);
+            }
+            snapshots.addAndGet(updates.size());
+            if (listened(SNAPSHOT_TOPIC, true)) {
+                tokens -= send(List.of(SNAPSHOT_TOPIC), updates);
+            }
+        }
+    }
+
+    /**
+     * Tells clients that a query is gone, without waiting for a flush or the message budget.
+     */
+    public void remove(String queryId) {
+        synchronized (sendLock) {
+            Pending unsent = pending.remove(queryId);
+            Sent previous = lastSent.remove(queryId);
+            evictPayloads(queryId);
+            if (previous == null && unsent != null) {
+                // Never broadcast, but clients may have seen it in an initial snapshot
+                previous = new Sent(unsent.version, unsent.tree);
+            }
+            if (previous != null) {
+                tokens -= sendRemoval(queryId, previous);
+            }
+        }
+    }
+
+    private int sendRemoval(String queryId, Sent previous) {
+        removals.incrementAndGet();
+        QueryUpdate update = QueryUpdate.builder()
+                .type(QueryUpdate.Type.REMOVED)
+                .queryId(queryId)
+                .version(previous.version())
+                .sequence(sequence.incrementAndGet())
+                .build();
+        emit(update);
+        List<String> destinations = destinations(queryId, previous.tree());
+        if (listened(SUMMARY_TOPIC, false)) {
+            destinations.add(SUMMARY_TOPIC);
+        }
+        return send(destinations, update);
+    }
+
+    /**
+     * Drops a query's patch base and pending tree without notifying clients.
+     */
+    public void forget(String queryId) {
+        pending.remove(queryId);
+        lastSent.remove(queryId);
+        evictPayloads(queryId);
+    }
+
+    /**
+     * Drops patch bases and pending trees of queries that are no longer stored.
+     */
+    public void retainAll(Set<String> queryIds) {
+        pending.keySet().retainAll(queryIds);
+        lastSent.keySet().retainAll(queryIds);
+    }
+
+    /**
+     * Updates of the delta stream after {@code lastSequence}, for a client that reconnects. Returns
+     * null if they cannot be replayed, because the client's sequence is from another run or
+     * older than the buffer; the client then needs a full snapshot.
+     */
+    public List<QueryUpdate> updatesSince(String clientEpoch, long lastSequence) {
+        synchronized (sendLock) {
+            if (!epoch.equals(clientEpoch) || lastSequence <= 0 || lastSequence < evictedThrough
+                    || lastSequence > sequence.get()) {
+                return null;
+            }
+            List<QueryUpdate> missed = new ArrayList<>();
+            Iterator<QueryUpdate> newestFirst = recent.descendingIterator();
+            while (newestFirst.hasNext()) {
+                QueryUpdate update = newestFirst.next();
+                if (update.getSequence() <= lastSequence) {
+                    break;
+                }
+                missed.add(update);
+            }
+            Collections.reverse(missed);
+            return missed;
+        }
+    }
+
+    /**
+     * Registers a listener for every snapshot, patch, removal and summary, in sequence order,
+     * whichever WebSocket destinations are subscribed.
+     */
+    public void addListener(UpdateListener listener) {
+        listeners.add(listener);
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Builds a snapshot update without sending or recording it, e.g. to answer a single client.
+     */
+    public QueryUpdate snapshot(String queryId, long version, QueryTree tree) {
+        return QueryUpdate.builder()
+                .type(QueryUpdate.Type.SNAPSHOT)
+                .queryId(queryId)
+                .version(version)
+                .sequence(sequence.get())
+                .tree(tree)
+                .build();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedQueries", lastSent.size());
+        stats.put("epoch", epoch);
+        stats.put("sequence", sequence.get());
+        synchronized (sendLock) {
+            stats.put("resumeBuffered", recent.size());
+            stats.put("resumableFrom", evictedThrough);
+        }
+        stats.put("snapshots", snapshots.get());
+        stats.put("patches", patches.get());
+        stats.put("summaries", summaries.get());
+        stats.put("removals", removals.get());
+        stats.put("unsubscribedUpdates", skipped.get());
+        stats.put("fullTreeUpdates", fullTreeUpdates);
+        stats.put("coalesceWindowMs", flusher != null ? coalesceWindowMs : 0);
+        stats.put("maxMessagesPerSecond", maxMessagesPerSecond);
+        stats.put("pendingQueries", pending.size());
+        stats.put("coalescedUpdates", coalesced.get());
+        stats.put("deferredUpdates", deferred.get());
+        if (subscriptions != null) {
+            stats.put("subscriptions", subscriptions.getStats());
+        }
+        if (payloadCache != null) {
+            stats.put("payloadCache", payloadCache.getStats());
+        }
+        return stats;
+    }
+
+    private int send(List<String> destinations, Object payload) {
+        return send(destinations, payload, null, 0);
+    }
+
+    /**
+     * Sends one payload to each destination and returns the number of messages sent. With a
+     * payload cache it is serialized once, or taken from the cache when a key and version are
+     * given.
+     */
+    private int send(List<String> destinations, Object payload, String cacheKey, long version) {
+        if (payloadCache == null) {
+            for (String destination : destinations) {
+                messagingTemplate.convertAndSend(destination, payload);
+            }
+            return destinations.size();
+        }
+        byte[] json = cacheKey != null
+                ? payloadCache.get(cacheKey, version, payload)
+                : payloadCache.write(payload);
+        // Anything but a removal can be held back for a lagging session, which then resyncs
+        boolean droppable = !(payload instanceof QueryUpdate update && update.getType() == QueryUpdate.Type.REMOVED);
+        String queryId = payloadQueryId(payload);
+        for (String destination : destinations) {
+            messagingTemplate.send(destination, jsonMessage(json, droppable, queryId));
+        }
+        return destinations.size();
+    }
+
+    /**
+     * Keeps a snapshot, patch or removal for clients that resume and hands it to listeners;
+     * callers hold the send lock.
+     */
+    private void emit(QueryUpdate update) {
+        notifyListeners(update);
+        if (resumeBufferSize <= 0) {
+            return;
+        }
+        recent.addLast(update);
+        while (recent.size() > resumeBufferSize) {
+            evictedThrough = recent.removeFirst().getSequence();
+        }
+    }
+
+    private void notifyListeners(QueryUpdate update) {
+        for (UpdateListener listener : listeners) {
+            if (listener.isListening()) {
+                try {
+                    listener.onUpdate(update);
+                } catch (RuntimeException e) {
+                    log.warn("Update listener failed for query {}", update.getQueryId(), e);
+                }
+            }
+        }
+    }
+
+    private boolean listenersActive() {
+        for (UpdateListener listener : listeners) {
+            if (listener.isListening()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the budget accrued since the last refill, up to one second's worth.
+     */
+    private void refillTokens() {
+        long now = System.nanoTime();
+        tokens = Math.min(maxMessagesPerSecond, tokens + (now - refilledNanos) * maxMessagesPerSecond / 1e9);
+        refilledNanos = now;
+    }
+
+    private boolean stateChanged(String queryId, QueryTree tree) {
+        Sent previous = lastSent.get(queryId);
+        return previous == null || !Objects.equals(previous.tree().getState(), tree.getState());
+    }
+
+    private Message<byte[]> jsonMessage(byte[] json, boolean droppable, String queryId) {
+        // Headers are per message since the template sets the destination on them
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        headers.setHeader(OutboundSessionMonitor.DROPPABLE_HEADER, droppable);
+        if (queryId != null) {
+            headers.setHeader(OutboundSessionMonitor.QUERY_ID_HEADER, queryId);
+        }
+        headers.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json, headers.getMessageHeaders());
+    }
+
+    /**
+     * The query a payload is about, or null for payloads covering several queries.
+     */
+    private static String payloadQueryId(Object payload) {
+        if (payload instanceof QueryTree tree) {
+            return tree.getQueryId();
+        }
+        if (payload instanceof QueryUpdate update) {
+            return update.getQueryId();
+        }
+        if (payload instanceof QuerySummary summary) {
+            return summary.getQueryId();
+        }
+        return null;
+    }
+
+    private void evictPayloads(String queryId) {
+        if (payloadCache != null) {
+            payloadCache.remove(SerializedPayloadCache.treeKey(queryId));
+            for (QueryView view : QueryView.values()) {
+                payloadCache.remove(SerializedPayloadCache.listKey(queryId, view));
+                payloadCache.remove(SerializedPayloadCache.detailKey(queryId, view));
+                payloadCache.remove(SerializedPayloadCache.planTextKey(queryId, view));
+            }
+        }
+    }
+
+    /**
+     * Topics with subscribers that a query's updates go to.
+     */
+    private List<String> destinations(String queryId, QueryTree tree) {
+        List<String> destinations = new ArrayList<>(4);
+        addIfListened(destinations, DELTA_TOPIC, true);
+        if (subscriptions == null) {
+            return destinations;
+        }
+        addIfListened(destinations, QUERY_TOPIC_PREFIX + queryId, false);
+        for (String catalog : QuerySummary.catalogsOf(tree)) {
+            addIfListened(destinations, CATALOG_TOPIC_PREFIX + catalog, false);
+        }
+        if (tree.getUser() != null) {
+            addIfListened(destinations, USER_TOPIC_PREFIX + tree.getUser(), false);
+        }
+        return destinations;
+    }
+
+    private void addIfListened(List<String> destinations, String destination, boolean broadcast) {
+        if (listened(destination, broadcast)) {
+            destinations.add(destination);
+        }
+    }
+
+    /**
+     * Whether a destination has subscribers; without a registry only broadcast topics count.
+     */
+    private boolean listened(String destination, boolean broadcast) {
+        return subscriptions != null ? subscriptions.hasSubscribers(destination) : broadcast;
+    }
+
+    private boolean summaryChanged(QueryTree base, QueryTree tree) {
+        return !Objects.equals(base.getState(), tree.getState())
+                || !Objects.equals(base.getEndTime(), tree.getEndTime())
+                || !Objects.equals(base.getTotalExecutionTime(), tree.getTotalExecutionTime())
+                || !Objects.equals(base.getErrorMessage(), tree.getErrorMessage())
+                || !Objects.equals(base.getUser(), tree.getUser())
+                || !Objects.equals(base.getQuery(), tree.getQuery());
+    }
+
+    private QueryUpdate patch(Sent previous, String queryId, long version, QueryTree tree) {
+        QueryTree base = previous.tree();
+        QueryUpdate.QueryUpdateBuilder patch = QueryUpdate.builder()
+                .type(QueryUpdate.Type.PATCH)
+                .queryId(queryId)
+                .version(version)
+                .baseVersion(previous.version());
+
+        if (!Objects.equals(base.getState(), tree.getState())) {
+            patch.state(tree.getState());
+        }
+        if (!Objects.equals(base.getEndTime(), tree.getEndTime())) {
+            patch.endTime(tree.getEndTime());
+        }
+        if (!Objects.equals(base.getTotalExecutionTime(), tree.getTotalExecutionTime())) {
+            patch.totalExecutionTime(tree.getTotalExecutionTime());
+        }
+        if (!Objects.equals(base.getErrorMessage(), tree.getErrorMessage())) {
+            patch.errorMessage(tree.getErrorMessage());
+        }
+        // Broadcast trees carry no parsed plan, so the root is the one built from event metadata
+        if (!Objects.equals(base.getRoot(), tree.getRoot())) {
+            patch.root(tree.getRoot());
+        }
+
+        // Stored events are never replaced, so anything not in the base list is new
+        Set<QueryEvent> known = Collections.newSetFromMap(new IdentityHashMap<>());
+        known.addAll(base.getEvents());
+        List<QueryEvent> added = new ArrayList<>();
+        for (QueryEvent event : tree.getEvents()) {
+            if (!known.contains(event)) {
+                added.add(event);
+            }
+        }
+        if (!added.isEmpty()) {
+            patch.events(added);
+        }
+        return patch.build();
+    }
+
+    /**
+     * Receives updates as they are published, on the publishing thread and with the send lock
+     * held, so it must only hand them off.
+     */
+    public interface UpdateListener {
+
+        /**
+         * Whether updates are wanted right now; summaries nobody wants are not built.
+         */
+        boolean isListening();
+
+        void onUpdate(QueryUpdate update);
+    }
+
+    /**
+     * A query's tree at a given version.
+     */
+    public record VersionedTree(String queryId, long version, QueryTree tree) {
+    }
+
+    private record Sent(long version, QueryTree tree) {
+    }
+
+    /**
+     * A query's latest unsent tree. Compared by identity, so a flush only takes it if it was not
+     * replaced in the meantime.
+     */
+    private static final class Pending {
+        private final long version;
+        private final QueryTree tree;
+        private final long since;
+
+        private Pending(long version, QueryTree tree, long since) {
+            this.version = version;
+            this.tree = tree;
+            this.since = since;
+        }
+    }
+
+    private record Due(String queryId, Pending update, boolean stateChanged) {
+    }
+}
@@ -0,0 +1,367 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryResume;
+import com.trinofed.parser.model.QuerySummary;
+import com.trinofed.parser.model.QueryUpdate;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events feed of query updates, fed by the same {@link QueryUpdatePublisher} as
+ * the WebSocket topics.
+ * <p>
+ * A stream carries either the delta feed (snapshots, patches and removals) or the summary feed,
+ * optionally for one query. Event IDs are {@code <epoch>:<sequence>}, so a client reconnecting
+ * with {@code Last-Event-ID} receives only what it missed, or a {@code reset} followed by fresh
+ * snapshots when that is no longer buffered. Each update is serialized once for all streams.
+ * <p>
+ * Every stream has a bounded queue drained by a small pool of sender threads, so a slow client
+ * never holds up publishing; a stream whose queue overflows is closed and the client resumes
+ * from its last event ID. Heartbeats run on their own thread, so a long retention sweep or
+ * journal snapshot on the shared scheduler cannot delay them past a proxy's idle timeout.
+ */
+@Slf4j
+@Component
+public class QueryUpdateStream implements QueryUpdatePublisher.UpdateListener {
+
+    public enum Feed {
+        UPDATES,
+        SUMMARIES
+    }
+
+    private final QueryEventService queryEventService;
+    private final QueryUpdatePublisher updatePublisher;
+    private final SerializedPayloadCache payloadCache;
+    private final long timeoutMs;
+    private final int maxStreams;
+    private final int maxQueuedEvents;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService heartbeats;
+
+    @Value("${trino.sse.heartbeat-ms:15000}")
+    private long heartbeatMs = 15000;
+
+    private final Set<Stream> streams = ConcurrentHashMap.newKeySet();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong sentEvents = new AtomicLong();
+
+    @Autowired
+    public QueryUpdateStream(QueryEventService queryEventService,
+                             QueryUpdatePublisher updatePublisher,
+                             SerializedPayloadCache payloadCache,
+                             @Value("${trino.sse.timeout-ms:1800000}") long timeoutMs,
+                             @Value("${trino.sse.max-streams:1000}") int maxStreams,
+                             @Value("${trino.sse.max-queued-events:1000}") int maxQueuedEvents,
+                             @Value("${trino.sse.sender-threads:4}") int senderThreads) {
+        this.queryEventService = queryEventService;
+        this.updatePublisher = updatePublisher;
+        this.payloadCache = payloadCache;
+        this.timeoutMs = timeoutMs;
+        this.maxStreams = maxStreams;
+        this.maxQueuedEvents = maxQueuedEvents;
+        AtomicInteger threads = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, r -> {
+            Thread thread = new Thread(r, "sse-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sse-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        updatePublisher.addListener(this);
+        if (heartbeatMs > 0) {
+            heartbeats.scheduleWithFixedDelay(() -> {
+                // An exception would cancel all later runs
+                try {
+                    heartbeat();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to send SSE heartbeats", e);
+                }
+            }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Stream stream : streams) {
+            close(stream, false);
+        }
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * Opens a stream, or returns null if the limit of concurrent streams is reached.
+     *
+     * @param queryId     only updates of this query, or null for all
+     * @param lastEventId the {@code Last-Event-ID} of a reconnecting client, or null
+     */
+    public SseEmitter open(Feed feed, String queryId, String lastEventId) {
+        if (streams.size() >= maxStreams) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Stream stream = new Stream(emitter, feed, queryId);
+        emitter.onCompletion(() -> streams.remove(stream));
+        emitter.onTimeout(() -> close(stream, false));
+        emitter.onError(e -> close(stream, false));
+
+        // Live updates queue up behind the initial events until those are in place
+        long registeredAt = updatePublisher.getSequence();
+        streams.add(stream);
+        opened.incrementAndGet();
+        InitialEvents initial = initialEvents(feed, queryId, lastEventId);
+        synchronized (stream) {
+            if (initial.sequence() > registeredAt) {
+                // Updates published while the initial events were read are already among them
+                stream.queue.removeIf(event -> event != Event.HEARTBEAT && event.sequence() <= initial.sequence());
+            }
+            List<Event> events = initial.events();
+            for (int i = events.size() - 1; i >= 0; i--) {
+                stream.queue.addFirst(events.get(i));
+            }
+            stream.ready = true;
+            scheduleDrain(stream);
+        }
+        log.debug("Opened {} stream{} from event {}", feed, queryId != null ? " for " + queryId : "", lastEventId);
+        return emitter;
+    }
+
+    @Override
+    public boolean isListening() {
+        return !streams.isEmpty();
+    }
+
+    @Override
+    public void onUpdate(QueryUpdate update) {
+        Event event = null;
+        for (Stream stream : streams) {
+            if (stream.accepts(update)) {
+                if (event == null) {
+                    event = toEvent(update);
+                }
+                offer(stream, event);
+            }
+        }
+    }
+
+    /**
+     * Keeps idle streams open through proxies that drop silent connections.
+     */
+    public void heartbeat() {
+        for (Stream stream : streams) {
+            offer(stream, Event.HEARTBEAT);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("streams", streams.size());
+        stats.put("openedStreams", opened.get());
+        stats.put("rejectedStreams", rejected.get());
+        stats.put("overflowedStreams", overflowed.get());
+        stats.put("sentEvents", sentEvents.get());
+        stats.put("maxStreams", maxStreams);
+        stats.put("maxQueuedEvents", maxQueuedEvents);
+        return stats;
+    }
+
+    /**
+     * What a new stream starts with: the updates missed since {@code lastEventId} when they can
+     * be replayed, otherwise a reset and the current state.
+     */
+    private InitialEvents initialEvents(Feed feed, String queryId, String lastEventId) {
+        String epoch = "-";
+        long sequence = 0;
+        if (lastEventId != null) {
+            int separator = lastEventId.lastIndexOf(':');
+            try {
+                epoch = lastEventId.substring(0, Math.max(separator, 0));
+                sequence = Long.parseLong(lastEventId.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring malformed Last-Event-ID {}", lastEventId);
+            }
+        }
+
+        List<Event> events = new ArrayList<>();
+        if (feed == Feed.SUMMARIES) {
+            // Summaries are not buffered; a reconnecting client gets the current ones again
+            long current = updatePublisher.getSequence();
+            events.add(resetEvent(updatePublisher.getEpoch(), current));
+            for (QuerySummary summary : queryEventService.getQuerySummaries()) {
+                if (queryId == null || queryId.equals(summary.getQueryId())) {
+                    events.add(toEvent(QueryUpdate.builder()
+                            .type(QueryUpdate.Type.SUMMARY)
+                            .queryId(summary.getQueryId())
+                            .version(summary.getVersion())
+                            .sequence(current)
+                            .summary(summary)
+                            .build()));
+                }
+            }
+            return new InitialEvents(events, current);
+        }
+
+        QueryResume resume = queryEventService.resume(epoch, sequence);
+        if (resume.getMode() == QueryResume.Mode.SNAPSHOT) {
+            events.add(resetEvent(resume.getEpoch(), resume.getSequence()));
+        }
+        for (QueryUpdate update : resume.getUpdates()) {
+            if (queryId == null || queryId.equals(update.getQueryId())) {
+                events.add(toEvent(update));
+            }
+        }
+        return new InitialEvents(events, resume.getSequence());
+    }
+
+    private void offer(Stream stream, Event event) {
+        synchronized (stream) {
+            if (stream.closed) {
+                return;
+            }
+            if (stream.queue.size() >= maxQueuedEvents) {
+                overflowed.incrementAndGet();
+                log.debug("Closing {} stream that fell {} events behind", stream.feed, maxQueuedEvents);
+                close(stream, true);
+                return;
+            }
+            stream.queue.addLast(event);
+            if (stream.ready) {
+                scheduleDrain(stream);
+            }
+        }
+    }
+
+    /**
+     * Starts a sender for the stream unless one is running; callers hold the stream's lock.
+     */
+    private void scheduleDrain(Stream stream) {
+        if (!stream.draining && !stream.queue.isEmpty()) {
+            stream.draining = true;
+            senders.execute(() -> drain(stream));
+        }
+    }
+
+    private void drain(Stream stream) {
+        while (true) {
+            Event event;
+            synchronized (stream) {
+                event = stream.closed ? null : stream.queue.pollFirst();
+                if (event == null) {
+                    stream.draining = false;
+                    return;
+                }
+            }
+            try {
+                if (event == Event.HEARTBEAT) {
+                    stream.emitter.send(SseEmitter.event().comment("heartbeat"));
+                } else {
+                    stream.emitter.send(SseEmitter.event().id(event.id()).name(event.name()).data(event.data()));
+                }
+                sentEvents.incrementAndGet();
+            } catch (IOException | IllegalStateException e) {
+                // Client went away; the emitter's callbacks may already have removed the stream
+                close(stream, false);
+                return;
+            }
+        }
+    }
+
+    private void close(Stream stream, boolean complete) {
+        synchronized (stream) {
+            if (stream.closed) {
+                return;
+            }
+            stream.closed = true;
+            stream.queue.clear();
+        }
+        streams.remove(stream);
+        if (complete) {
+            stream.emitter.complete();
+        }
+    }
+
+    private Event toEvent(QueryUpdate update) {
+        String data = new String(payloadCache.write(update), StandardCharsets.UTF_8);
+        return new Event(eventId(updatePublisher.getEpoch(), update.getSequence()),
+                update.getType().name().toLowerCase(), data, update.getSequence());
+    }
+
+    private Event resetEvent(String epoch, long sequence) {
+        String data = "{\"epoch\":\"" + epoch + "\",\"sequence\":" + sequence + "}";
+        return new Event(eventId(epoch, sequence), "reset", data, sequence);
+    }
+
+    private static String eventId(String epoch, long sequence) {
+        return epoch + ":" + sequence;
+    }
+
+    private record Event(String id, String name, String data, long sequence) {
+        static final Event HEARTBEAT = new Event(null, null, null, 0);
+    }
+
+    /**
+     * Initial events of a stream and the publisher sequence they bring it up to.
+     */
+    private record InitialEvents(List<Event> events, long sequence) {
+    }
+
+    private static final class Stream {
+        private final SseEmitter emitter;
+        private final Feed feed;
+        private final String queryId;
+        // Guarded by the stream
+        private final Deque<Event> queue = new ArrayDeque<>();
+        private boolean ready;
+        private boolean draining;
+        private boolean closed;
+
+        private Stream(SseEmitter emitter, Feed feed, String queryId) {
+            this.emitter = emitter;
+            this.feed = feed;
+            this.queryId = queryId;
+        }
+
+        boolean accepts(QueryUpdate update) {
+            if (queryId != null && !queryId.equals(update.getQueryId())) {
+                return false;
+            }
+            return switch (update.getType()) {
+                case SNAPSHOT, PATCH -> feed == Feed.UPDATES;
+                case SUMMARY -> feed == Feed.SUMMARIES;
+                case REMOVED -> true;
+            };
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * JSON encodings of versioned payloads, so each version of a query tree is serialized once and
+ * the same bytes go to every WebSocket subscriber and REST client.
+ * <p>
+ * Entries are keyed per query and kind, e.g. {@link #detailKey}, and hold the bytes of one version;
+ * a newer version replaces them. Payloads without a version (0) are always serialized afresh.
+ * The returned arrays are shared and must not be modified. The least recently used entries are
+ * dropped beyond {@code trino.payload-cache.max-entries} or {@code max-bytes}.
+ */
+@Component
+public class SerializedPayloadCache {
+
+    private final ObjectMapper objectMapper;
+    // Writes unannotated types, e.g. the events inside a QueryTree, in full under every view
+    private final ObjectMapper viewMapper;
+    private final Map<QueryView, ObjectWriter> viewWriters = new EnumMap<>(QueryView.class);
+    // The same, but with the plan text of events
+    private final Map<QueryView, ObjectWriter> planTextWriters = new EnumMap<>(QueryView.class);
+
+    @Value("${trino.payload-cache.max-entries:2048}")
+    private int maxEntries = 2048;
+
+    @Value("${trino.payload-cache.max-bytes:67108864}")
+    private long maxBytes = 64L * 1024 * 1024;
+
+    // Guarded by itself
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Key of a query's tree as broadcast over WebSocket.
+     */
+    public static String treeKey(String queryId) {
+        return "tree:" + queryId;
+    }
+
+    /**
+     * Key of a query's tree as returned by the REST API, with its plan parsed.
+     */
+    public static String detailKey(String queryId) {
+        return "detail:" + queryId;
+    }
+
+    /**
+     * Key of a view of a query's tree as returned by the REST API; the full view is the
+     * {@link #detailKey(String)}.
+     */
+    public static String detailKey(String queryId, QueryView view) {
+        return view == QueryView.FULL ? detailKey(queryId) : "detail:" + view.name() + ":" + queryId;
+    }
+
+    /**
+     * Key of a view of a query's tree as listed with all others, which has no parsed plan.
+     */
+    public static String listKey(String queryId, QueryView view) {
+        return "list:" + view.name() + ":" + queryId;
+    }
+
+    /**
+     * Key of a view of a query's tree as returned for that query alone, which includes the plan
+     * text of its events.
+     */
+    public static String planTextKey(String queryId, QueryView view) {
+        return "plans:" + view.name() + ":" + queryId;
+    }
+
+    @Autowired
+    @SuppressWarnings("deprecation")
+    public SerializedPayloadCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.viewMapper = objectMapper.copy().configure(MapperFeature.DEFAULT_VIEW_INCLUSION, true);
+        for (QueryView view : QueryView.values()) {
+            viewWriters.put(view, viewMapper.writerWithView(view.getJsonView()));
+        }
+        ObjectMapper planTextMapper = viewMapper.copy().addMixIn(QueryEvent.class, PlanTextMixIn.class);
+        for (QueryView view : QueryView.values()) {
+            planTextWriters.put(view, planTextMapper.writerWithView(view.getJsonView()));
+        }
+    }
+
+    /**
+     * JSON bytes of a payload at the given version, serialized only if this version is not
+     * cached yet.
+     */
+    public byte[] get(String key, long version, Object payload) {
+        return get(key, version, payload, null);
+    }
+
+    /**
+     * JSON bytes of a query tree restricted to a view, serialized only if this version is not
+     * cached yet.
+     */
+    public byte[] get(String key, long version, QueryTree tree, QueryView view) {
+        return get(key, version, tree, view == QueryView.FULL ? null : viewWriters.get(view));
+    }
+
+    /**
+     * JSON bytes of a query tree restricted to a view, with the plan text of its events, which
+     * is inflated only when this version is not cached yet.
+     */
+    public byte[] getWithPlanText(String key, long version, QueryTree tree, QueryView view) {
+        return get(key, version, tree, planTextWriters.get(view));
+    }
+
+    private byte[] get(String key, long version, Object payload, ObjectWriter writer) {
+        if (version <= 0) {
+            return write(payload, writer);
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version() == version) {
+                hits.incrementAndGet();
+                return entry.bytes();
+            }
+        }
+
+        // Serialize outside the lock; concurrent misses for the same version do the same work
+        misses.incrementAndGet();
+        byte[] bytes = write(payload, writer);
+        synchronized (entries) {
+            Entry current = entries.get(key);
+            if (current == null || current.version() < version) {
+                put(key, new Entry(version, bytes));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * JSON array of query trees, assembled from each tree's cached encoding under the key
+     * derived from its query ID.
+     */
+    public byte[] getList(Function<String, String> keys, List<QueryTree> trees) {
+        return getList(trees, tree -> get(keys.apply(tree.getQueryId()), tree.getVersion(), tree));
+    }
+
+    /**
+     * JSON array of query trees restricted to a view, assembled from each tree's cached encoding
+     * under its {@link #listKey}.
+     */
+    public byte[] getList(List<QueryTree> trees, QueryView view) {
+        return getList(trees, tree -> get(listKey(tree.getQueryId(), view), tree.getVersion(), tree, view));
+    }
+
+    private static byte[] getList(List<QueryTree> trees, Function<QueryTree, byte[]> encodings) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        for (int i = 0; i < trees.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.writeBytes(encodings.apply(trees.get(i)));
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    /**
+     * Serializes a payload without caching it, e.g. one that is sent to several destinations
+     * right away and never again.
+     */
+    public byte[] write(Object payload) {
+        return write(payload, null);
+    }
+
+    private byte[] write(Object payload, ObjectWriter writer) {
+        try {
+            return writer != null ? writer.writeValueAsBytes(payload) : objectMapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize " + payload.getClass().getSimpleName(), e);
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (entries) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                totalBytes -= removed.bytes().length;
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", totalBytes);
+        }
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        totalBytes += entry.bytes().length - (previous != null ? previous.bytes().length : 0);
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && entries.size() > 1) {
+            totalBytes -= eldest.next().bytes().length;
+            eldest.remove();
+        }
+    }
+
+    private record Entry(long version, byte[] bytes) {
+    }
+
+    /**
+     * Writes the plans that {@link QueryEvent} leaves out of its JSON.
+     */
+    private abstract static class PlanTextMixIn {
+
+        @JsonProperty("plan")
+        private String plan;
+
+        @JsonProperty("jsonPlan")
+        private String jsonPlan;
+
+        // Lombok copies the field annotations, which make the plans write-only, to the setters
+        @JsonProperty("plan")
+        abstract void setPlan(String plan);
+
+        @JsonProperty("jsonPlan")
+        abstract void setJsonPlan(String jsonPlan);
+
+        @JsonIgnore(false)
+        @JsonProperty("plan")
+        abstract String getPlan();
+
+        @JsonIgnore(false)
+        @JsonProperty("jsonPlan")
+        abstract String getJsonPlan();
+    }
+}
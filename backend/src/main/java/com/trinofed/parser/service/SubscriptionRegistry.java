@@ -0,0 +1,93 @@
+package com.trinofed.parser.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which broker destinations have WebSocket subscribers, so updates are only serialized
+ * for destinations someone listens to. The simple broker itself then only delivers them to the
+ * matching sessions.
+ */
+@Slf4j
+@Component
+public class SubscriptionRegistry {
+
+    // sessionId -> subscriptionId -> destination
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+    private final Map<String, Integer> subscriberCounts = new ConcurrentHashMap<>();
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        subscribe(headers.getSessionId(), headers.getSubscriptionId(), headers.getDestination());
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        unsubscribe(headers.getSessionId(), headers.getSubscriptionId());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        disconnect(event.getSessionId());
+    }
+
+    void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (sessionId == null || subscriptionId == null || destination == null) {
+            return;
+        }
+        String previous = sessions.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>())
+                .put(subscriptionId, destination);
+        if (previous != null) {
+            release(previous);
+        }
+        subscriberCounts.merge(destination, 1, Integer::sum);
+        log.debug("Session {} subscribed to {}", sessionId, destination);
+    }
+
+    void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = sessionId != null ? sessions.get(sessionId) : null;
+        String destination = subscriptions != null && subscriptionId != null
+                ? subscriptions.remove(subscriptionId) : null;
+        if (destination != null) {
+            release(destination);
+        }
+    }
+
+    void disconnect(String sessionId) {
+        Map<String, String> subscriptions = sessionId != null ? sessions.remove(sessionId) : null;
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+        }
+    }
+
+    /**
+     * Whether any session is subscribed to exactly this destination.
+     */
+    public boolean hasSubscribers(String destination) {
+        return subscriberCounts.containsKey(destination);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions.size());
+        stats.put("subscriptions", subscriberCounts.values().stream().mapToInt(Integer::intValue).sum());
+        stats.put("destinations", subscriberCounts.size());
+        return stats;
+    }
+
+    private void release(String destination) {
+        // Drop the entry at zero so the map only holds destinations that are listened to
+        subscriberCounts.computeIfPresent(destination, (key, count) -> count > 1 ? count - 1 : null);
+    }
+}
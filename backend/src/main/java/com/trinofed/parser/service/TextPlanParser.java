@@ -5,30 +5,42 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Service to parse Trino text-based query execution plans into Fragment objects.
+ * <p>
+ * The plan is scanned once, line by line, by index: lines are not split out of the text and
+ * numbers are read in place. Only values that end up in a fragment become strings.
  */
 @Slf4j
 @Service
 public class TextPlanParser {
 
-    // 💡 FIX 1: Pattern to match fragment headers. Changed from [A-Z_:]+ to [^]]+ 
-    // to allow any character (including numbers) inside the brackets.
-    private static final Pattern FRAGMENT_HEADER_PATTERN = Pattern.compile("^Fragment (\\d+) \\[([^]]+)]");
-    
-    // Pattern to extract metrics from the fragment info line
-    private static final Pattern CPU_PATTERN = Pattern.compile("CPU: ([0-9.]+)(ms|s)");
-    private static final Pattern SCHEDULED_PATTERN = Pattern.compile("Scheduled: ([0-9.]+)(ms|s)");
-    private static final Pattern BLOCKED_PATTERN = Pattern.compile("Blocked ([0-9.]+)(ms|s)");
-    private static final Pattern INPUT_PATTERN = Pattern.compile("Input: (\\d+) rows \\(([^)]+)\\)");
-    private static final Pattern OUTPUT_PATTERN = Pattern.compile("Output: (\\d+) rows \\(([^)]+)\\)");
-    private static final Pattern PEAK_MEMORY_PATTERN = Pattern.compile("Peak Memory: ([^,]+)");
-    private static final Pattern TASKS_PATTERN = Pattern.compile("Tasks count: (\\d+)");
-    private static final Pattern OUTPUT_LAYOUT_PATTERN = Pattern.compile("Output layout: \\[([^\\]]+)]");
-    private static final Pattern OUTPUT_PARTITIONING_PATTERN = Pattern.compile("Output partitioning: (.+)");
+    private static final String FRAGMENT_PREFIX = "Fragment ";
+
+    // Metrics line fields, e.g. "CPU: 1.23ms, Scheduled: 2.45ms, Blocked 0.00ns (Input: ...)"
+    private static final String CPU_PREFIX = "CPU: ";
+    private static final String SCHEDULED_PREFIX = "Scheduled: ";
+    private static final String BLOCKED_PREFIX = "Blocked";
+    private static final String INPUT_PREFIX = "Input: ";
+    private static final String OUTPUT_PREFIX = "Output: ";
+    private static final String ROWS_INFIX = " rows (";
+    private static final String PEAK_MEMORY_PREFIX = "Peak Memory: ";
+    private static final String TASKS_PREFIX = "Tasks count: ";
+
+    private static final String OUTPUT_LAYOUT_PREFIX = "Output layout: [";
+    private static final String OUTPUT_PARTITIONING_PREFIX = "Output partitioning: ";
+
+    // Decimals with up to this many digits are exact doubles, and so are powers of ten up to 1e22
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
 
     /**
      * Parses a text-based execution plan into a list of Fragment objects.
@@ -37,219 +49,480 @@ public class TextPlanParser {
      * @return List of Fragment objects, sorted by fragmentId in descending order
      */
     public List<Fragment> parseTextPlan(String planText) {
-        if (planText == null || planText.trim().isEmpty()) {
+        if (planText == null || trimStart(planText, 0, planText.length()) == planText.length()) {
             log.warn("Plan text is null or empty");
             return Collections.emptyList();
         }
 
         List<Fragment> fragments = new ArrayList<>();
-        String[] lines = planText.split("\n");
-        
         Fragment currentFragment = null;
-        List<String> currentOperators = new ArrayList<>();
+        List<String> currentOperators = null;
 
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i];
-            Matcher fragmentMatcher = FRAGMENT_HEADER_PATTERN.matcher(line.trim());
+        int length = planText.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(planText, lineStart);
+            int start = trimStart(planText, lineStart, lineEnd);
+            if (start == lineEnd) {
+                lineStart = lineEnd + 1;
+                continue;
+            }
 
-            if (fragmentMatcher.find()) {
+            // Lines are told apart by their first character, so most are compared against one prefix at
+            // most. Prefixes end in a non-blank character, so only headers need the line trimmed at the end.
+            char first = planText.charAt(start);
+            Fragment header = first == 'F'
+                    ? parseFragmentHeader(planText, start, trimEnd(planText, start, lineEnd)) : null;
+            if (header != null) {
                 // Save the previous fragment if exists
                 if (currentFragment != null) {
-                    currentFragment.setOperators(new ArrayList<>(currentOperators));
+                    currentFragment.setOperators(currentOperators);
                     fragments.add(currentFragment);
                 }
+                currentFragment = header;
+                currentOperators = new ArrayList<>();
 
-                // Start a new fragment
-                int fragmentId = Integer.parseInt(fragmentMatcher.group(1));
-                String partitioningType = fragmentMatcher.group(2);
-
-                currentFragment = Fragment.builder()
-                        .fragmentId(fragmentId)
-                        .partitioningType(partitioningType)
-                        .build();
-                
-                currentOperators.clear();
-
-                // Next line typically contains metrics
-                if (i + 1 < lines.length) {
-                    String metricsLine = lines[i + 1];
-                    parseFragmentMetrics(currentFragment, metricsLine);
-                    // 💡 FIX 2: Skip the metrics line since it was just processed
-                    i++; 
+                // Next line typically contains metrics; it is consumed here
+                if (lineEnd + 1 < length) {
+                    int metricsEnd = lineEnd(planText, lineEnd + 1);
+                    parseFragmentMetrics(currentFragment, planText, lineEnd + 1, metricsEnd);
+                    lineEnd = metricsEnd;
                 }
             } else if (currentFragment != null) {
-                String trimmedLine = line.trim();
-                
-                // Skip empty or purely informative lines in between blocks
-                if (trimmedLine.isEmpty() || trimmedLine.startsWith("Input avg.:") || trimmedLine.startsWith("Output avg.:")) {
-                    continue;
-                }
-                
-                // Check for additional metadata lines
-                if (trimmedLine.startsWith("Output layout:")) {
-                    Matcher layoutMatcher = OUTPUT_LAYOUT_PATTERN.matcher(line);
-                    if (layoutMatcher.find()) {
-                        currentFragment.setOutputLayout(layoutMatcher.group(1));
-                    }
-                } else if (trimmedLine.startsWith("Output partitioning:")) {
-                    Matcher partitioningMatcher = OUTPUT_PARTITIONING_PATTERN.matcher(line);
-                    if (partitioningMatcher.find()) {
-                        currentFragment.setOutputPartitioning(partitioningMatcher.group(1));
-                    }
-                } 
-                // Only include lines that are clearly part of the operator tree for the raw text
-                else if (trimmedLine.startsWith("Output[") || 
-                           trimmedLine.startsWith("└─") || 
-                           trimmedLine.startsWith("│") ||
-                           // Catch any other operator/keyword that starts the line
-                           trimmedLine.startsWith("LocalMerge") ||
-                           trimmedLine.startsWith("Aggregate") ||
-                           trimmedLine.startsWith("TableScan") ||
-                           trimmedLine.startsWith("RemoteSource") ||
-                           trimmedLine.startsWith("RemoteMerge") ||
-                           trimmedLine.startsWith("PartialSort") || 
-                           trimmedLine.startsWith("Project") ||
-                           trimmedLine.startsWith("InnerJoin") ||
-                           trimmedLine.startsWith("ScanFilter")) {
-                    // This is part of the operator tree
-                    currentOperators.add(line);
+                boolean informative = (first == 'I' || first == 'O')
+                        && parseInformativeLine(currentFragment, planText, lineStart, lineEnd, start);
+                if (!informative && isOperatorLine(planText, first, start, lineEnd)) {
+                    // This is part of the operator tree; kept with its indentation
+                    currentOperators.add(planText.substring(lineStart, lineEnd));
                 }
             }
+            lineStart = lineEnd + 1;
         }
 
         // Add the last fragment
         if (currentFragment != null) {
-            currentFragment.setOperators(new ArrayList<>(currentOperators));
+            currentFragment.setOperators(currentOperators);
             fragments.add(currentFragment);
         }
 
         // Sort by fragment ID in descending order (for visualization flow)
         fragments.sort((a, b) -> Integer.compare(b.getFragmentId(), a.getFragmentId()));
 
-        log.info("Parsed {} fragments from plan text", fragments.size());
+        log.debug("Parsed {} fragments from plan text", fragments.size());
         return fragments;
     }
 
+    /**
+     * Handles the metadata lines of a fragment and the purely informative lines in between
+     * operator blocks.
+     *
+     * @return whether the trimmed line is one of them, and so not part of the operator tree
+     */
+    private boolean parseInformativeLine(Fragment fragment, String text, int lineStart, int lineEnd, int start) {
+        if (startsWith(text, start, lineEnd, "Input avg.:") || startsWith(text, start, lineEnd, "Output avg.:")) {
+            return true;
+        }
+        if (startsWith(text, start, lineEnd, "Output layout:")) {
+            String layout = parseOutputLayout(text, lineStart, lineEnd);
+            if (layout != null) {
+                fragment.setOutputLayout(layout);
+            }
+            return true;
+        }
+        if (startsWith(text, start, lineEnd, "Output partitioning:")) {
+            String partitioning = parseOutputPartitioning(text, lineStart, lineEnd);
+            if (partitioning != null) {
+                fragment.setOutputPartitioning(partitioning);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a {@code Fragment <id> [<partitioning>]} header, or returns null if the trimmed line
+     * is not one.
+     */
+    private Fragment parseFragmentHeader(String text, int start, int end) {
+        if (!startsWith(text, start, end, FRAGMENT_PREFIX)) {
+            return null;
+        }
+        int idStart = start + FRAGMENT_PREFIX.length();
+        int idEnd = digitsEnd(text, idStart, end);
+        if (idEnd == idStart || idEnd + 1 >= end || text.charAt(idEnd) != ' ' || text.charAt(idEnd + 1) != '[') {
+            return null;
+        }
+        int typeStart = idEnd + 2;
+        int typeEnd = indexOf(text, ']', typeStart, end);
+        if (typeEnd <= typeStart) {
+            return null;
+        }
+        return Fragment.builder()
+                .fragmentId(Integer.parseInt(text, idStart, idEnd, 10))
+                .partitioningType(text.substring(typeStart, typeEnd))
+                .build();
+    }
+
     /**
      * Parses the metrics line of a fragment to extract timing and resource information.
+     * <p>
+     * Each field is taken from its first well-formed occurrence, e.g. "Input: 0.00ns" inside the
+     * blocked time breakdown is passed over for the "Input: 1000 rows (45.21kB)" that follows.
      */
-    private void parseFragmentMetrics(Fragment fragment, String metricsLine) {
-        // Parse CPU time
-        Matcher cpuMatcher = CPU_PATTERN.matcher(metricsLine);
-        if (cpuMatcher.find()) {
-            String value = cpuMatcher.group(1);
-            String unit = cpuMatcher.group(2);
-            fragment.setCpuTime(value + unit);
-            fragment.setCpuTimeMs(parseTimeToMs(value, unit));
-        }
-
-        // Parse Scheduled time
-        Matcher scheduledMatcher = SCHEDULED_PATTERN.matcher(metricsLine);
-        if (scheduledMatcher.find()) {
-            String value = scheduledMatcher.group(1);
-            String unit = scheduledMatcher.group(2);
-            fragment.setScheduledTime(value + unit);
-            fragment.setScheduledTimeMs(parseTimeToMs(value, unit));
-        }
-
-        // Parse Blocked time
-        Matcher blockedMatcher = BLOCKED_PATTERN.matcher(metricsLine);
-        if (blockedMatcher.find()) {
-            String value = blockedMatcher.group(1);
-            String unit = blockedMatcher.group(2);
-            fragment.setBlockedTime(value + unit);
-            fragment.setBlockedTimeMs(parseTimeToMs(value, unit));
-        } else if (metricsLine.contains("Blocked")) {
-            // Check for format "Blocked 1.66m (Input: 36.23s, Output: 0.00ns)" where unit isn't next to value
-            Pattern blockedWithoutUnitPattern = Pattern.compile("Blocked\\s+([0-9.]+)(ms|s|m)");
-            Matcher partialBlockedMatcher = blockedWithoutUnitPattern.matcher(metricsLine);
-            if (partialBlockedMatcher.find()) {
-                String value = partialBlockedMatcher.group(1);
-                String unit = partialBlockedMatcher.group(2);
-                fragment.setBlockedTime(value + unit);
-                fragment.setBlockedTimeMs(parseTimeToMs(value, unit));
+    private void parseFragmentMetrics(Fragment fragment, String line, int start, int end) {
+        boolean cpu = false;
+        boolean scheduled = false;
+        boolean blocked = false;
+        boolean input = false;
+        boolean output = false;
+        boolean memory = false;
+        boolean tasks = false;
+        // "Blocked 1.66m" or "Blocked  2.00s", used only if no "Blocked <value>(ms|s)" is found
+        int looseBlocked = -1;
+
+        // Copied once, as this visits every character of what is the longest line of a fragment
+        char[] chars = new char[end - start];
+        line.getChars(start, end, chars, 0);
+        for (int i = start; i < end; i++) {
+            char c = chars[i - start];
+            // Digits, lowercase letters, spaces and punctuation start no field
+            if (c < 'B' || c > 'T') {
+                continue;
+            }
+            switch (c) {
+                case 'C' -> {
+                    if (!cpu && startsWith(line, i, end, CPU_PREFIX)) {
+                        int valueStart = i + CPU_PREFIX.length();
+                        int unitEnd = timeEnd(line, valueStart, end, false);
+                        if (unitEnd > 0) {
+                            fragment.setCpuTime(line.substring(valueStart, unitEnd));
+                            fragment.setCpuTimeMs(parseTimeToMs(line, valueStart, unitEnd));
+                            cpu = true;
+                        }
+                    }
+                }
+                case 'S' -> {
+                    if (!scheduled && startsWith(line, i, end, SCHEDULED_PREFIX)) {
+                        int valueStart = i + SCHEDULED_PREFIX.length();
+                        int unitEnd = timeEnd(line, valueStart, end, false);
+                        if (unitEnd > 0) {
+                            fragment.setScheduledTime(line.substring(valueStart, unitEnd));
+                            fragment.setScheduledTimeMs(parseTimeToMs(line, valueStart, unitEnd));
+                            scheduled = true;
+                        }
+                    }
+                }
+                case 'B' -> {
+                    if (!blocked && startsWith(line, i, end, BLOCKED_PREFIX)) {
+                        int spacesStart = i + BLOCKED_PREFIX.length();
+                        int valueStart = spacesEnd(line, spacesStart, end);
+                        if (valueStart == spacesStart + 1 && line.charAt(spacesStart) == ' '
+                                && timeEnd(line, valueStart, end, false) > 0) {
+                            setBlockedTime(fragment, line, valueStart, end);
+                            blocked = true;
+                        } else if (looseBlocked < 0 && valueStart > spacesStart
+                                && timeEnd(line, valueStart, end, true) > 0) {
+                            looseBlocked = valueStart;
+                        }
+                    }
+                }
+                case 'I' -> {
+                    if (!input && startsWith(line, i, end, INPUT_PREFIX)) {
+                        input = parseRowsAndBytes(fragment, line, i + INPUT_PREFIX.length(), end, true);
+                    }
+                }
+                case 'O' -> {
+                    if (!output && startsWith(line, i, end, OUTPUT_PREFIX)) {
+                        output = parseRowsAndBytes(fragment, line, i + OUTPUT_PREFIX.length(), end, false);
+                    }
+                }
+                case 'P' -> {
+                    if (!memory && startsWith(line, i, end, PEAK_MEMORY_PREFIX)) {
+                        int valueStart = i + PEAK_MEMORY_PREFIX.length();
+                        int valueEnd = indexOf(line, ',', valueStart, end);
+                        if (valueEnd < 0) {
+                            valueEnd = end;
+                        }
+                        if (valueEnd > valueStart) {
+                            String memoryStr = line.substring(valueStart, valueEnd).trim();
+                            fragment.setPeakMemory(memoryStr);
+                            fragment.setPeakMemoryBytes(parseBytesToLong(memoryStr, 0, memoryStr.length()));
+                            memory = true;
+                        }
+                    }
+                }
+                case 'T' -> {
+                    if (!tasks && startsWith(line, i, end, TASKS_PREFIX)) {
+                        int valueStart = i + TASKS_PREFIX.length();
+                        int valueEnd = digitsEnd(line, valueStart, end);
+                        if (valueEnd > valueStart) {
+                            fragment.setTaskCount(Integer.parseInt(line, valueStart, valueEnd, 10));
+                            tasks = true;
+                        }
+                    }
+                }
+                default -> {
+                }
             }
         }
 
+        if (!blocked && looseBlocked >= 0) {
+            setBlockedTime(fragment, line, looseBlocked, end);
+        }
+    }
 
-        // Parse Input
-        Matcher inputMatcher = INPUT_PATTERN.matcher(metricsLine);
-        if (inputMatcher.find()) {
-            fragment.setInputRows(Long.parseLong(inputMatcher.group(1)));
-            String bytesStr = inputMatcher.group(2);
+    private void setBlockedTime(Fragment fragment, String line, int valueStart, int end) {
+        int unitEnd = timeEnd(line, valueStart, end, true);
+        fragment.setBlockedTime(line.substring(valueStart, unitEnd));
+        fragment.setBlockedTimeMs(parseTimeToMs(line, valueStart, unitEnd));
+    }
+
+    /**
+     * Parses {@code <rows> rows (<bytes>)} following "Input: " or "Output: ".
+     *
+     * @return whether the field was well-formed at this position
+     */
+    private boolean parseRowsAndBytes(Fragment fragment, String line, int rowsStart, int end, boolean input) {
+        int rowsEnd = digitsEnd(line, rowsStart, end);
+        if (rowsEnd == rowsStart || !startsWith(line, rowsEnd, end, ROWS_INFIX)) {
+            return false;
+        }
+        int bytesStart = rowsEnd + ROWS_INFIX.length();
+        int bytesEnd = indexOf(line, ')', bytesStart, end);
+        if (bytesEnd <= bytesStart) {
+            return false;
+        }
+        long rows = Long.parseLong(line, rowsStart, rowsEnd, 10);
+        String bytesStr = line.substring(bytesStart, bytesEnd);
+        long bytes = parseBytesToLong(line, bytesStart, bytesEnd);
+        if (input) {
+            fragment.setInputRows(rows);
             fragment.setInputBytes(bytesStr);
-            fragment.setInputBytesValue(parseBytesToLong(bytesStr));
+            fragment.setInputBytesValue(bytes);
+        } else {
+            fragment.setOutputRows(rows);
+            fragment.setOutputBytes(bytesStr);
+            fragment.setOutputBytesValue(bytes);
         }
+        return true;
+    }
 
-        // Parse Output
-        Matcher outputMatcher = OUTPUT_PATTERN.matcher(metricsLine);
-        if (outputMatcher.find()) {
-            fragment.setOutputRows(Long.parseLong(outputMatcher.group(1)));
-            String bytesStr = outputMatcher.group(2);
-            fragment.setOutputBytes(bytesStr);
-            fragment.setOutputBytesValue(parseBytesToLong(bytesStr));
+    /**
+     * Returns the layout between the brackets of the first complete "Output layout: [...]", or null.
+     */
+    private String parseOutputLayout(String line, int start, int end) {
+        for (int i = line.indexOf(OUTPUT_LAYOUT_PREFIX, start); i >= 0 && i < end;
+             i = line.indexOf(OUTPUT_LAYOUT_PREFIX, i + 1)) {
+            int valueStart = i + OUTPUT_LAYOUT_PREFIX.length();
+            int valueEnd = indexOf(line, ']', valueStart, end);
+            if (valueEnd > valueStart) {
+                return line.substring(valueStart, valueEnd);
+            }
         }
+        return null;
+    }
 
-        // Parse Peak Memory
-        Matcher memoryMatcher = PEAK_MEMORY_PATTERN.matcher(metricsLine);
-        if (memoryMatcher.find()) {
-            String memoryStr = memoryMatcher.group(1).trim();
-            fragment.setPeakMemory(memoryStr);
-            fragment.setPeakMemoryBytes(parseBytesToLong(memoryStr));
+    /**
+     * Returns the rest of the line after the first "Output partitioning: " that is followed by
+     * something, or null.
+     */
+    private String parseOutputPartitioning(String line, int start, int end) {
+        for (int i = line.indexOf(OUTPUT_PARTITIONING_PREFIX, start); i >= 0 && i < end;
+             i = line.indexOf(OUTPUT_PARTITIONING_PREFIX, i + 1)) {
+            int valueStart = i + OUTPUT_PARTITIONING_PREFIX.length();
+            int valueEnd = valueStart;
+            while (valueEnd < end && !isLineTerminator(line.charAt(valueEnd))) {
+                valueEnd++;
+            }
+            if (valueEnd > valueStart) {
+                return line.substring(valueStart, valueEnd);
+            }
         }
+        return null;
+    }
 
-        // Parse Tasks count
-        Matcher tasksMatcher = TASKS_PATTERN.matcher(metricsLine);
-        if (tasksMatcher.find()) {
-            fragment.setTaskCount(Integer.parseInt(tasksMatcher.group(1)));
+    /**
+     * Whether a trimmed line starting with {@code first} is clearly part of the operator tree.
+     */
+    private static boolean isOperatorLine(String text, char first, int start, int end) {
+        return switch (first) {
+            case '│' -> true;
+            case '└' -> startsWith(text, start, end, "└─");
+            case 'O' -> startsWith(text, start, end, "Output[");
+            case 'L' -> startsWith(text, start, end, "LocalMerge");
+            case 'A' -> startsWith(text, start, end, "Aggregate");
+            case 'T' -> startsWith(text, start, end, "TableScan");
+            case 'R' -> startsWith(text, start, end, "RemoteSource") || startsWith(text, start, end, "RemoteMerge");
+            case 'P' -> startsWith(text, start, end, "PartialSort") || startsWith(text, start, end, "Project");
+            case 'I' -> startsWith(text, start, end, "InnerJoin");
+            case 'S' -> startsWith(text, start, end, "ScanFilter");
+            default -> false;
+        };
+    }
+
+    /**
+     * Returns the end of a time value such as {@code 1.23ms} or {@code 4.56s} (and {@code 1.66m}
+     * with minutes) starting at {@code start}, or -1 if there is none.
+     */
+    private static int timeEnd(String line, int start, int end, boolean minutes) {
+        int numberEnd = numberEnd(line, start, end);
+        if (numberEnd == start || numberEnd >= end) {
+            return -1;
         }
+        char unit = line.charAt(numberEnd);
+        if (unit == 'm') {
+            if (numberEnd + 1 < end && line.charAt(numberEnd + 1) == 's') {
+                return numberEnd + 2;
+            }
+            return minutes ? numberEnd + 1 : -1;
+        }
+        return unit == 's' ? numberEnd + 1 : -1;
     }
 
     /**
-     * Converts a time value with unit to milliseconds.
+     * Converts a time value with unit, as delimited by {@link #timeEnd}, to milliseconds.
      */
-    private double parseTimeToMs(String value, String unit) {
-        double val = Double.parseDouble(value);
-        return switch (unit) {
-            case "s" -> val * 1000.0;
-            case "m" -> val * 60.0 * 1000.0; // handle minutes (1.66m)
-            default -> val; // already in ms
+    private static double parseTimeToMs(String line, int start, int unitEnd) {
+        int numberEnd = numberEnd(line, start, unitEnd);
+        double val = parseDecimal(line, start, numberEnd);
+        if (unitEnd - numberEnd == 2) {
+            return val; // already in ms
+        }
+        return switch (line.charAt(numberEnd)) {
+            case 's' -> val * 1000.0;
+            case 'm' -> val * 60.0 * 1000.0; // handle minutes (1.66m)
+            default -> val;
         };
     }
 
     /**
-     * Parses byte size strings like "45B", "352.59kB", "1.23MB", "2.5GB" to bytes.
+     * Parses byte size strings like "45B", "352.59kB", "1.23MB", "2.5GB" to bytes. The first
+     * number followed by a unit counts, with optional whitespace in between; "NaN" is 0.
      */
-    private long parseBytesToLong(String bytesStr) {
-        if (bytesStr == null || bytesStr.trim().isEmpty() || bytesStr.trim().equalsIgnoreCase("null")) {
+    private static long parseBytesToLong(String text, int start, int end) {
+        start = trimStart(text, start, end);
+        end = trimEnd(text, start, end);
+        if (start == end || (end - start == 4 && text.regionMatches(true, start, "null", 0, 4))) {
             return 0L;
         }
 
-        bytesStr = bytesStr.trim().toUpperCase();
-        
-        // Match number and unit (including optional space)
-        Pattern pattern = Pattern.compile("([0-9.]+|NaN)\\s*([KMGT]?B)");
-        Matcher matcher = pattern.matcher(bytesStr);
-        
-        if (!matcher.find()) {
-            return 0L;
+        int i = start;
+        while (i < end) {
+            if (!isNumberChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int numberEnd = numberEnd(text, i, end);
+            int unit = spacesEnd(text, numberEnd, end);
+            char scale = unit < end ? Character.toUpperCase(text.charAt(unit)) : 0;
+            if (scale == 'B') {
+                return (long) parseDecimal(text, i, numberEnd);
+            }
+            if ((scale == 'K' || scale == 'M' || scale == 'G' || scale == 'T')
+                    && unit + 1 < end && Character.toUpperCase(text.charAt(unit + 1)) == 'B') {
+                double value = parseDecimal(text, i, numberEnd);
+                return switch (scale) {
+                    case 'K' -> (long) (value * 1024);
+                    case 'M' -> (long) (value * 1024 * 1024);
+                    case 'G' -> (long) (value * 1024 * 1024 * 1024);
+                    default -> (long) (value * 1024L * 1024 * 1024 * 1024);
+                };
+            }
+            i = numberEnd;
         }
+        return 0L;
+    }
 
-        String valueStr = matcher.group(1);
-        if (valueStr.equalsIgnoreCase("NAN")) {
-            return 0L;
+    /**
+     * Parses a run of digits and dots. Short plain decimals, which is what plans contain, are
+     * computed directly: both the digits and the power of ten are exact doubles, so the division
+     * rounds exactly like {@link Double#parseDouble}. Anything else goes to that method, which
+     * also rejects malformed numbers such as "1.2.3".
+     */
+    private static double parseDecimal(String text, int start, int end) {
+        long digits = 0;
+        int digitCount = 0;
+        int fractionDigits = 0;
+        boolean dot = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                if (dot) {
+                    return Double.parseDouble(text.substring(start, end));
+                }
+                dot = true;
+            } else {
+                if (++digitCount > MAX_EXACT_DIGITS) {
+                    return Double.parseDouble(text.substring(start, end));
+                }
+                digits = digits * 10 + (c - '0');
+                if (dot) {
+                    fractionDigits++;
+                }
+            }
         }
-        
-        double value = Double.parseDouble(valueStr);
-        String unit = matcher.group(2);
-
-        return switch (unit) {
-            case "B" -> (long) value;
-            case "KB" -> (long) (value * 1024);
-            case "MB" -> (long) (value * 1024 * 1024);
-            case "GB" -> (long) (value * 1024 * 1024 * 1024);
-            case "TB" -> (long) (value * 1024L * 1024 * 1024 * 1024);
-            default -> 0L;
-        };
+        if (digitCount == 0) {
+            return Double.parseDouble(text.substring(start, end));
+        }
+        return fractionDigits == 0 ? digits : digits / POWERS_OF_TEN[fractionDigits];
+    }
+
+    private static boolean startsWith(String text, int start, int end, String prefix) {
+        return end - start >= prefix.length() && text.startsWith(prefix, start);
+    }
+
+    private static int indexOf(String text, char c, int start, int end) {
+        int index = text.indexOf(c, start);
+        return index < end ? index : -1;
+    }
+
+    private static int lineEnd(String text, int start) {
+        int index = text.indexOf('\n', start);
+        return index >= 0 ? index : text.length();
+    }
+
+    // Same as String.trim(): everything up to the space is whitespace
+    private static int trimStart(String text, int start, int end) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(String text, int start, int end) {
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static int digitsEnd(String text, int start, int end) {
+        while (start < end && text.charAt(start) >= '0' && text.charAt(start) <= '9') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int numberEnd(String text, int start, int end) {
+        while (start < end && isNumberChar(text.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '.';
+    }
+
+    // Whitespace as in regular expressions
+    private static int spacesEnd(String text, int start, int end) {
+        while (start < end && " \t\n\u000B\f\r".indexOf(text.charAt(start)) >= 0) {
+            start++;
+        }
+        return start;
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\r' || c == '\n' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,303 @@
+package com.trinofed.parser.consumer;
+
+import com.trinofed.parser.journal.JournalService;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.service.EventIngestionPipeline;
+import com.trinofed.parser.service.QueryEventService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for IngestHandoffQueue
+ * Tests ordered hand-off, pausing at the water marks and catch-up mode
+ */
+class IngestHandoffQueueTest {
+
+    private static final String TOPIC = "trino-query-events";
+
+    private EventIngestionPipeline pipeline;
+    private QueryEventService queryEventService;
+    private OffsetCommitCoordinator commitCoordinator;
+    private MessageListenerContainer container;
+    private Consumer<?, ?> consumer;
+    private IngestHandoffQueue handoffQueue;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> appliedQueries = new ArrayList<>();
+    private final AtomicBoolean catchingUp = new AtomicBoolean();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        pipeline = mock(EventIngestionPipeline.class);
+        doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            List<QueryEvent> events = invocation.getArgument(0);
+            events.forEach(event -> appliedQueries.add(event.getQueryId()));
+            return null;
+        }).when(pipeline).ingest(anyList());
+
+        queryEventService = mock(QueryEventService.class);
+        when(queryEventService.isCatchingUp()).thenAnswer(invocation -> catchingUp.get());
+        doAnswer(invocation -> {
+            catchingUp.set(true);
+            return null;
+        }).when(queryEventService).beginCatchUp();
+        doAnswer(invocation -> {
+            catchingUp.set(false);
+            return null;
+        }).when(queryEventService).endCatchUp();
+
+        JournalService journalService = mock(JournalService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(journalService).appendAndApply(anyList(), any(Runnable.class));
+
+        container = mock(MessageListenerContainer.class);
+        KafkaListenerEndpointRegistry registry = mock(KafkaListenerEndpointRegistry.class);
+        when(registry.getListenerContainer(TrinoEventConsumer.LISTENER_ID)).thenReturn(container);
+        ObjectProvider<KafkaListenerEndpointRegistry> registryProvider = mock(ObjectProvider.class);
+        when(registryProvider.getIfAvailable()).thenReturn(registry);
+
+        commitCoordinator = mock(OffsetCommitCoordinator.class);
+        consumer = mock(Consumer.class);
+        handoffQueue = new IngestHandoffQueue(pipeline, queryEventService, journalService, commitCoordinator,
+                registryProvider, 10, 6, 2, 5_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        handoffQueue.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should pause at the high-water mark and resume once drained")
+    void testPauseAndResume() throws Exception {
+        // Given
+        List<ConsumerRecord<String, QueryEvent>> batch1 = records("query-a", 0, 4);
+        List<ConsumerRecord<String, QueryEvent>> batch2 = records("query-b", 4, 4);
+
+        // When
+        handoffQueue.submit(consumer, batch1, values(batch1), false);
+        handoffQueue.submit(consumer, batch2, values(batch2), false);
+
+        // Then
+        verify(container).pause();
+        verify(container, never()).resume();
+        assertThat(handoffQueue.getStats())
+                .containsEntry("queuedEvents", 8)
+                .containsEntry("paused", true)
+                .containsEntry("pauseCount", 1L);
+
+        // When
+        release.countDown();
+
+        // Then
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+        verify(container).resume();
+        assertThat(handoffQueue.getStats())
+                .containsEntry("queuedEvents", 0)
+                .containsEntry("paused", false)
+                .containsEntry("appliedBatches", 2L);
+    }
+
+    @Test
+    @DisplayName("Should apply batches in order and only then report their offsets")
+    void testBatchesAppliedInOrder() throws Exception {
+        // Given
+        release.countDown();
+        List<ConsumerRecord<String, QueryEvent>> batch1 = records("query-a", 0, 2);
+        List<ConsumerRecord<String, QueryEvent>> batch2 = records("query-b", 2, 2);
+
+        // When
+        handoffQueue.submit(consumer, batch1, values(batch1), false);
+        handoffQueue.submit(consumer, batch2, values(batch2), false);
+
+        // Then
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+        assertThat(appliedQueries).containsExactly("query-a", "query-a", "query-b", "query-b");
+        InOrder inOrder = inOrder(commitCoordinator);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, batch1);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, batch2);
+        verify(container, never()).pause();
+    }
+
+    @Test
+    @DisplayName("Should apply replayed batches in catch-up mode and leave it at the first live batch")
+    void testCatchUpMode() throws Exception {
+        // Given
+        release.countDown();
+        List<ConsumerRecord<String, QueryEvent>> backlog1 = records("query-a", 0, 2);
+        List<ConsumerRecord<String, QueryEvent>> backlog2 = records("query-b", 2, 2);
+        List<ConsumerRecord<String, QueryEvent>> live = records("query-c", 4, 1);
+
+        // When
+        handoffQueue.submit(consumer, backlog1, values(backlog1), true);
+        handoffQueue.submit(consumer, backlog2, values(backlog2), true);
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+
+        // Then
+        assertThat(catchingUp).isTrue();
+        verify(queryEventService, times(1)).beginCatchUp();
+        verify(queryEventService, never()).endCatchUp();
+
+        // When
+        handoffQueue.submit(consumer, live, values(live), false);
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+
+        // Then
+        assertThat(catchingUp).isFalse();
+        verify(queryEventService, times(1)).endCatchUp();
+        assertThat(handoffQueue.getStats()).containsEntry("catchUps", 1L);
+    }
+
+    @Test
+    @DisplayName("Should not report offsets of a batch whose events failed to apply on a lane")
+    @SuppressWarnings("unchecked")
+    void testLaneFailureCommitsNothing() throws Exception {
+        // Given
+        QueryEventService failingService = mock(QueryEventService.class);
+        doThrow(new IllegalStateException("lane failed")).when(failingService).processEvents(anyList());
+        EventIngestionPipeline failingPipeline = new EventIngestionPipeline(failingService, 2);
+        JournalService journalService = mock(JournalService.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(1)).run();
+            return null;
+        }).when(journalService).appendAndApply(anyList(), any(Runnable.class));
+        IngestHandoffQueue failingQueue = new IngestHandoffQueue(failingPipeline, queryEventService, journalService,
+                commitCoordinator, mock(ObjectProvider.class), 10, 6, 2, 5_000);
+        List<ConsumerRecord<String, QueryEvent>> batch = records("query-a", 0, 2);
+
+        try {
+            // When
+            failingQueue.submit(consumer, batch, values(batch), false);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while ((long) failingQueue.getStats().get("failedBatches") == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // Then
+            assertThat(failingQueue.getStats().get("failedBatches")).isNotEqualTo(0L);
+            verify(failingService, atLeastOnce()).processEvents(anyList());
+            verify(commitCoordinator, never()).batchApplied(any(), anyList());
+        } finally {
+            failingQueue.shutdown();
+            failingPipeline.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should retry a failed batch before applying later ones, so no offset passes it")
+    void testFailedBatchRetriedBeforeLaterBatches() throws Exception {
+        // Given
+        CountDownLatch failedTwice = new CountDownLatch(2);
+        AtomicBoolean failing = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            List<QueryEvent> events = invocation.getArgument(0);
+            if (events.get(0).getQueryId().equals("query-a") && failing.get()) {
+                failedTwice.countDown();
+                throw new IllegalStateException("lane failed");
+            }
+            events.forEach(event -> appliedQueries.add(event.getQueryId()));
+            return null;
+        }).when(pipeline).ingest(anyList());
+        List<ConsumerRecord<String, QueryEvent>> failed = records("query-a", 0, 2);
+        List<ConsumerRecord<String, QueryEvent>> later = records("query-b", 2, 2);
+
+        // When
+        handoffQueue.submit(consumer, failed, values(failed), false);
+        handoffQueue.submit(consumer, later, values(later), false);
+        assertThat(failedTwice.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Then - nothing is committable while the first batch keeps failing
+        verify(commitCoordinator, never()).batchApplied(any(), anyList());
+        assertThat(appliedQueries).isEmpty();
+
+        // When
+        failing.set(false);
+
+        // Then
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+        assertThat(appliedQueries).containsExactly("query-a", "query-a", "query-b", "query-b");
+        InOrder inOrder = inOrder(commitCoordinator);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, failed);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, later);
+        assertThat((long) handoffQueue.getStats().get("failedBatches")).isGreaterThanOrEqualTo(2L);
+        assertThat(handoffQueue.getStats()).containsEntry("appliedBatches", 2L);
+    }
+
+    @Test
+    @DisplayName("Should skip a batch that keeps failing, commit its offsets and count it")
+    void testFailingBatchSkippedAfterMaxAttempts() throws Exception {
+        // Given
+        ReflectionTestUtils.setField(handoffQueue, "maxAttempts", 3);
+        ReflectionTestUtils.setField(handoffQueue, "retryBackoffMs", 1L);
+        doAnswer(invocation -> {
+            List<QueryEvent> events = invocation.getArgument(0);
+            if (events.get(0).getQueryId().equals("query-a")) {
+                throw new IllegalStateException("lane failed");
+            }
+            events.forEach(event -> appliedQueries.add(event.getQueryId()));
+            return null;
+        }).when(pipeline).ingest(anyList());
+        List<ConsumerRecord<String, QueryEvent>> failed = records("query-a", 0, 2);
+        List<ConsumerRecord<String, QueryEvent>> later = records("query-b", 2, 2);
+
+        // When
+        handoffQueue.submit(consumer, failed, values(failed), false);
+        handoffQueue.submit(consumer, later, values(later), false);
+
+        // Then
+        assertThat(handoffQueue.awaitDrained(5_000)).isTrue();
+        assertThat(appliedQueries).containsExactly("query-b", "query-b");
+        InOrder inOrder = inOrder(commitCoordinator);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, failed);
+        inOrder.verify(commitCoordinator).batchApplied(consumer, later);
+        verify(pipeline, times(4)).ingest(anyList());
+        assertThat(handoffQueue.getStats())
+                .containsEntry("failedBatches", 3L)
+                .containsEntry("skippedBatches", 1L)
+                .containsEntry("skippedRecords", 2L);
+    }
+
+    // Helper methods
+
+    private List<ConsumerRecord<String, QueryEvent>> records(String queryId, long firstOffset, int count) {
+        List<ConsumerRecord<String, QueryEvent>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            QueryEvent event = QueryEvent.builder()
+                    .queryId(queryId)
+                    .state("RUNNING")
+                    .timestamp(Instant.now())
+                    .build();
+            records.add(new ConsumerRecord<>(TOPIC, 0, firstOffset + i, queryId, event));
+        }
+        return records;
+    }
+
+    private List<QueryEvent> values(List<ConsumerRecord<String, QueryEvent>> records) {
+        return records.stream().map(ConsumerRecord::value).toList();
+    }
+}
@@ -0,0 +1,127 @@
+package com.trinofed.parser.consumer;
+
+import com.trinofed.parser.journal.JournalService;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for OffsetCommitCoordinator
+ * Tests batched commits of applied offsets
+ */
+class OffsetCommitCoordinatorTest {
+
+    private static final String TOPIC = "trino-query-events";
+
+    private JournalService journalService;
+    private Consumer<?, ?> consumer;
+    private OffsetCommitCoordinator coordinator;
+
+    @BeforeEach
+    void setUp() {
+        journalService = mock(JournalService.class);
+        consumer = mock(Consumer.class);
+        coordinator = new OffsetCommitCoordinator(journalService, 3, 60_000);
+        doReturn(Set.of(new TopicPartition(TOPIC, 0), new TopicPartition(TOPIC, 1))).when(consumer).assignment();
+    }
+
+    @Test
+    @DisplayName("Should commit the highest applied offsets once every N batches")
+    void testCommitEveryNBatches() {
+        // When
+        coordinator.batchApplied(consumer, List.of(record(0, 10), record(1, 4)));
+        coordinator.batchApplied(consumer, List.of(record(0, 11)));
+        coordinator.commitIfDue(consumer);
+
+        // Then
+        verify(consumer, never()).commitSync(anyMap());
+        assertThat(coordinator.getPendingPartitionCount()).isEqualTo(2);
+
+        // When
+        coordinator.batchApplied(consumer, List.of(record(0, 12)));
+        coordinator.commitIfDue(consumer);
+
+        // Then
+        InOrder inOrder = inOrder(journalService, consumer);
+        inOrder.verify(journalService).flush();
+        inOrder.verify(consumer).commitSync(Map.of(
+                new TopicPartition(TOPIC, 0), new OffsetAndMetadata(13),
+                new TopicPartition(TOPIC, 1), new OffsetAndMetadata(5)));
+        assertThat(coordinator.getCommitCount()).isEqualTo(1);
+        assertThat(coordinator.getPendingPartitionCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should commit revoked partitions before they are handed over")
+    void testCommitOnRevocation() {
+        // Given
+        coordinator.batchApplied(consumer, List.of(record(0, 10), record(1, 4)));
+
+        // When
+        coordinator.onPartitionsRevokedBeforeCommit(consumer, List.of(new TopicPartition(TOPIC, 1)));
+
+        // Then
+        verify(consumer).commitSync(Map.of(new TopicPartition(TOPIC, 1), new OffsetAndMetadata(5)));
+        assertThat(coordinator.getPendingPartitionCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should keep offsets pending when a commit fails")
+    void testFailedCommitIsRetried() {
+        // Given
+        doThrow(new TimeoutException("timeout")).doNothing().when(consumer).commitSync(anyMap());
+        coordinator.batchApplied(consumer, List.of(record(0, 1)));
+        coordinator.batchApplied(consumer, List.of(record(0, 2)));
+
+        // When
+        coordinator.batchApplied(consumer, List.of(record(0, 3)));
+        coordinator.commitIfDue(consumer);
+        coordinator.batchApplied(consumer, List.of(record(0, 4)));
+        coordinator.commitIfDue(consumer);
+
+        // Then
+        assertThat(coordinator.getCommitFailureCount()).isEqualTo(1);
+        assertThat(coordinator.getCommitCount()).isEqualTo(1);
+        verify(consumer).commitSync(Map.of(new TopicPartition(TOPIC, 0), new OffsetAndMetadata(4)));
+        verify(consumer).commitSync(Map.of(new TopicPartition(TOPIC, 0), new OffsetAndMetadata(5)));
+        assertThat(coordinator.getPendingPartitionCount()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should drop offsets of partitions no longer assigned to the consumer")
+    void testUnassignedPartitionsAreNotCommitted() {
+        // Given
+        doReturn(Set.of(new TopicPartition(TOPIC, 0))).when(consumer).assignment();
+        coordinator.batchApplied(consumer, List.of(record(0, 7), record(1, 9)));
+        ListenerContainerIdleEvent idle = mock(ListenerContainerIdleEvent.class);
+        doReturn(consumer).when(idle).getConsumer();
+
+        // When
+        coordinator.onIdle(idle);
+
+        // Then
+        verify(consumer).commitSync(Map.of(new TopicPartition(TOPIC, 0), new OffsetAndMetadata(8)));
+        assertThat(coordinator.getPendingPartitionCount()).isZero();
+    }
+
+    // Helper methods
+
+    private ConsumerRecord<String, String> record(int partition, long offset) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, "key", "value");
+    }
+}
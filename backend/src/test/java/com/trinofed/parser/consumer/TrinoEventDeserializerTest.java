@@ -0,0 +1,140 @@
+package com.trinofed.parser.consumer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.TrinoEventWrapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for TrinoEventDeserializer
+ * Tests that the streaming path produces the same QueryEvent as TrinoEventWrapper
+ */
+class TrinoEventDeserializerTest {
+
+    private static final String MESSAGE = """
+        {
+          "eventMetadata": {"version": 1, "nested": {"ignored": [1, 2, 3]}},
+          "eventPayload": {
+            "createTime": "2025-10-01T12:00:00.123Z",
+            "endTime": "2025-10-01T12:00:02.456Z",
+            "context": {"user": "alice", "principal": "alice", "environment": "test", "resourceGroupId": ["global"]},
+            "statistics": {
+              "cpuTime": "1.50s",
+              "wallTime": "2.33s",
+              "queuedTime": "12.00ms",
+              "peakMemoryBytes": 1048576,
+              "totalBytes": 52428800,
+              "totalRows": 1000,
+              "completedSplits": 42,
+              "operatorSummaries": [{"operatorType": "TableScanOperator"}]
+            },
+            "ioMetadata": {
+              "inputs": [
+                {
+                  "catalogName": "postgres",
+                  "catalogVersion": "1",
+                  "schema": "public",
+                  "table": "customers",
+                  "columns": [{"name": "id", "type": "integer"}, {"name": "name", "type": "varchar"}],
+                  "connectorName": "postgresql",
+                  "connectorMetrics": {"a": 1},
+                  "physicalInputBytes": 1024
+                },
+                {"catalogName": "mongodb", "schema": "sales", "table": "orders"}
+              ],
+              "output": {"catalogName": "memory", "schema": "default", "table": "result"}
+            },
+            "metadata": {
+              "queryId": "20251001_120000_00001_abcde",
+              "transactionId": "tx",
+              "query": "SELECT * FROM customers",
+              "queryState": "FINISHED",
+              "uri": "http://trino:8080/v1/query/20251001_120000_00001_abcde",
+              "plan": "Fragment 0 [SINGLE]\\n    Output[columnNames = [id]]",
+              "jsonPlan": "{\\"0\\": {\\"id\\": \\"0\\", \\"name\\": \\"Output\\"}}",
+              "tables": [{"catalog": "postgres"}]
+            }
+          }
+        }
+        """;
+
+    private ObjectMapper objectMapper;
+    private TrinoEventDeserializer deserializer;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = new ObjectMapper();
+        deserializer = new TrinoEventDeserializer(objectMapper);
+    }
+
+    @Test
+    @DisplayName("Should match TrinoEventWrapper.toQueryEvent field for field")
+    void testMatchesWrapperConversion() throws Exception {
+        // Given
+        QueryEvent expected = objectMapper.readValue(MESSAGE, TrinoEventWrapper.class).toQueryEvent();
+
+        // When
+        QueryEvent actual = deserializer.deserialize("topic", MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+        // Then
+        assertThat(actual).usingRecursiveComparison()
+                .ignoringFields("ioMetadata")
+                .isEqualTo(expected);
+        assertThat(actual.getCpuTimeMs()).isEqualTo(1500L);
+        assertThat(actual.getCatalogs()).containsExactly("postgres", "mongodb");
+        assertThat(actual.getEventType()).isEqualTo("COMPLETED");
+    }
+
+    @Test
+    @DisplayName("Should expose inputs and output in ioMetadata without copying the inputs")
+    void testIoMetadata() {
+        // When
+        QueryEvent event = deserializer.deserialize("topic", MESSAGE.getBytes(StandardCharsets.UTF_8));
+
+        // Then
+        @SuppressWarnings("unchecked")
+        Map<String, Object> ioMetadata = (Map<String, Object>) event.getIoMetadata();
+        assertThat(ioMetadata.get("inputs")).isSameAs(event.getInputs().get("inputs"));
+        assertThat(ioMetadata.get("output")).isEqualTo(Map.of("catalogName", "memory", "schema", "default", "table", "result"));
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> inputs = (List<Map<String, Object>>) ioMetadata.get("inputs");
+        assertThat(inputs.get(0)).containsEntry("connectorName", "postgresql")
+                .doesNotContainKey("connectorMetrics");
+    }
+
+    @Test
+    @DisplayName("Should parse from a heap ByteBuffer slice")
+    void testByteBufferSlice() {
+        // Given
+        byte[] bytes = ("xx" + MESSAGE + "yy").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 2, bytes.length - 4).slice();
+
+        // When
+        QueryEvent event = deserializer.deserialize("topic", null, buffer);
+
+        // Then
+        assertThat(event).isNotNull();
+        assertThat(event.getQueryId()).isEqualTo("20251001_120000_00001_abcde");
+        assertThat(event.getUser()).isEqualTo("alice");
+    }
+
+    @Test
+    @DisplayName("Should return null for malformed messages or missing metadata or query ID")
+    void testInvalidMessages() {
+        assertThat(deserializer.deserialize("topic", "not json".getBytes(StandardCharsets.UTF_8))).isNull();
+        assertThat(deserializer.deserialize("topic", "{\"eventPayload\": {}}".getBytes(StandardCharsets.UTF_8))).isNull();
+        assertThat(deserializer.deserialize("topic",
+                "{\"eventPayload\": {\"metadata\": {\"queryState\": \"FINISHED\"}}}".getBytes(StandardCharsets.UTF_8)))
+                .isNull();
+        assertThat(deserializer.deserialize("topic", (byte[]) null)).isNull();
+    }
+}
@@ -1,14 +1,20 @@
 package com.trinofed.parser.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryFilter;
+import com.trinofed.parser.model.QueryPage;
+import com.trinofed.parser.model.QuerySummary;
 import com.trinofed.parser.model.QueryTree;
 import com.trinofed.parser.model.QueryTreeNode;
 import com.trinofed.parser.service.QueryEventService;
+import com.trinofed.parser.service.SerializedPayloadCache;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 
@@ -17,7 +23,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -28,6 +38,7 @@ import static org.hamcrest.Matchers.*;
  * Tests REST API endpoints for query retrieval
  */
 @WebMvcTest(QueryController.class)
+@Import(SerializedPayloadCache.class)
 class QueryControllerTest {
 
     @Autowired
@@ -60,6 +71,30 @@ class QueryControllerTest {
         verify(queryEventService).getAllQueryTrees();
     }
 
+    @Test
+    @DisplayName("GET /api/queries - Should return 304 from the versions without building trees")
+    void testGetAllQueriesNotModified() throws Exception {
+        // Given
+        when(queryEventService.getQueryVersions()).thenReturn(Map.of("query-1", 3L, "query-2", 5L));
+        when(queryEventService.getAllQueryTrees()).thenReturn(List.of(
+                createMockQueryTree("query-1", "SELECT * FROM users"),
+                createMockQueryTree("query-2", "SELECT * FROM orders")));
+        String eTag = mockMvc.perform(get("/api/queries"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        // When & Then
+        mockMvc.perform(get("/api/queries").header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        verify(queryEventService, times(1)).getAllQueryTrees();
+
+        when(queryEventService.getQueryVersions()).thenReturn(Map.of("query-1", 3L, "query-2", 6L));
+        mockMvc.perform(get("/api/queries").header("If-None-Match", eTag))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", not(eTag)));
+    }
+
     @Test
     @DisplayName("GET /api/queries - Should return empty list when no queries exist")
     void testGetAllQueriesEmpty() throws Exception {
@@ -73,6 +108,47 @@ class QueryControllerTest {
                 .andExpect(jsonPath("$", hasSize(0)));
     }
 
+    @Test
+    @DisplayName("GET /api/queries/page - Should return a page of summaries")
+    void testGetQueryPage() throws Exception {
+        // Given
+        QueryPage page = QueryPage.builder()
+                .items(List.of(QuerySummary.builder().queryId("query-2").state("FINISHED").version(3).build()))
+                .nextCursor("next")
+                .limit(1)
+                .build();
+        when(queryEventService.getQueryPage(any(), eq("abc"), eq(1), eq(false))).thenReturn(page);
+
+        // When & Then
+        mockMvc.perform(get("/api/queries/page")
+                        .param("cursor", "abc")
+                        .param("limit", "1")
+                        .param("order", "asc")
+                        .param("state", "FINISHED,FAILED")
+                        .param("from", "2024-01-01T00:00:00Z"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items", hasSize(1)))
+                .andExpect(jsonPath("$.items[0].queryId", is("query-2")))
+                .andExpect(jsonPath("$.items[0].events").doesNotExist())
+                .andExpect(jsonPath("$.nextCursor", is("next")));
+
+        verify(queryEventService).getQueryPage(argThat((QueryFilter filter) ->
+                filter.getStates().size() == 2 && Instant.parse("2024-01-01T00:00:00Z").equals(filter.getFrom())),
+                eq("abc"), eq(1), eq(false));
+    }
+
+    @Test
+    @DisplayName("GET /api/queries/page - Should reject malformed cursors")
+    void testGetQueryPageInvalidCursor() throws Exception {
+        // Given
+        when(queryEventService.getQueryPage(any(), eq("bad"), anyInt(), anyBoolean()))
+                .thenThrow(new IllegalArgumentException("Invalid cursor: bad"));
+
+        // When & Then
+        mockMvc.perform(get("/api/queries/page").param("cursor", "bad"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @DisplayName("GET /api/queries/{queryId} - Should return specific query")
     void testGetQueryById() throws Exception {
@@ -92,6 +168,95 @@ class QueryControllerTest {
         verify(queryEventService).getQueryTree(queryId);
     }
 
+    @Test
+    @DisplayName("GET /api/queries/{queryId} - Should return 304 while the version is unchanged")
+    void testGetQueryByIdNotModified() throws Exception {
+        // Given
+        String queryId = "query-versioned";
+        QueryTree version3 = createMockQueryTree(queryId, "SELECT * FROM customers").toBuilder().version(3).build();
+        QueryTree version4 = version3.toBuilder().state("RUNNING").version(4).build();
+        when(queryEventService.getQueryTree(queryId)).thenReturn(version3, version3, version4);
+
+        // When & Then
+        mockMvc.perform(get("/api/queries/{queryId}", queryId))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"3\""))
+                .andExpect(jsonPath("$.version").doesNotExist());
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).header("If-None-Match", "\"3\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).header("If-None-Match", "\"3\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"4\""))
+                .andExpect(jsonPath("$.state", is("RUNNING")));
+    }
+
+    @Test
+    @DisplayName("GET /api/queries/{queryId}?view= - Should return only the fields of the view")
+    void testGetQueryByIdView() throws Exception {
+        // Given
+        String queryId = "query-view";
+        QueryTree tree = createMockQueryTree(queryId, "SELECT * FROM customers").toBuilder().version(5).build();
+        when(queryEventService.getQueryTree(queryId)).thenReturn(tree);
+        when(queryEventService.getQueryTree(queryId, false)).thenReturn(tree);
+
+        // When & Then
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).param("view", "tree"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"5-tree\""))
+                .andExpect(jsonPath("$.queryId", is(queryId)))
+                .andExpect(jsonPath("$.root.operatorType", is("Output")))
+                .andExpect(jsonPath("$.events").doesNotExist())
+                .andExpect(jsonPath("$.fragments").doesNotExist());
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).param("view", "tree").header("If-None-Match", "\"5-tree\""))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).param("view", "summary"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state", is("FINISHED")))
+                .andExpect(jsonPath("$.root").doesNotExist())
+                .andExpect(jsonPath("$.events").doesNotExist());
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).param("view", "everything"))
+                .andExpect(status().isBadRequest());
+
+        verify(queryEventService, times(2)).getQueryTree(queryId);
+        verify(queryEventService).getQueryTree(queryId, false);
+    }
+
+    @Test
+    @DisplayName("GET /api/queries/{queryId} - Should include plan text only for a single query")
+    void testPlanTextOnlyForSingleQuery() throws Exception {
+        // Given
+        String queryId = "query-plan";
+        QueryEvent event = QueryEvent.builder()
+                .queryId(queryId)
+                .state("FINISHED")
+                .plan("Fragment 0 [SINGLE]")
+                .jsonPlan("{\"0\": {}}")
+                .build();
+        event.compactPlans();
+        QueryTree tree = createMockQueryTree(queryId, "SELECT 1").toBuilder()
+                .events(new ArrayList<>(List.of(event)))
+                .version(2)
+                .build();
+        when(queryEventService.getAllQueryTrees()).thenReturn(List.of(tree));
+        when(queryEventService.getQueryTree(queryId)).thenReturn(tree);
+        when(queryEventService.getQueryTree(queryId, false)).thenReturn(tree);
+
+        // When & Then
+        mockMvc.perform(get("/api/queries"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].events[0].state", is("FINISHED")))
+                .andExpect(jsonPath("$[0].events[0].plan").doesNotExist())
+                .andExpect(jsonPath("$[0].events[0].jsonPlan").doesNotExist());
+        mockMvc.perform(get("/api/queries/{queryId}", queryId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[0].plan", is("Fragment 0 [SINGLE]")))
+                .andExpect(jsonPath("$.events[0].jsonPlan", is("{\"0\": {}}")));
+        mockMvc.perform(get("/api/queries/{queryId}", queryId).param("view", "events"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.events[0].plan", is("Fragment 0 [SINGLE]")));
+    }
+
     @Test
     @DisplayName("GET /api/queries/{queryId} - Should return 404 for non-existent query")
     void testGetQueryByIdNotFound() throws Exception {
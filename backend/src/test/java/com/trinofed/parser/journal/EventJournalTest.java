@@ -0,0 +1,132 @@
+package com.trinofed.parser.journal;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for EventJournal
+ * Tests appending, recovery after restart, replay and segment cleanup
+ */
+class EventJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Should replay appended records after reopening the journal")
+    void testAppendAndReopen() throws IOException {
+        // Given
+        try (EventJournal journal = EventJournal.open(directory, 4096, 0)) {
+            journal.append("events", 0, 10, bytes("first"));
+            journal.append("events", 1, 5, bytes("second"));
+            journal.append("events", 0, 11, bytes("third"));
+        }
+
+        // When
+        try (EventJournal reopened = EventJournal.open(directory, 4096, 0)) {
+            List<String> replayed = replay(reopened, 1);
+
+            // Then
+            assertThat(reopened.getLastSequence()).isEqualTo(3);
+            assertThat(replayed).containsExactly("2:events-1@5:second", "3:events-0@11:third");
+            assertThat(reopened.getNextOffsets())
+                    .containsEntry(new TopicPartition("events", 0), 12L)
+                    .containsEntry(new TopicPartition("events", 1), 6L);
+            assertThat(reopened.append("events", 0, 12, bytes("fourth"))).isEqualTo(4);
+        }
+    }
+
+    @Test
+    @DisplayName("Should roll segments and delete the ones covered by a snapshot")
+    void testSegmentRollingAndDeletion() throws IOException {
+        // Given
+        try (EventJournal journal = EventJournal.open(directory, 128, 0)) {
+            for (int i = 0; i < 6; i++) {
+                journal.append("events", 0, i, bytes("event-" + i + "-padding-padding-padding"));
+            }
+            int segments = journal.getSegmentCount();
+
+            // When
+            int deleted = journal.deleteThrough(4);
+
+            // Then
+            assertThat(segments).isGreaterThan(2);
+            assertThat(deleted).isPositive();
+            assertThat(journal.getFirstSequence()).isLessThanOrEqualTo(5);
+            assertThat(replay(journal, 4)).hasSize(2);
+            assertThat(segmentFiles()).hasSize(segments - deleted);
+        }
+    }
+
+    @Test
+    @DisplayName("Should cut off a torn record at the end of the last segment")
+    void testTornWriteRecovery() throws IOException {
+        // Given
+        try (EventJournal journal = EventJournal.open(directory, 4096, 0)) {
+            journal.append("events", 0, 0, bytes("complete"));
+            journal.append("events", 0, 1, bytes("torn"));
+        }
+        Path segment = segmentFiles().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // Corrupt the last byte of the second record's event
+            int firstRecord = 8 + 22 + "events".length() + "complete".length();
+            int secondRecordEnd = firstRecord + 8 + 22 + "events".length() + "torn".length();
+            file.seek(secondRecordEnd - 1);
+            file.write('X');
+        }
+
+        // When
+        try (EventJournal reopened = EventJournal.open(directory, 4096, 0)) {
+            // Then
+            assertThat(replay(reopened, 0)).containsExactly("1:events-0@0:complete");
+            assertThat(reopened.append("events", 0, 1, bytes("retried"))).isEqualTo(2);
+            assertThat(replay(reopened, 0)).containsExactly("1:events-0@0:complete", "2:events-0@1:retried");
+        }
+    }
+
+    @Test
+    @DisplayName("Should continue numbering after the sequence covered by a snapshot")
+    void testMinimumSequence() throws IOException {
+        // When
+        try (EventJournal journal = EventJournal.open(directory, 4096, 41)) {
+            // Then
+            assertThat(journal.append("events", 0, 0, bytes("event"))).isEqualTo(42);
+            assertThat(journal.getFirstSequence()).isEqualTo(42);
+        }
+    }
+
+    // Helper methods
+
+    private List<String> replay(EventJournal journal, long afterSequence) {
+        List<String> records = new ArrayList<>();
+        journal.replay(afterSequence, (sequence, topic, partition, offset, event) -> {
+            byte[] data = new byte[event.remaining()];
+            event.get(data);
+            records.add(sequence + ":" + topic + "-" + partition + "@" + offset + ":" + new String(data, StandardCharsets.UTF_8));
+        });
+        return records;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("segment-")).sorted().toList();
+        }
+    }
+
+    private byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
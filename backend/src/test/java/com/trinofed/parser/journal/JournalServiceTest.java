@@ -0,0 +1,184 @@
+package com.trinofed.parser.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.service.DatabaseService;
+import com.trinofed.parser.service.QueryEventService;
+import com.trinofed.parser.service.QueryPlanParser;
+import com.trinofed.parser.service.TextPlanParser;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for JournalService
+ * Tests snapshot and journal based recovery of the query store
+ */
+class JournalServiceTest {
+
+    private static final String TOPIC = "trino-query-events";
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<JournalService> services = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (JournalService service : services) {
+            service.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Should restore state from the snapshot plus the journal tail")
+    void testRestoreFromSnapshotAndTail() throws IOException {
+        // Given
+        DatabaseService firstDatabases = new DatabaseService();
+        QueryEventService firstStore = newQueryEventService(firstDatabases);
+        JournalService first = newJournalService(firstStore, firstDatabases);
+        ingest(first, firstStore, List.of(record(0, 0, createEvent("query-1", "RUNNING", "postgres"))));
+        first.snapshot();
+        ingest(first, firstStore, List.of(
+                record(0, 1, createEvent("query-1", "FINISHED", "postgres")),
+                record(1, 0, createEvent("query-2", "RUNNING", "mongodb"))));
+
+        // When
+        DatabaseService restoredDatabases = new DatabaseService();
+        QueryEventService restoredStore = newQueryEventService(restoredDatabases);
+        JournalService restored = newJournalService(restoredStore, restoredDatabases);
+
+        // Then
+        assertThat(restoredStore.getAllQueryIds()).containsExactlyInAnyOrder("query-1", "query-2");
+        assertThat(restoredStore.getQueryTree("query-1").getState()).isEqualTo("FINISHED");
+        assertThat(restoredStore.getQueryTree("query-1").getEvents()).hasSize(2);
+        assertThat(restoredStore.getAllCatalogs()).containsExactlyInAnyOrder("postgres", "mongodb");
+        assertThat(restoredDatabases.getDatabaseQueryCounts())
+                .isEqualTo(firstDatabases.getDatabaseQueryCounts())
+                .containsEntry("postgres", 2)
+                .containsEntry("mongodb", 1);
+        assertThat(restored.nextOffset(new TopicPartition(TOPIC, 0))).isEqualTo(2L);
+        assertThat(restored.nextOffset(new TopicPartition(TOPIC, 1))).isEqualTo(1L);
+    }
+
+    @Test
+    @DisplayName("Should keep the plans of events in journal records and snapshots")
+    void testPlansSurviveRestore() throws IOException {
+        // Given
+        DatabaseService firstDatabases = new DatabaseService();
+        QueryEventService firstStore = newQueryEventService(firstDatabases);
+        JournalService first = newJournalService(firstStore, firstDatabases);
+        QueryEvent snapshotted = createEvent("query-1", "FINISHED", "postgres");
+        snapshotted.setPlan("Fragment 0 [SINGLE]");
+        QueryEvent journaled = createEvent("query-2", "FINISHED", "postgres");
+        journaled.setJsonPlan("{\"0\": {}}");
+        ingest(first, firstStore, List.of(record(0, 0, snapshotted)));
+        first.snapshot();
+        ingest(first, firstStore, List.of(record(0, 1, journaled)));
+
+        // When
+        DatabaseService restoredDatabases = new DatabaseService();
+        QueryEventService restoredStore = newQueryEventService(restoredDatabases);
+        newJournalService(restoredStore, restoredDatabases);
+
+        // Then
+        QueryEvent restoredSnapshotted = restoredStore.getQueryTree("query-1", false).getEvents().get(0);
+        assertThat(restoredSnapshotted.getCompressedPlan()).isNotNull();
+        assertThat(restoredSnapshotted.getPlan()).isEqualTo("Fragment 0 [SINGLE]");
+        assertThat(restoredStore.getQueryTree("query-2", false).getEvents().get(0).getJsonPlan())
+                .isEqualTo("{\"0\": {}}");
+    }
+
+    @Test
+    @DisplayName("Should not journal a batch again when it is retried after failing to apply")
+    void testRetriedBatchJournaledOnce() throws IOException {
+        // Given
+        DatabaseService firstDatabases = new DatabaseService();
+        QueryEventService firstStore = newQueryEventService(firstDatabases);
+        JournalService first = newJournalService(firstStore, firstDatabases);
+        List<ConsumerRecord<String, QueryEvent>> records = List.of(
+                record(0, 0, createEvent("query-1", "RUNNING", "postgres")),
+                record(0, 1, createEvent("query-1", "FINISHED", "postgres")));
+        assertThatThrownBy(() -> first.appendAndApply(records, () -> {
+            throw new IllegalStateException("apply failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        // When
+        ingest(first, firstStore, records);
+
+        // Then
+        assertThat(firstStore.getQueryTree("query-1", false).getEvents()).hasSize(2);
+        EventJournal journal = (EventJournal) ReflectionTestUtils.getField(first, "journal");
+        assertThat(journal.getLastSequence()).isEqualTo(2L);
+        assertThat(first.nextOffset(new TopicPartition(TOPIC, 0))).isEqualTo(2L);
+    }
+
+    @Test
+    @DisplayName("Should pass batches straight through when disabled")
+    void testDisabled() throws IOException {
+        // Given
+        DatabaseService databases = new DatabaseService();
+        JournalService journal = new JournalService(newQueryEventService(databases), databases, objectMapper,
+                false, directory.toString(), 4096);
+        Runnable apply = mock(Runnable.class);
+
+        // When
+        journal.restore();
+        journal.appendAndApply(List.of(record(0, 0, createEvent("query-1", "RUNNING", "postgres"))), apply);
+
+        // Then
+        verify(apply).run();
+        assertThat(journal.nextOffset(new TopicPartition(TOPIC, 0))).isNull();
+        assertThat(directory).isEmptyDirectory();
+    }
+
+    // Helper methods
+
+    private void ingest(JournalService journal, QueryEventService store,
+                        List<ConsumerRecord<String, QueryEvent>> records) throws IOException {
+        List<QueryEvent> events = records.stream().map(ConsumerRecord::value).toList();
+        journal.appendAndApply(records, () -> store.processEvents(events));
+    }
+
+    private JournalService newJournalService(QueryEventService store, DatabaseService databases) throws IOException {
+        JournalService journal = new JournalService(store, databases, objectMapper, true, directory.toString(), 4096);
+        journal.restore();
+        services.add(journal);
+        return journal;
+    }
+
+    private QueryEventService newQueryEventService(DatabaseService databases) {
+        return new QueryEventService(mock(SimpMessagingTemplate.class), databases,
+                mock(QueryPlanParser.class), mock(TextPlanParser.class));
+    }
+
+    private ConsumerRecord<String, QueryEvent> record(int partition, long offset, QueryEvent event) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, event.getQueryId(), event);
+    }
+
+    private QueryEvent createEvent(String queryId, String state, String catalog) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .query("SELECT * FROM users")
+                .user("test-user")
+                .state(state)
+                .catalog(catalog)
+                .timestamp(Instant.now())
+                .build();
+    }
+}
@@ -0,0 +1,171 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.Fragment;
+import com.trinofed.parser.model.QuerySummary;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryUpdate;
+import com.trinofed.parser.model.plan.Bottleneck;
+import com.trinofed.parser.model.plan.BottleneckReport;
+import com.trinofed.parser.model.plan.FragmentCost;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for BottleneckAnalyzer
+ * Tests the critical path, time shares and bottleneck ranking over plan fragments
+ */
+class BottleneckAnalyzerTest {
+
+    private QueryEventService queryEventService;
+    private PlanGraphService planGraphService;
+    private BottleneckAnalyzer analyzer;
+
+    @BeforeEach
+    void setUp() {
+        queryEventService = mock(QueryEventService.class);
+        planGraphService = new PlanGraphService(queryEventService, new QueryPlanParser(new ObjectMapper()));
+        analyzer = new BottleneckAnalyzer(queryEventService, planGraphService, mock(QueryUpdatePublisher.class), 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        analyzer.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should find the critical path and rank fragments from the text plan")
+    void testAnalyzeTextPlan() {
+        // Given
+        when(queryEventService.getQueryTree("query-1")).thenReturn(createTree(3));
+
+        // When
+        BottleneckReport report = analyzer.getReport("query-1");
+
+        // Then
+        assertThat(report.getRootFragmentId()).isEqualTo("0");
+        assertThat(report.getCriticalPath()).containsExactly("3", "2", "0");
+        assertThat(report.getCriticalPathTimeMs()).isEqualTo(5600.0);
+        assertThat(report.getTotalScheduledTimeMs()).isEqualTo(10600.0);
+        assertThat(report.getTotalCpuTimeMs()).isEqualTo(4350.0);
+
+        FragmentCost fragment2 = report.getFragments().stream()
+                .filter(cost -> cost.getFragmentId().equals("2"))
+                .findFirst()
+                .orElseThrow();
+        assertThat(fragment2.isOnCriticalPath()).isTrue();
+        assertThat(fragment2.getBlockedRatio()).isEqualTo(0.75);
+
+        assertThat(report.getBottlenecks()).extracting(Bottleneck::getFragmentId).containsExactly("1", "3", "2", "0");
+        assertThat(report.getBottlenecks().get(0).getRank()).isEqualTo(1);
+        assertThat(report.getBottlenecks().get(0).getReasons()).contains("92% of CPU time", "highest peak memory");
+        assertThat(report.getBottlenecks().get(1).getReasons()).contains("on the critical path");
+        assertThat(report.getBottlenecks().get(2).getReasons()).contains("blocked 75% of the time");
+    }
+
+    @Test
+    @DisplayName("Should reuse reports until the query changes or is removed")
+    void testReportsCachedPerVersion() {
+        // Given
+        when(queryEventService.getQueryTree("query-1")).thenReturn(createTree(3), createTree(3), createTree(4));
+
+        // When
+        BottleneckReport first = analyzer.getReport("query-1");
+        BottleneckReport second = analyzer.getReport("query-1");
+        BottleneckReport changed = analyzer.getReport("query-1");
+
+        // Then
+        assertThat(second).isSameAs(first);
+        assertThat(changed).isNotSameAs(first);
+        assertThat(changed.getVersion()).isEqualTo(4);
+        assertThat(analyzer.getReport("unknown")).isNull();
+    }
+
+    @Test
+    @DisplayName("Should analyze queries in the background once they finish")
+    void testAnalyzeOnFinish() {
+        // Given
+        when(queryEventService.getQueryTree("query-1")).thenReturn(createTree(3));
+        QueryUpdate running = summaryUpdate("RUNNING");
+        QueryUpdate finished = summaryUpdate("FINISHED");
+
+        // When
+        analyzer.onUpdate(running);
+        analyzer.onUpdate(finished);
+
+        // Then
+        verify(queryEventService, timeout(2000)).getQueryTree("query-1");
+        BottleneckReport report = analyzer.getReport("query-1");
+        verify(queryEventService, times(2)).getQueryTree("query-1");
+        assertThat(report.getCriticalPath()).isNotEmpty();
+    }
+
+    @Test
+    @DisplayName("Should analyze finished queries published as snapshots after catch-up")
+    void testAnalyzeAfterCatchUp() {
+        // Given
+        QueryUpdatePublisher publisher = new QueryUpdatePublisher(mock(SimpMessagingTemplate.class),
+                new SubscriptionRegistry());
+        BottleneckAnalyzer listening = new BottleneckAnalyzer(queryEventService, planGraphService, publisher, 10);
+        listening.start();
+        QueryTree finished = createTree(3);
+        QueryTree running = createTree(2).toBuilder().queryId("query-2").state("RUNNING").build();
+        when(queryEventService.getQueryTree("query-1")).thenReturn(finished);
+
+        // When
+        try {
+            publisher.publishAll(List.of(
+                    new QueryUpdatePublisher.VersionedTree("query-1", 3, finished),
+                    new QueryUpdatePublisher.VersionedTree("query-2", 2, running)));
+
+            // Then
+            verify(queryEventService, timeout(2000)).getQueryTree("query-1");
+            verify(queryEventService, never()).getQueryTree("query-2");
+        } finally {
+            listening.shutdown();
+        }
+    }
+
+    // Helper methods
+
+    private QueryTree createTree(long version) {
+        return QueryTree.builder()
+                .queryId("query-1")
+                .state("FINISHED")
+                .version(version)
+                .fragments(List.of(
+                        createFragment(3, 4500.0, 100.0, 0.0, List.of("    TableScan[table = mongodb:shop.users]")),
+                        createFragment(2, 1000.0, 200.0, 3000.0, List.of("    └─ RemoteSource[sourceFragmentIds = [3]]")),
+                        createFragment(1, 5000.0, 4000.0, 100.0, List.of("    ScanFilter[table = postgres:public.orders]")),
+                        createFragment(0, 100.0, 50.0, 0.0, List.of("Output[columnNames = [id]]",
+                                "    └─ RemoteSource[sourceFragmentIds = [1, 2]]"))))
+                .build();
+    }
+
+    private Fragment createFragment(int fragmentId, double scheduledMs, double cpuMs, double blockedMs, List<String> operators) {
+        return Fragment.builder()
+                .fragmentId(fragmentId)
+                .scheduledTimeMs(scheduledMs)
+                .cpuTimeMs(cpuMs)
+                .blockedTimeMs(blockedMs)
+                .peakMemoryBytes(fragmentId == 1 ? 1024L * 1024L : 1024L)
+                .operators(operators)
+                .build();
+    }
+
+    private QueryUpdate summaryUpdate(String state) {
+        return QueryUpdate.builder()
+                .type(QueryUpdate.Type.SUMMARY)
+                .queryId("query-1")
+                .summary(QuerySummary.builder().queryId("query-1").state(state).build())
+                .build();
+    }
+}
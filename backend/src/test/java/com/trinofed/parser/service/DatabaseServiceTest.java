@@ -0,0 +1,90 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.trinofed.parser.model.Database;
+import com.trinofed.parser.model.QueryEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for DatabaseService
+ * Tests that reads are isolated from concurrent ingestion
+ */
+class DatabaseServiceTest {
+
+    private DatabaseService databaseService;
+
+    @BeforeEach
+    void setUp() {
+        databaseService = new DatabaseService();
+    }
+
+    @Test
+    @DisplayName("Should return copies that later events do not change")
+    void testReadsReturnCopies() {
+        // Given
+        databaseService.processEvent(createEvent("query-1", "postgres", "public", "orders"));
+        Database database = databaseService.getDatabaseById("postgres");
+
+        // When
+        databaseService.processEvent(createEvent("query-2", "postgres", "public", "customers"));
+
+        // Then
+        assertThat(database.getSchemas().get(0).getTables()).extracting(Database.Table::getName)
+                .containsExactly("orders");
+        assertThat(databaseService.getTables("postgres", "public")).extracting(Database.Table::getName)
+                .containsExactly("orders", "customers");
+    }
+
+    @Test
+    @DisplayName("Should serialize databases while ingestion adds schemas and tables")
+    void testConcurrentReadsAndWrites() throws Exception {
+        // Given
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; running.get(); i++) {
+                databaseService.processEvent(createEvent("query-" + i, "postgres", "schema_" + (i % 50), "table_" + (i % 500)));
+            }
+        });
+
+        // When
+        writer.start();
+        try {
+            for (int i = 0; i < 200 && failure.get() == null; i++) {
+                try {
+                    objectMapper.writeValueAsString(databaseService.getAllDatabases());
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+
+        // Then
+        assertThat(failure.get()).isNull();
+    }
+
+    // Helper methods
+
+    private QueryEvent createEvent(String queryId, String catalog, String schema, String table) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .catalog(catalog)
+                .schema(schema)
+                .tableName(table)
+                .timestamp(Instant.now())
+                .build();
+    }
+}
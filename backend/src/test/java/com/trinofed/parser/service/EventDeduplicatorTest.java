@@ -0,0 +1,182 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for EventDeduplicator
+ * Tests fingerprinting and the time-windowed filter for finished queries
+ */
+class EventDeduplicatorTest {
+
+    private MutableClock clock;
+    private EventDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(Instant.parse("2025-01-01T00:00:00Z"));
+        deduplicator = new EventDeduplicator(Duration.ofMinutes(10), 1_000, 0.001, clock);
+    }
+
+    @Test
+    @DisplayName("Should fingerprint events by query ID, timestamp and state")
+    void testFingerprint() {
+        // Given
+        Instant timestamp = Instant.parse("2025-01-01T00:00:00Z");
+        QueryEvent event = createEvent("query-1", "RUNNING", timestamp);
+
+        // Then
+        assertThat(EventDeduplicator.fingerprint(event))
+                .isEqualTo(EventDeduplicator.fingerprint(createEvent("query-1", "RUNNING", timestamp)))
+                .isNotEqualTo(EventDeduplicator.fingerprint(createEvent("query-2", "RUNNING", timestamp)))
+                .isNotEqualTo(EventDeduplicator.fingerprint(createEvent("query-1", "FINISHED", timestamp)))
+                .isNotEqualTo(EventDeduplicator.fingerprint(createEvent("query-1", "RUNNING", timestamp.plusMillis(1))));
+    }
+
+    @Test
+    @DisplayName("Should track running queries exactly and hand fingerprints over when they finish")
+    void testRetireRunningQuery() {
+        // Given
+        QueryState state = new QueryState("query-1");
+
+        // When & Then
+        assertThat(deduplicator.markSeen(state, 1L)).isTrue();
+        assertThat(deduplicator.markSeen(state, 1L)).isFalse();
+        assertThat(deduplicator.seenFinished(1L)).isFalse();
+
+        // When
+        deduplicator.retire(state);
+
+        // Then
+        assertThat(state.isRetired()).isTrue();
+        assertThat(deduplicator.seenFinished(1L)).isTrue();
+        assertThat(deduplicator.markSeen(state, 1L)).isFalse();
+        assertThat(deduplicator.markSeen(state, 2L)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should forget finished queries once the window has passed")
+    void testWindowExpiry() {
+        // Given
+        deduplicator.markSeen(null, 42L);
+
+        // When & Then - still remembered within the window
+        clock.advance(Duration.ofMinutes(6));
+        assertThat(deduplicator.seenFinished(42L)).isTrue();
+
+        // When & Then - dropped after the generation holding it has rotated out
+        clock.advance(Duration.ofMinutes(6));
+        assertThat(deduplicator.seenFinished(42L)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should rotate a generation early once it holds as many entries as it was sized for")
+    void testEarlyRotationAtCapacity() {
+        // Given
+        for (long fingerprint = 1; fingerprint <= 1_000; fingerprint++) {
+            deduplicator.markSeen(null, fingerprint);
+        }
+        double fullRate = deduplicator.getEstimatedFalsePositiveRate();
+
+        // When
+        deduplicator.markSeen(null, 1_001L);
+
+        // Then
+        assertThat(deduplicator.getEarlyRotations()).isEqualTo(1);
+        assertThat(fullRate).isBetween(0.0005, 0.002);
+        // The full generation is still consulted until it rotates out
+        assertThat(deduplicator.seenFinished(1L)).isTrue();
+        assertThat(deduplicator.seenFinished(1_001L)).isTrue();
+
+        // When - the next rotation drops the generation that filled up
+        clock.advance(Duration.ofMinutes(5));
+
+        // Then
+        assertThat(deduplicator.seenFinished(1L)).isFalse();
+        assertThat(deduplicator.seenFinished(1_001L)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should estimate the false positive rate from the entries of both generations")
+    void testEstimatedFalsePositiveRate() {
+        // Given
+        assertThat(deduplicator.getEstimatedFalsePositiveRate()).isZero();
+
+        // When
+        for (long fingerprint = 1; fingerprint <= 500; fingerprint++) {
+            deduplicator.markSeen(null, fingerprint);
+            deduplicator.markSeen(null, fingerprint);
+        }
+        double halfFull = deduplicator.getEstimatedFalsePositiveRate();
+
+        // Then - re-adding a fingerprint does not count as an entry
+        assertThat(halfFull).isGreaterThan(0).isLessThan(0.001);
+
+        // When - both generations expire
+        clock.advance(Duration.ofMinutes(10));
+
+        // Then
+        assertThat(deduplicator.getEstimatedFalsePositiveRate()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should only treat final or old events as plausibly late")
+    void testPlausiblyLate() {
+        // Given
+        Instant generationStart = clock.instant();
+        clock.advance(Duration.ofMinutes(1));
+
+        // Then
+        assertThat(deduplicator.isPlausiblyLate(createEvent("query-1", "RUNNING", clock.instant()))).isFalse();
+        assertThat(deduplicator.isPlausiblyLate(createEvent("query-1", "FINISHED", clock.instant()))).isTrue();
+        assertThat(deduplicator.isPlausiblyLate(createEvent("query-1", "FAILED", clock.instant()))).isTrue();
+        assertThat(deduplicator.isPlausiblyLate(createEvent("query-1", "RUNNING", generationStart.minusMillis(1)))).isTrue();
+    }
+
+    // Helper methods
+
+    private QueryEvent createEvent(String queryId, String state, Instant timestamp) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .state(state)
+                .timestamp(timestamp)
+                .build();
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.QueryEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for EventIngestionPipeline
+ * Tests lane sharding and per-query ordering
+ */
+class EventIngestionPipelineTest {
+
+    private QueryEventService queryEventService;
+    private EventIngestionPipeline pipeline;
+    private final Map<String, List<String>> appliedStates = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> lanesByQuery = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        queryEventService = mock(QueryEventService.class);
+        doAnswer(invocation -> {
+            List<QueryEvent> events = invocation.getArgument(0);
+            for (QueryEvent event : events) {
+                appliedStates.computeIfAbsent(event.getQueryId(), k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(event.getState());
+                lanesByQuery.computeIfAbsent(event.getQueryId(), k -> ConcurrentHashMap.newKeySet())
+                        .add(Thread.currentThread().getName());
+            }
+            return null;
+        }).when(queryEventService).processEvents(anyList());
+        pipeline = new EventIngestionPipeline(queryEventService, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should apply events of the same query in order on a single lane")
+    void testPerQueryOrdering() {
+        // Given
+        List<QueryEvent> batch1 = new ArrayList<>();
+        List<QueryEvent> batch2 = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch1.add(createEvent("query-" + i, "QUEUED"));
+            batch1.add(createEvent("query-" + i, "RUNNING"));
+            batch2.add(createEvent("query-" + i, "FINISHED"));
+        }
+
+        // When
+        pipeline.ingest(batch1);
+        pipeline.ingest(batch2);
+
+        // Then
+        assertThat(appliedStates).hasSize(50);
+        appliedStates.values().forEach(states ->
+                assertThat(states).containsExactly("QUEUED", "RUNNING", "FINISHED"));
+        lanesByQuery.values().forEach(lanes -> assertThat(lanes).hasSize(1));
+    }
+
+    @Test
+    @DisplayName("Should route a query to the same lane every time")
+    void testLaneForIsStable() {
+        assertThat(pipeline.getLaneCount()).isEqualTo(4);
+        assertThat(pipeline.laneFor("query-123")).isEqualTo(pipeline.laneFor("query-123"));
+        assertThat(pipeline.laneFor("query-123")).isBetween(0, 3);
+    }
+
+    @Test
+    @DisplayName("Should rethrow a lane failure once every lane has applied its share")
+    void testLaneFailureRethrown() {
+        // Given
+        doAnswer(invocation -> {
+            List<QueryEvent> events = invocation.getArgument(0);
+            if (events.stream().anyMatch(event -> "query-bad".equals(event.getQueryId()))) {
+                throw new IllegalArgumentException("bad event");
+            }
+            events.forEach(event -> appliedStates.computeIfAbsent(event.getQueryId(),
+                    k -> Collections.synchronizedList(new ArrayList<>())).add(event.getState()));
+            return null;
+        }).when(queryEventService).processEvents(anyList());
+        List<QueryEvent> batch = new ArrayList<>();
+        batch.add(createEvent("query-bad", "RUNNING"));
+        for (int i = 0; i < 20; i++) {
+            batch.add(createEvent("query-" + i, "RUNNING"));
+        }
+
+        // When & Then
+        assertThatThrownBy(() -> pipeline.ingest(batch))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("bad event");
+        int badLane = pipeline.laneFor("query-bad");
+        for (int i = 0; i < 20; i++) {
+            if (pipeline.laneFor("query-" + i) != badLane) {
+                assertThat(appliedStates).containsKey("query-" + i);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail the batch when interrupted while waiting for the lanes")
+    void testInterruptRethrown() {
+        // Given
+        Thread.currentThread().interrupt();
+
+        // When & Then
+        try {
+            assertThatThrownBy(() -> pipeline.ingest(List.of(createEvent("query-1", "RUNNING"))))
+                    .isInstanceOf(IllegalStateException.class);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+            assertThat(appliedStates).containsKey("query-1");
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    // Helper methods
+
+    private QueryEvent createEvent(String queryId, String state) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .state(state)
+                .timestamp(Instant.now())
+                .build();
+    }
+}
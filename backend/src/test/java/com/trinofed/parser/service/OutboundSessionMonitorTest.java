@@ -0,0 +1,191 @@
+package com.trinofed.parser.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for OutboundSessionMonitor
+ * Tests backlog tracking and dropping of updates for lagging sessions
+ */
+class OutboundSessionMonitorTest {
+
+    private OutboundSessionMonitor monitor;
+    private WebSocketHandler stompHandler;
+    private MessageChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        monitor = new OutboundSessionMonitor(60_000, 4);
+        stompHandler = mock(WebSocketHandler.class);
+        channel = mock(MessageChannel.class);
+    }
+
+    @Test
+    @DisplayName("Should drop droppable updates while a session's backlog is over the limit")
+    void testDropsUpdatesForLaggingSession() throws Exception {
+        // Given
+        connect("session-1");
+        for (int i = 0; i < 5; i++) {
+            assertThat(monitor.preSend(update("session-1", true), channel)).isNotNull();
+        }
+
+        // When
+        Message<?> patch = monitor.preSend(update("session-1", true), channel);
+        Message<?> removal = monitor.preSend(update("session-1", false), channel);
+
+        // Then
+        assertThat(patch).isNull();
+        assertThat(removal).isNotNull();
+        Map<String, Object> stats = sessionStats("session-1");
+        assertThat(stats).containsEntry("lagging", true)
+                .containsEntry("pendingMessages", 6L)
+                .containsEntry("droppedMessages", 1L);
+        assertThat(monitor.getStats()).containsEntry("laggingSessions", 1).containsEntry("droppedMessages", 1L);
+    }
+
+    @Test
+    @DisplayName("Should deliver updates again once the backlog has drained to half the limit")
+    void testRecoversAfterDraining() throws Exception {
+        // Given
+        WebSocketSession session = connect("session-1");
+        for (int i = 0; i < 5; i++) {
+            monitor.preSend(update("session-1", true), channel);
+        }
+        assertThat(monitor.preSend(update("session-1", true), channel)).isNull();
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(new TextMessage("frame"));
+        }
+        Message<?> next = monitor.preSend(update("session-1", true), channel);
+
+        // Then
+        assertThat(next).isNotNull();
+        assertThat(sessionStats("session-1")).containsEntry("lagging", false)
+                .containsEntry("sentMessages", 3L)
+                .containsEntry("lagEpisodes", 1L);
+    }
+
+    @Test
+    @DisplayName("Should deliver the newest update held per query once the session has drained")
+    void testHeldUpdatesDeliveredAfterRecovery() throws Exception {
+        // Given
+        WebSocketSession session = connect("session-1");
+        for (int i = 0; i < 5; i++) {
+            monitor.preSend(update("session-1", true), channel);
+        }
+        Message<byte[]> running = update("session-1", "query-1");
+        Message<byte[]> finished = update("session-1", "query-1");
+        Message<byte[]> other = update("session-1", "query-2");
+
+        // When - lagging
+        assertThat(monitor.preSend(running, channel)).isNull();
+        assertThat(monitor.preSend(finished, channel)).isNull();
+        assertThat(monitor.preSend(other, channel)).isNull();
+
+        // Then
+        verify(channel, never()).send(any());
+        assertThat(sessionStats("session-1")).containsEntry("heldMessages", 2);
+
+        // When - the backlog drains without any further update for the session
+        for (int i = 0; i < 3; i++) {
+            session.sendMessage(new TextMessage("frame"));
+        }
+
+        // Then
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(channel, times(2)).send(sent.capture());
+        assertThat(sent.getAllValues()).containsExactly(finished, other);
+        assertThat(sessionStats("session-1")).containsEntry("lagging", false).containsEntry("heldMessages", 0);
+        assertThat(monitor.getStats()).containsEntry("flushedMessages", 2L);
+    }
+
+    @Test
+    @DisplayName("Should leave other sessions and unknown sessions untouched")
+    void testOtherSessionsUnaffected() throws Exception {
+        // Given
+        connect("session-1");
+        connect("session-2");
+        for (int i = 0; i < 6; i++) {
+            monitor.preSend(update("session-1", true), channel);
+        }
+
+        // When & Then
+        assertThat(monitor.preSend(update("session-2", true), channel)).isNotNull();
+        assertThat(monitor.preSend(update("unknown", true), channel)).isNotNull();
+        assertThat(sessionStats("session-2")).containsEntry("lagging", false);
+    }
+
+    @Test
+    @DisplayName("Should forget closed sessions and count those closed for exceeding send limits")
+    void testCloseReleasesSession() throws Exception {
+        // Given
+        WebSocketHandler handler = monitor.decorate(stompHandler);
+        WebSocketSession session = mockSession("session-1");
+        handler.afterConnectionEstablished(session);
+
+        // When
+        handler.afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+
+        // Then
+        assertThat(monitor.getStats()).containsEntry("sessions", 0).containsEntry("terminatedSessions", 1L);
+        verify(stompHandler).afterConnectionClosed(session, CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    // Helper methods
+
+    /**
+     * Opens a session through the decorated handler and returns the session the STOMP handler
+     * writes to.
+     */
+    private WebSocketSession connect(String sessionId) throws Exception {
+        monitor.decorate(stompHandler).afterConnectionEstablished(mockSession(sessionId));
+        ArgumentCaptor<WebSocketSession> tracked = ArgumentCaptor.forClass(WebSocketSession.class);
+        verify(stompHandler, atLeastOnce()).afterConnectionEstablished(tracked.capture());
+        return tracked.getValue();
+    }
+
+    private WebSocketSession mockSession(String sessionId) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        return session;
+    }
+
+    private Message<byte[]> update(String sessionId, boolean droppable) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setHeader(OutboundSessionMonitor.DROPPABLE_HEADER, droppable);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private Message<byte[]> update(String sessionId, String queryId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setDestination("/topic/query-summaries");
+        headers.setHeader(OutboundSessionMonitor.DROPPABLE_HEADER, true);
+        headers.setHeader(OutboundSessionMonitor.QUERY_ID_HEADER, queryId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> sessionStats(String sessionId) {
+        Map<String, Object> perSession = (Map<String, Object>) monitor.getStats().get("perSession");
+        return (Map<String, Object>) perSession.get(sessionId);
+    }
+}
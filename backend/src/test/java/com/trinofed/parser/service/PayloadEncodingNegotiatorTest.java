@@ -0,0 +1,151 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionConnectEvent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for PayloadEncodingNegotiator
+ * Tests per-session CBOR negotiation and transcoding of outbound messages
+ */
+class PayloadEncodingNegotiatorTest {
+
+    private static final byte[] JSON = "{\"type\":\"PATCH\",\"queryId\":\"query-1\",\"version\":2,\"events\":[{\"state\":\"RUNNING\"}]}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private PayloadEncodingNegotiator negotiator;
+    private MessageChannel channel;
+
+    @BeforeEach
+    void setUp() {
+        negotiator = new PayloadEncodingNegotiator(new ObjectMapper());
+        channel = mock(MessageChannel.class);
+    }
+
+    @Test
+    @DisplayName("Should send CBOR to sessions that negotiated it, encoding each payload once")
+    void testTranscodesForCborSessions() throws Exception {
+        // Given
+        connect("session-1", "cbor", true);
+        connect("session-2", "cbor", true);
+
+        // When
+        Message<?> first = negotiator.preSend(message("session-1", JSON), channel);
+        Message<?> second = negotiator.preSend(message("session-2", JSON), channel);
+
+        // Then
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(first);
+        assertThat(headers.getContentType()).isEqualTo(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        assertThat(headers.getFirstNativeHeader(PayloadEncodingNegotiator.ENCODING_HEADER)).isEqualTo("cbor");
+        JsonNode decoded = new ObjectMapper(new CBORFactory()).readTree((byte[]) first.getPayload());
+        assertThat(decoded).isEqualTo(new ObjectMapper().readTree(JSON));
+        assertThat(((byte[]) first.getPayload()).length).isLessThan(JSON.length);
+        assertThat(second.getPayload()).isSameAs(first.getPayload());
+        assertThat(negotiator.getStats()).containsEntry("transcodedPayloads", 1L).containsEntry("reusedPayloads", 1L);
+    }
+
+    @Test
+    @DisplayName("Should reuse one transcoding for every CBOR subscriber of a message sent through the broker")
+    void testReusesTranscodingThroughBroker() {
+        // Given
+        ExecutorSubscribableChannel clientOutbound = new ExecutorSubscribableChannel();
+        clientOutbound.addInterceptor(negotiator);
+        List<Message<?>> delivered = new ArrayList<>();
+        clientOutbound.subscribe(delivered::add);
+        ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(new ExecutorSubscribableChannel(),
+                clientOutbound, brokerChannel, List.of("/topic"));
+        broker.start();
+        connect("session-1", "cbor", true);
+        connect("session-2", "cbor", true);
+        for (String sessionId : List.of("session-1", "session-2")) {
+            broker.handleMessage(brokerMessage(SimpMessageType.CONNECT, sessionId, null));
+            broker.handleMessage(brokerMessage(SimpMessageType.SUBSCRIBE, sessionId, QueryUpdatePublisher.DELTA_TOPIC));
+        }
+        // Drop the CONNECT_ACKs
+        delivered.clear();
+        SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+
+        // When
+        template.send(QueryUpdatePublisher.DELTA_TOPIC, message(null, JSON));
+
+        // Then
+        assertThat(delivered).hasSize(2).allSatisfy(message -> assertThat(StompHeaderAccessor.wrap(message)
+                .getFirstNativeHeader(PayloadEncodingNegotiator.ENCODING_HEADER)).isEqualTo("cbor"));
+        assertThat(delivered.get(1).getPayload()).isSameAs(delivered.get(0).getPayload());
+        assertThat(negotiator.getStats()).containsEntry("transcodedPayloads", 1L).containsEntry("reusedPayloads", 1L);
+        broker.stop();
+    }
+
+    @Test
+    @DisplayName("Should keep JSON for sessions that did not ask for CBOR or cannot receive binary frames")
+    void testKeepsJsonOtherwise() {
+        // Given
+        connect("json-session", null, true);
+        connect("sockjs-session", "cbor", false);
+        Message<byte[]> forJson = message("json-session", JSON);
+        Message<byte[]> forSockJs = message("sockjs-session", JSON);
+
+        // When & Then
+        assertThat(negotiator.preSend(forJson, channel)).isSameAs(forJson);
+        assertThat(negotiator.preSend(forSockJs, channel)).isSameAs(forSockJs);
+        assertThat(negotiator.getStats()).containsEntry("cborSessions", 0);
+    }
+
+    // Helper methods
+
+    private void connect(String sessionId, String encoding, boolean binaryFrames) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.CONNECT);
+        headers.setSessionId(sessionId);
+        if (encoding != null) {
+            headers.setNativeHeader(PayloadEncodingNegotiator.ENCODING_HEADER, encoding);
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        if (binaryFrames) {
+            attributes.put(PayloadEncodingNegotiator.BINARY_FRAMES_ATTRIBUTE, Boolean.TRUE);
+        }
+        headers.setSessionAttributes(attributes);
+        negotiator.onConnect(new SessionConnectEvent(this, MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders())));
+    }
+
+    private Message<byte[]> brokerMessage(SimpMessageType type, String sessionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        if (destination != null) {
+            headers.setSubscriptionId("sub-0");
+            headers.setDestination(destination);
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    private Message<byte[]> message(String sessionId, byte[] payload) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        return MessageBuilder.createMessage(payload, headers.getMessageHeaders());
+    }
+}
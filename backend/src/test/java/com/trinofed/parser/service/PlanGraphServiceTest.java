@@ -0,0 +1,126 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trinofed.parser.model.Fragment;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.plan.PlanExchange;
+import com.trinofed.parser.model.plan.PlanGraph;
+import com.trinofed.parser.model.plan.PlanGraphFragment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for PlanGraphService
+ * Tests stitching plan fragments into a graph through their remote sources
+ */
+class PlanGraphServiceTest {
+
+    private QueryEventService queryEventService;
+    private PlanGraphService service;
+
+    @BeforeEach
+    void setUp() {
+        queryEventService = mock(QueryEventService.class);
+        service = new PlanGraphService(queryEventService, new QueryPlanParser(new ObjectMapper()));
+    }
+
+    @Test
+    @DisplayName("Should stitch fragments through their remote sources into one graph")
+    void testStitchFragments() {
+        // Given
+        QueryTree tree = QueryTree.builder()
+                .queryId("query-1")
+                .events(List.of(QueryEvent.builder().queryId("query-1").jsonPlan(createJoinPlan()).build()))
+                .fragments(List.of(
+                        Fragment.builder().fragmentId(1).partitioningType("HASH").outputPartitioning("HASH [id]")
+                                .cpuTimeMs(1500.0).outputRows(1000L).outputBytesValue(64000L).taskCount(4).build(),
+                        Fragment.builder().fragmentId(2).partitioningType("SOURCE").outputRows(50L).build()))
+                .build();
+        when(queryEventService.getQueryTree("query-1")).thenReturn(tree);
+
+        // When
+        PlanGraph graph = service.getPlanGraph("query-1");
+
+        // Then
+        assertThat(graph.getRootFragmentId()).isEqualTo("0");
+        assertThat(graph.getFragments()).extracting(PlanGraphFragment::getFragmentId).containsExactly("0", "1", "2", "3");
+        assertThat(graph.getFragments()).extracting(PlanGraphFragment::getDepth).containsExactly(0, 1, 1, -1);
+
+        PlanGraphFragment probe = graph.getFragments().get(1);
+        assertThat(probe.getOperatorCount()).isEqualTo(2);
+        assertThat(probe.getCpuTimeMs()).isEqualTo(1500.0);
+        assertThat(probe.getTaskCount()).isEqualTo(4);
+        assertThat(graph.getFragments().get(0).getCpuTimeMs()).isNull();
+
+        assertThat(graph.getExchanges()).hasSize(2);
+        PlanExchange exchange = graph.getExchanges().get(0);
+        assertThat(exchange.getSourceFragmentId()).isEqualTo("1");
+        assertThat(exchange.getTargetFragmentId()).isEqualTo("0");
+        assertThat(exchange.getRemoteNodeId()).isEqualTo("10");
+        assertThat(exchange.getExchangeType()).isEqualTo("REPARTITION");
+        assertThat(exchange.getPartitioning()).isEqualTo("HASH [id]");
+        assertThat(exchange.getEstimatedRows()).isEqualTo(1000.0);
+        assertThat(exchange.getEstimatedBytes()).isNull();
+        assertThat(exchange.getRows()).isEqualTo(1000L);
+        assertThat(exchange.getBytes()).isEqualTo(64000L);
+        assertThat(graph.getExchanges().get(1).getOperatorType()).isEqualTo("RemoteMerge");
+    }
+
+    @Test
+    @DisplayName("Should return an empty graph without a JSON plan and null for unknown queries")
+    void testWithoutJsonPlan() {
+        // Given
+        when(queryEventService.getQueryTree("query-1")).thenReturn(QueryTree.builder().queryId("query-1").build());
+
+        // When
+        PlanGraph graph = service.getPlanGraph("query-1");
+
+        // Then
+        assertThat(graph.getFragments()).isEmpty();
+        assertThat(graph.getExchanges()).isEmpty();
+        assertThat(service.getPlanGraph("unknown")).isNull();
+    }
+
+    @Test
+    @DisplayName("Should parse fragment IDs as rendered by Trino")
+    void testParseFragmentIds() {
+        assertThat(PlanGraphService.parseFragmentIds("[1, 2]")).containsExactly("1", "2");
+        assertThat(PlanGraphService.parseFragmentIds("[]")).isEmpty();
+        assertThat(PlanGraphService.parseFragmentIds(null)).isEmpty();
+    }
+
+    // Helper methods
+
+    private String createJoinPlan() {
+        return """
+            {
+              "0": {
+                "id": "5", "name": "Output",
+                "children": [{
+                  "id": "4", "name": "InnerJoin",
+                  "children": [
+                    {"id": "10", "name": "RemoteSource",
+                     "descriptor": {"sourceFragmentIds": "[1]", "type": "REPARTITION"},
+                     "estimates": [{"outputRowCount": "1000", "outputSizeInBytes": "NaN"}],
+                     "children": []},
+                    {"id": "11", "name": "RemoteMerge", "descriptor": {"sourceFragmentIds": "[2, 9]"}, "children": []}
+                  ]
+                }]
+              },
+              "1": {
+                "id": "3", "name": "ScanFilter",
+                "children": [{"id": "2", "name": "TableScan", "descriptor": {"table": "postgres:public.orders"}, "children": []}]
+              },
+              "2": {"id": "1", "name": "TableScan", "descriptor": {"table": "mongodb:shop.users"}, "children": []},
+              "3": {"id": "0", "name": "Values", "children": []}
+            }
+            """;
+    }
+}
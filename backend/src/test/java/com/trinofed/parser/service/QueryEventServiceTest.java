@@ -1,23 +1,35 @@
 package com.trinofed.parser.service;
 
 import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryFilter;
+import com.trinofed.parser.model.QueryPage;
+import com.trinofed.parser.model.QuerySummary;
 import com.trinofed.parser.model.QueryTree;
 import com.trinofed.parser.model.QueryTreeNode;
+import com.trinofed.parser.model.QueryUpdate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -100,6 +112,123 @@ class QueryEventServiceTest {
         verify(messagingTemplate, times(3)).convertAndSend(eq("/topic/query-updates"), any(QueryTree.class));
     }
 
+    @Test
+    @DisplayName("Should broadcast once per affected query when processing a batch")
+    void testProcessEventsBatch() {
+        // Given
+        Instant now = Instant.now();
+        QueryEvent event1 = createSampleEvent("query-1", "QUEUED");
+        event1.setTimestamp(now);
+        QueryEvent event2 = createSampleEvent("query-2", "RUNNING");
+        QueryEvent event3 = createSampleEvent("query-1", "FINISHED");
+        event3.setTimestamp(now.plusMillis(10));
+
+        // When
+        service.processEvents(List.of(event1, event2, event3));
+
+        // Then
+        assertThat(service.getQueryTree("query-1").getEvents()).hasSize(2);
+        assertThat(service.getQueryTree("query-1").getState()).isEqualTo("FINISHED");
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/query-updates"), any(QueryTree.class));
+    }
+
+    @Test
+    @DisplayName("Should broadcast a single snapshot instead of per-query updates while catching up")
+    void testCatchUpSuppressesBroadcasts() {
+        // Given
+        service.beginCatchUp();
+
+        // When
+        service.processEvents(List.of(createSampleEvent("query-1", "RUNNING"), createSampleEvent("query-2", "RUNNING")));
+        service.processEvent(createSampleEvent("query-3", "FINISHED"));
+
+        // Then
+        assertThat(service.isCatchingUp()).isTrue();
+        assertThat(service.getAllQueryIds()).hasSize(3);
+        verify(messagingTemplate, never()).convertAndSend(eq("/topic/query-updates"), any(QueryTree.class));
+
+        // When
+        service.endCatchUp();
+
+        // Then
+        assertThat(service.isCatchingUp()).isFalse();
+        verify(messagingTemplate, times(1)).convertAndSend(eq("/topic/query-snapshot"),
+                argThat((Object trees) -> trees instanceof List<?> list && list.size() == 3));
+    }
+
+    @Test
+    @DisplayName("Should send a snapshot first and then patches with only what changed")
+    void testDeltaUpdates() {
+        // Given
+        Instant now = Instant.now();
+        QueryEvent created = createSampleEvent("query-1", "RUNNING");
+        created.setTimestamp(now);
+        QueryEvent completed = createSampleEvent("query-1", "FINISHED");
+        completed.setTimestamp(now.plusMillis(10));
+        ArgumentCaptor<QueryUpdate> updates = ArgumentCaptor.forClass(QueryUpdate.class);
+
+        // When
+        service.processEvent(created);
+        service.processEvent(completed);
+
+        // Then
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/query-deltas"), updates.capture());
+        QueryUpdate snapshot = updates.getAllValues().get(0);
+        QueryUpdate patch = updates.getAllValues().get(1);
+        assertThat(snapshot.getType()).isEqualTo(QueryUpdate.Type.SNAPSHOT);
+        assertThat(snapshot.getTree().getEvents()).hasSize(1);
+        assertThat(patch.getType()).isEqualTo(QueryUpdate.Type.PATCH);
+        assertThat(patch.getBaseVersion()).isEqualTo(snapshot.getVersion());
+        assertThat(patch.getVersion()).isGreaterThan(snapshot.getVersion());
+        assertThat(patch.getSequence()).isGreaterThan(snapshot.getSequence());
+        assertThat(patch.getState()).isEqualTo("FINISHED");
+        assertThat(patch.getEvents()).containsExactly(completed);
+        assertThat(patch.getTree()).isNull();
+        assertThat(patch.getErrorMessage()).isNull();
+        assertThat(service.getQuerySnapshot("query-1").getVersion()).isEqualTo(patch.getVersion());
+    }
+
+    @Test
+    @DisplayName("Should skip redelivered events for running and finished queries")
+    void testDuplicateEventsSkipped() {
+        // Given
+        Instant now = Instant.now();
+        QueryEvent running = createSampleEvent("query-1", "RUNNING");
+        running.setTimestamp(now);
+        QueryEvent finished = createSampleEvent("query-1", "FINISHED");
+        finished.setTimestamp(now.plusMillis(10));
+
+        // When
+        service.processEvents(List.of(running, running));
+        service.processEvents(List.of(finished));
+        service.processEvents(List.of(running, finished));
+
+        // Then
+        assertThat(service.getQueryTree("query-1").getEvents()).hasSize(2);
+        verify(databaseService, times(2)).processEvent(any());
+        verify(messagingTemplate, times(2)).convertAndSend(eq("/topic/query-updates"), any(QueryTree.class));
+    }
+
+    @Test
+    @DisplayName("Should only check late events of unknown queries against the finished-query filter")
+    void testFinishedFilterOnlyForLateEvents() {
+        // Given
+        EventDeduplicator deduplicator = spy(new EventDeduplicator());
+        service.setEventDeduplicator(deduplicator);
+        QueryEvent running = createSampleEvent("query-1", "RUNNING");
+        running.setTimestamp(Instant.now());
+        QueryEvent finished = createSampleEvent("query-2", "FINISHED");
+        finished.setTimestamp(Instant.now());
+
+        // When
+        service.processEvents(List.of(running, finished));
+
+        // Then
+        verify(deduplicator, never()).seenFinished(EventDeduplicator.fingerprint(running));
+        verify(deduplicator).seenFinished(EventDeduplicator.fingerprint(finished));
+        assertThat(service.getAllQueryIds()).containsExactlyInAnyOrder("query-1", "query-2");
+    }
+
     @Test
     @DisplayName("Should retrieve all query IDs")
     void testGetAllQueryIds() {
@@ -250,6 +379,108 @@ class QueryEventServiceTest {
         assertThat(tree.getRoot().getOperatorType()).isEqualTo("TableScan");
     }
 
+    @Test
+    @DisplayName("Should keep plans compressed and parse them only once when the tree is read")
+    void testPlanParsedOncePerVersion() {
+        // Given
+        String jsonPlan = "{\"0\": {\"id\": \"0\", \"name\": \"Output\"}}";
+        QueryEvent event = createSampleEvent("query-123", "FINISHED");
+        event.setJsonPlan(jsonPlan);
+        event.setPlan("Fragment 0 [SINGLE]");
+
+        // When
+        service.processEvent(event);
+        List<QueryTree> all = service.getAllQueryTrees();
+
+        // Then
+        verify(queryPlanParser, never()).parseJsonPlan(any());
+        verify(textPlanParser, never()).parseTextPlan(any());
+        assertThat(all).hasSize(1);
+        assertThat(all.get(0).getRoot()).isNull();
+        assertThat(service.getQueryTree("query-123", false).getRoot()).isNull();
+
+        // When
+        QueryTree first = service.getQueryTree("query-123");
+        QueryTree second = service.getQueryTree("query-123");
+
+        // Then
+        verify(queryPlanParser, times(1)).parseJsonPlan(jsonPlan);
+        verify(textPlanParser, times(1)).parseTextPlan("Fragment 0 [SINGLE]");
+        assertThat(second.getRoot()).isSameAs(first.getRoot());
+        assertThat(first.getRoot().getOperatorType()).isEqualTo("TableScan");
+        assertThat(second.getEvents().get(0).getJsonPlan()).isEqualTo(jsonPlan);
+        assertThat(service.getStoreStats()).containsEntry("parsedPlanHits", 1L).containsEntry("parsedPlanMisses", 1L);
+    }
+
+    @Test
+    @DisplayName("Should keep only the most recently read parsed plans")
+    void testParsedPlanCacheBound() {
+        // Given
+        ReflectionTestUtils.setField(service, "parsedPlanCacheSize", 1);
+        QueryEvent first = createSampleEvent("query-1", "FINISHED");
+        first.setJsonPlan("{\"0\": {\"id\": \"0\", \"name\": \"Output\"}}");
+        QueryEvent second = createSampleEvent("query-2", "FINISHED");
+        second.setJsonPlan("{\"0\": {\"id\": \"0\", \"name\": \"Output\"}}");
+        service.processEvent(first);
+        service.processEvent(second);
+
+        // When
+        service.getQueryTree("query-1");
+        service.getQueryTree("query-2");
+        service.getQueryTree("query-1");
+
+        // Then
+        verify(queryPlanParser, times(3)).parseJsonPlan(any());
+        assertThat(service.getStoreStats()).containsEntry("parsedPlans", 1);
+    }
+
+    @Test
+    @DisplayName("Should store the event when its text plan fails to parse")
+    void testTextPlanParseFailure() {
+        // Given
+        QueryEvent event = createSampleEvent("query-123", "FINISHED");
+        event.setJsonPlan(null);
+        event.setPlan("Fragment 0 [SINGLE]");
+        when(textPlanParser.parseTextPlan(any())).thenThrow(new NumberFormatException("bad number"));
+
+        // When
+        service.processEvent(event);
+        QueryTree tree = service.getQueryTree("query-123");
+
+        // Then
+        assertThat(tree.getEvents()).hasSize(1);
+        assertThat(tree.getFragments()).isEmpty();
+        assertThat(tree.getRoot()).isNotNull();
+    }
+
+    @Test
+    @DisplayName("Should keep serving the parsed plan as later events update the snapshot")
+    void testIncrementalSnapshotUpdate() {
+        // Given
+        Instant now = Instant.now();
+        String jsonPlan = "{\"0\": {\"id\": \"0\", \"name\": \"Output\"}}";
+        QueryEvent running = createSampleEvent("query-123", "RUNNING");
+        running.setTimestamp(now);
+        running.setJsonPlan(jsonPlan);
+        service.processEvent(running);
+        QueryTree before = service.getQueryTree("query-123");
+
+        // When
+        QueryEvent finished = createSampleEvent("query-123", "FINISHED");
+        finished.setTimestamp(now.plusMillis(50));
+        service.processEvent(finished);
+        QueryTree after = service.getQueryTree("query-123");
+
+        // Then
+        verify(queryPlanParser, times(1)).parseJsonPlan(jsonPlan);
+        assertThat(before.getState()).isEqualTo("RUNNING");
+        assertThat(after.getState()).isEqualTo("FINISHED");
+        assertThat(after.getEndTime()).isEqualTo(now.plusMillis(50));
+        assertThat(after.getEvents()).hasSize(2);
+        assertThat(after.getRoot()).isSameAs(before.getRoot());
+        assertThat(service.getAllQueryTrees()).containsExactly(service.getQueryTree("query-123", false));
+    }
+
     @Test
     @DisplayName("Should handle events without JSON plan gracefully")
     void testEventWithoutJsonPlan() {
@@ -266,6 +497,138 @@ class QueryEventServiceTest {
         assertThat(tree.getQueryId()).isEqualTo("query-123");
     }
 
+    @Test
+    @DisplayName("Should evict finished queries first when over the query limit")
+    void testRetentionEvictsFinishedQueriesFirst() {
+        // Given
+        ReflectionTestUtils.setField(service, "maxQueries", 2);
+        QueryEvent finished = createEventWithTable("query-1", "postgres", "public", "users");
+        QueryEvent running1 = createSampleEvent("query-2", "RUNNING");
+        QueryEvent running2 = createSampleEvent("query-3", "RUNNING");
+
+        // When
+        service.processEvent(finished);
+        service.processEvent(running1);
+        service.processEvent(running2);
+
+        // Then
+        assertThat(service.getAllQueryIds()).containsExactlyInAnyOrder("query-2", "query-3");
+        assertThat(service.getAllCatalogs()).isEmpty();
+        assertThat(service.getAllSchemas()).isEmpty();
+        assertThat(service.getAllTables()).isEmpty();
+        assertThat(service.getStoreStats())
+                .containsEntry("queries", 2)
+                .containsEntry("evictions", Map.of("age", 0L, "count", 1L, "memory", 0L));
+    }
+
+    @Test
+    @DisplayName("Should keep single-query reads warm for eviction but not listings")
+    void testRetentionIgnoresListings() {
+        // Given
+        Instant start = Instant.parse("2025-01-01T00:00:00Z");
+        ReflectionTestUtils.setField(service, "maxQueries", 2);
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start, ZoneOffset.UTC));
+        service.processEvent(createEventWithCatalog("query-1", "postgres"));
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start.plusSeconds(1), ZoneOffset.UTC));
+        service.processEvent(createEventWithCatalog("query-2", "postgres"));
+
+        // When
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start.plusSeconds(2), ZoneOffset.UTC));
+        service.getAllQueryTrees();
+        service.getQueriesByCatalog("postgres");
+        service.processEvent(createEventWithCatalog("query-3", "postgres"));
+
+        // Then
+        assertThat(service.getAllQueryIds()).containsExactlyInAnyOrder("query-2", "query-3");
+
+        // When
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start.plusSeconds(3), ZoneOffset.UTC));
+        service.getQueryTree("query-2", false);
+        service.processEvent(createEventWithCatalog("query-4", "postgres"));
+
+        // Then
+        assertThat(service.getAllQueryIds()).containsExactlyInAnyOrder("query-2", "query-4");
+    }
+
+    @Test
+    @DisplayName("Should evict queries that received no events within the max age")
+    void testRetentionByAge() {
+        // Given
+        Instant start = Instant.parse("2025-01-01T00:00:00Z");
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start, ZoneOffset.UTC));
+        service.processEvent(createEventWithCatalog("query-1", "postgres"));
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start.plus(Duration.ofHours(12)), ZoneOffset.UTC));
+        service.processEvent(createEventWithCatalog("query-2", "mongodb"));
+
+        // When
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(start.plus(Duration.ofHours(25)), ZoneOffset.UTC));
+        service.enforceRetention();
+
+        // Then
+        assertThat(service.getQueryTree("query-1")).isNull();
+        assertThat(service.getQueryTree("query-2")).isNotNull();
+        assertThat(service.getAllCatalogs()).containsExactly("mongodb");
+        assertThat((long) service.getStoreStats().get("estimatedBytes")).isPositive();
+    }
+
+    @Test
+    @DisplayName("Should page through query summaries by start time with a cursor")
+    void testQueryPagination() {
+        // Given
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        for (int i = 0; i < 5; i++) {
+            QueryEvent event = createSampleEvent("query-" + i, "FINISHED");
+            event.setTimestamp(start.plusSeconds(i));
+            service.processEvent(event);
+        }
+
+        // When
+        List<String> queryIds = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            QueryPage page = service.getQueryPage(new QueryFilter(), cursor, 2, true);
+            page.getItems().forEach(summary -> queryIds.add(summary.getQueryId()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        // Then
+        assertThat(pages).isEqualTo(3);
+        assertThat(queryIds).containsExactly("query-4", "query-3", "query-2", "query-1", "query-0");
+        assertThat(service.getQueryPage(new QueryFilter(), null, 10, false).getItems())
+                .extracting(QuerySummary::getQueryId)
+                .containsExactly("query-0", "query-1", "query-2", "query-3", "query-4");
+        assertThatThrownBy(() -> service.getQueryPage(new QueryFilter(), "not-a-cursor", 2, true))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Should filter query pages by state, user, catalog and time range")
+    void testQueryPageFilters() {
+        // Given
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        QueryEvent running = createEventWithCatalog("query-1", "postgres");
+        running.setState("RUNNING");
+        running.setTimestamp(start);
+        QueryEvent finished = createEventWithCatalog("query-2", "postgres");
+        finished.setTimestamp(start.plusSeconds(60));
+        QueryEvent other = createEventWithCatalog("query-3", "mongodb");
+        other.setUser("other-user");
+        other.setTimestamp(start.plusSeconds(120));
+        service.processEvents(List.of(running, finished, other));
+
+        // When & Then
+        assertThat(pageIds(QueryFilter.builder().states(Set.of("running")).build())).containsExactly("query-1");
+        assertThat(pageIds(QueryFilter.builder().user("other-user").build())).containsExactly("query-3");
+        assertThat(pageIds(QueryFilter.builder().catalog("postgres").build())).containsExactly("query-2", "query-1");
+        assertThat(pageIds(QueryFilter.builder().from(start.plusSeconds(60)).to(start.plusSeconds(120)).build()))
+                .containsExactly("query-2");
+        QueryPage page = service.getQueryPage(QueryFilter.builder().catalog("postgres").build(), null, 1, true);
+        assertThat(page.getItems().get(0).getCatalogs()).containsExactly("postgres");
+        assertThat(page.getNextCursor()).isNotNull();
+    }
+
     @Test
     @DisplayName("Should return empty list for non-existent catalog")
     void testGetQueriesByNonExistentCatalog() {
@@ -278,6 +641,12 @@ class QueryEventServiceTest {
 
     // Helper methods
 
+    private List<String> pageIds(QueryFilter filter) {
+        return service.getQueryPage(filter, null, 10, true).getItems().stream()
+                .map(QuerySummary::getQueryId)
+                .toList();
+    }
+
     private QueryEvent createSampleEvent(String queryId, String state) {
         return QueryEvent.builder()
                 .queryId(queryId)
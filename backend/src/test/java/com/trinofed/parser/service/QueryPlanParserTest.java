@@ -406,4 +406,63 @@ class QueryPlanParserTest {
         assertThat(root).isNotNull();
         assertThat(root.getOperatorType()).isEqualTo("Output");
     }
+
+    @Test
+    @DisplayName("Should build the same node shape regardless of field and fragment order")
+    void testFieldAndFragmentOrder() {
+        // Given: fragment "0" last, "name" after "descriptor" and "children", unknown fields
+        String jsonPlan = """
+            {
+              "1": {"id": "9", "name": "RemoteSource", "children": []},
+              "0": {
+                "children": [
+                  {
+                    "descriptor": {"table": "postgres:public.orders", "columns": ["id"]},
+                    "id": "3",
+                    "annotations": {"nested": [1, 2, {"deep": true}]},
+                    "name": "TableScan"
+                  }
+                ],
+                "estimates": [
+                  {"outputRowCount": 10, "outputSizeInBytes": "NaN", "cpuCost": 1.5, "memoryCost": "NaN"},
+                  {"outputRowCount": 99}
+                ],
+                "outputs": [{"type": "bigint", "name": "id", "symbol": "id_0"}],
+                "details": ["Layout: [id:bigint]"],
+                "name": "Output",
+                "id": "0"
+              }
+            }
+            """;
+
+        // When
+        QueryTreeNode root = parser.parseJsonPlan(jsonPlan);
+
+        // Then
+        assertThat(root).isNotNull();
+        assertThat(root.getId()).isEqualTo("0");
+        assertThat(root.getOperatorType()).isEqualTo("Output");
+        assertThat(root.getMetadata())
+                .containsEntry("fragmentId", "0")
+                .containsEntry("outputs", List.of(Map.of("name", "id", "type", "bigint")))
+                .containsEntry("details", List.of("Layout: [id:bigint]"))
+                .doesNotContainKey("descriptor");
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> estimates = (Map<String, Object>) root.getMetadata().get("estimates");
+        assertThat(estimates)
+                .containsEntry("outputRowCount", "10")
+                .containsEntry("outputSizeInBytes", "NaN")
+                .containsEntry("cpuCost", 1.5)
+                .containsEntry("memoryCost", "NaN")
+                .containsEntry("networkCost", null);
+
+        QueryTreeNode scan = root.getChildren().get(0);
+        assertThat(scan.getOperatorType()).isEqualTo("TableScan");
+        assertThat(scan.getChildren()).isEmpty();
+        assertThat(scan.getMetadata())
+                .containsEntry("table", "postgres:public.orders")
+                .containsEntry("descriptor", Map.of("table", "postgres:public.orders", "columns", List.of("id")));
+        assertThat(parser.extractOperatorList(jsonPlan)).containsExactly("RemoteSource", "Output", "TableScan");
+    }
 }
@@ -0,0 +1,269 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.trinofed.parser.model.QueryEvent;
+import com.trinofed.parser.model.QueryTree;
+import com.trinofed.parser.model.QueryUpdate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeTypeUtils;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for QueryUpdatePublisher
+ * Tests routing of updates to subscribed destinations only
+ */
+class QueryUpdatePublisherTest {
+
+    private SimpMessagingTemplate messagingTemplate;
+    private SubscriptionRegistry subscriptions;
+    private QueryUpdatePublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        messagingTemplate = mock(SimpMessagingTemplate.class);
+        subscriptions = new SubscriptionRegistry();
+        publisher = new QueryUpdatePublisher(messagingTemplate, subscriptions);
+    }
+
+    @Test
+    @DisplayName("Should not send anything when no session is subscribed")
+    void testNoSubscribers() {
+        // When
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+
+        // Then
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+        assertThat(publisher.getStats()).containsEntry("unsubscribedUpdates", 1L);
+    }
+
+    @Test
+    @DisplayName("Should route updates to per-query, per-catalog and per-user topics with subscribers")
+    void testFineGrainedTopics() {
+        // Given
+        subscriptions.subscribe("session-1", "sub-0", "/topic/queries/query-1");
+        subscriptions.subscribe("session-2", "sub-0", "/topic/catalogs/postgres");
+        subscriptions.subscribe("session-2", "sub-1", "/topic/users/bob");
+
+        // When
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+        publisher.publish("query-2", 1, createTree("query-2", "RUNNING", "mongodb", "carol"));
+
+        // Then
+        verify(messagingTemplate).convertAndSend(eq("/topic/queries/query-1"), any(QueryUpdate.class));
+        verify(messagingTemplate).convertAndSend(eq("/topic/catalogs/postgres"), any(QueryUpdate.class));
+        verify(messagingTemplate, times(2)).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    @DisplayName("Should send summaries only when summary fields change")
+    void testSummaryFeed() {
+        // Given
+        subscriptions.subscribe("session-1", "sub-0", QueryUpdatePublisher.SUMMARY_TOPIC);
+        QueryTree running = createTree("query-1", "RUNNING", "postgres", "alice");
+        QueryTree moreEvents = running.toBuilder()
+                .events(List.of(running.getEvents().get(0), createEvent("query-1", "RUNNING", "postgres", "alice")))
+                .build();
+        QueryTree finished = moreEvents.toBuilder().state("FINISHED").build();
+        ArgumentCaptor<QueryUpdate> updates = ArgumentCaptor.forClass(QueryUpdate.class);
+
+        // When
+        publisher.publish("query-1", 1, running);
+        publisher.publish("query-1", 2, moreEvents);
+        publisher.publish("query-1", 3, finished);
+
+        // Then
+        verify(messagingTemplate, times(2)).convertAndSend(eq(QueryUpdatePublisher.SUMMARY_TOPIC), updates.capture());
+        assertThat(updates.getAllValues()).extracting(update -> update.getSummary().getState())
+                .containsExactly("RUNNING", "FINISHED");
+        assertThat(updates.getAllValues().get(1).getSummary().getCatalogs()).containsExactly("postgres");
+        assertThat(updates.getAllValues().get(1).getSummary().getEventCount()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should stop sending once the last subscriber disconnects")
+    void testDisconnectReleasesSubscriptions() {
+        // Given
+        subscriptions.subscribe("session-1", "sub-0", QueryUpdatePublisher.DELTA_TOPIC);
+        subscriptions.subscribe("session-2", "sub-0", QueryUpdatePublisher.DELTA_TOPIC);
+
+        // When
+        subscriptions.unsubscribe("session-1", "sub-0");
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+        subscriptions.disconnect("session-2");
+        publisher.publish("query-1", 2, createTree("query-1", "FINISHED", "postgres", "alice"));
+
+        // Then
+        verify(messagingTemplate, times(1)).convertAndSend(eq(QueryUpdatePublisher.DELTA_TOPIC), any(QueryUpdate.class));
+        assertThat(subscriptions.hasSubscribers(QueryUpdatePublisher.DELTA_TOPIC)).isFalse();
+        assertThat(subscriptions.getStats()).containsEntry("sessions", 1).containsEntry("destinations", 0);
+    }
+
+    @Test
+    @DisplayName("Should serialize each update once and send the same bytes to every destination")
+    @SuppressWarnings("unchecked")
+    void testSerializeOnceFanOut() throws Exception {
+        // Given
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        SerializedPayloadCache payloadCache = new SerializedPayloadCache(objectMapper);
+        publisher = new QueryUpdatePublisher(messagingTemplate, subscriptions, payloadCache);
+        subscriptions.subscribe("session-1", "sub-0", QueryUpdatePublisher.DELTA_TOPIC);
+        subscriptions.subscribe("session-2", "sub-0", "/topic/queries/query-1");
+        subscriptions.subscribe("session-3", "sub-0", "/topic/users/alice");
+        ArgumentCaptor<Message<byte[]>> messages = ArgumentCaptor.forClass(Message.class);
+
+        // When
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+
+        // Then
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+        verify(messagingTemplate, times(3)).send(anyString(), messages.capture());
+        byte[] payload = messages.getAllValues().get(0).getPayload();
+        assertThat(messages.getAllValues()).allSatisfy(message -> {
+            assertThat(message.getPayload()).isSameAs(payload);
+            assertThat(SimpMessageHeaderAccessor.wrap(message).getContentType())
+                    .isEqualTo(MimeTypeUtils.APPLICATION_JSON);
+        });
+        QueryUpdate update = objectMapper.readValue(payload, QueryUpdate.class);
+        assertThat(update.getType()).isEqualTo(QueryUpdate.Type.SNAPSHOT);
+        assertThat(update.getTree().getQueryId()).isEqualTo("query-1");
+    }
+
+    @Test
+    @DisplayName("Should send only the latest tree of a query per coalescing window")
+    void testCoalescing() {
+        // Given
+        startCoalescing(100);
+        subscriptions.subscribe("session-1", "sub-0", QueryUpdatePublisher.DELTA_TOPIC);
+        ArgumentCaptor<QueryUpdate> updates = ArgumentCaptor.forClass(QueryUpdate.class);
+
+        // When
+        publisher.publish("query-1", 1, createTree("query-1", "QUEUED", "postgres", "alice"));
+        publisher.publish("query-1", 2, createTree("query-1", "RUNNING", "postgres", "alice"));
+        publisher.publish("query-1", 3, createTree("query-1", "FINISHED", "postgres", "alice"));
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+        publisher.flush();
+
+        // Then
+        verify(messagingTemplate).convertAndSend(eq(QueryUpdatePublisher.DELTA_TOPIC), updates.capture());
+        assertThat(updates.getValue().getVersion()).isEqualTo(3);
+        assertThat(updates.getValue().getTree().getState()).isEqualTo("FINISHED");
+        assertThat(publisher.getStats()).containsEntry("coalescedUpdates", 2L).containsEntry("pendingQueries", 0);
+        publisher.stop();
+    }
+
+    @Test
+    @DisplayName("Should spend the message budget on state changes first and defer the rest")
+    void testBudgetPrioritizesStateChanges() {
+        // Given
+        startCoalescing(2);
+        subscriptions.subscribe("session-1", "sub-0", QueryUpdatePublisher.DELTA_TOPIC);
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+        publisher.publish("query-2", 1, createTree("query-2", "RUNNING", "postgres", "alice"));
+        publisher.flush();
+        ArgumentCaptor<QueryUpdate> updates = ArgumentCaptor.forClass(QueryUpdate.class);
+
+        // When
+        publisher.publish("query-1", 2, createTree("query-1", "RUNNING", "postgres", "alice"));
+        publisher.publish("query-2", 2, createTree("query-2", "FINISHED", "postgres", "alice"));
+        ReflectionTestUtils.setField(publisher, "tokens", 1.0);
+        publisher.flush();
+
+        // Then
+        verify(messagingTemplate, times(3)).convertAndSend(eq(QueryUpdatePublisher.DELTA_TOPIC), updates.capture());
+        QueryUpdate last = updates.getAllValues().get(2);
+        assertThat(last.getQueryId()).isEqualTo("query-2");
+        assertThat(last.getState()).isEqualTo("FINISHED");
+        assertThat(publisher.getStats()).containsEntry("deferredUpdates", 1L).containsEntry("pendingQueries", 1);
+        publisher.stop();
+    }
+
+    @Test
+    @DisplayName("Should replay updates missed since a sequence, including those nobody was subscribed to")
+    void testResumeReplaysMissedUpdates() {
+        // Given
+        ReflectionTestUtils.setField(publisher, "resumeBufferSize", 10);
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+        long lastSeen = publisher.getSequence();
+
+        // When
+        publisher.publish("query-2", 1, createTree("query-2", "RUNNING", "mongodb", "bob"));
+        publisher.publish("query-1", 2, createTree("query-1", "FINISHED", "postgres", "alice"));
+        publisher.remove("query-2");
+        List<QueryUpdate> missed = publisher.updatesSince(publisher.getEpoch(), lastSeen);
+
+        // Then
+        assertThat(missed).extracting(QueryUpdate::getQueryId, QueryUpdate::getType).containsExactly(
+                tuple("query-2", QueryUpdate.Type.SNAPSHOT),
+                tuple("query-1", QueryUpdate.Type.PATCH),
+                tuple("query-2", QueryUpdate.Type.REMOVED));
+        assertThat(missed).extracting(QueryUpdate::getSequence).isSorted().allMatch(sequence -> sequence > lastSeen);
+        assertThat(publisher.updatesSince(publisher.getEpoch(), publisher.getSequence())).isEmpty();
+        verify(messagingTemplate, never()).convertAndSend(anyString(), any(Object.class));
+    }
+
+    @Test
+    @DisplayName("Should require a snapshot when the missed updates are no longer buffered or from another run")
+    void testResumeOutsideBuffer() {
+        // Given
+        ReflectionTestUtils.setField(publisher, "resumeBufferSize", 2);
+        publisher.publish("query-1", 1, createTree("query-1", "RUNNING", "postgres", "alice"));
+        long lastSeen = publisher.getSequence();
+
+        // When
+        for (int version = 2; version <= 4; version++) {
+            publisher.publish("query-1", version, createTree("query-1", "RUNNING", "postgres", "alice"));
+        }
+
+        // Then
+        assertThat(publisher.updatesSince(publisher.getEpoch(), lastSeen)).isNull();
+        assertThat(publisher.updatesSince(publisher.getEpoch(), publisher.getSequence() - 2)).hasSize(2);
+        assertThat(publisher.updatesSince("another-run", publisher.getSequence())).isNull();
+        assertThat(publisher.updatesSince(publisher.getEpoch(), 0)).isNull();
+    }
+
+    // Helper methods
+
+    private void startCoalescing(int maxMessagesPerSecond) {
+        // Long window so only the test flushes
+        ReflectionTestUtils.setField(publisher, "coalesceWindowMs", 60_000L);
+        ReflectionTestUtils.setField(publisher, "maxMessagesPerSecond", maxMessagesPerSecond);
+        publisher.start();
+    }
+
+    private QueryTree createTree(String queryId, String state, String catalog, String user) {
+        return QueryTree.builder()
+                .queryId(queryId)
+                .query("SELECT 1")
+                .user(user)
+                .state(state)
+                .startTime(Instant.now())
+                .events(List.of(createEvent(queryId, state, catalog, user)))
+                .build();
+    }
+
+    private QueryEvent createEvent(String queryId, String state, String catalog, String user) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .state(state)
+                .catalog(catalog)
+                .user(user)
+                .timestamp(Instant.now())
+                .build();
+    }
+}
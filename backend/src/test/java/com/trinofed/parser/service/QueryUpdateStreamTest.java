@@ -0,0 +1,199 @@
+package com.trinofed.parser.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.trinofed.parser.controller.QueryStreamController;
+import com.trinofed.parser.model.QueryEvent;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for QueryUpdateStream
+ * Tests the Server-Sent Events feed, its initial state and Last-Event-ID resume
+ */
+class QueryUpdateStreamTest {
+
+    private QueryEventService service;
+    private QueryUpdatePublisher publisher;
+    private QueryUpdateStream stream;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        SerializedPayloadCache payloadCache = new SerializedPayloadCache(new ObjectMapper().registerModule(new JavaTimeModule()));
+        publisher = new QueryUpdatePublisher(mock(SimpMessagingTemplate.class), new SubscriptionRegistry(), payloadCache);
+        ReflectionTestUtils.setField(publisher, "resumeBufferSize", 100);
+        service = new QueryEventService(mock(SimpMessagingTemplate.class), mock(DatabaseService.class),
+                mock(QueryPlanParser.class), mock(TextPlanParser.class));
+        service.setUpdatePublisher(publisher);
+        stream = new QueryUpdateStream(service, publisher, payloadCache, 60_000, 10, 100, 1);
+        stream.start();
+        mockMvc = MockMvcBuilders.standaloneSetup(new QueryStreamController(stream)).build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stream.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should start a new stream with a reset and snapshots, then send live patches")
+    void testInitialSnapshotThenPatches() throws Exception {
+        // Given
+        service.processEvent(createEvent("query-1", "RUNNING"));
+
+        // When
+        MockHttpServletResponse response = open("/api/queries/stream", null);
+        awaitContent(response, "event:snapshot");
+        service.processEvent(createEvent("query-1", "FINISHED"));
+
+        // Then
+        String content = awaitContent(response, "event:patch");
+        assertThat(content).startsWith("id:" + publisher.getEpoch() + ":")
+                .contains("event:reset")
+                .contains("\"state\":\"FINISHED\"");
+        assertThat(content.indexOf("event:reset")).isLessThan(content.indexOf("event:snapshot"));
+    }
+
+    @Test
+    @DisplayName("Should resume from Last-Event-ID with only the missed updates")
+    void testResumeFromLastEventId() throws Exception {
+        // Given
+        service.processEvent(createEvent("query-1", "RUNNING"));
+        String lastEventId = publisher.getEpoch() + ":" + publisher.getSequence();
+        service.processEvent(createEvent("query-2", "RUNNING"));
+
+        // When
+        MockHttpServletResponse response = open("/api/queries/stream", lastEventId);
+
+        // Then
+        String content = awaitContent(response, "\"queryId\":\"query-2\"");
+        assertThat(content).doesNotContain("event:reset").doesNotContain("query-1");
+        assertThat(stream.getStats()).containsEntry("streams", 1);
+    }
+
+    @Test
+    @DisplayName("Should not repeat an update published while the resumed stream was being opened")
+    void testNoDuplicateWhileOpening() throws Exception {
+        // Given
+        service.processEvent(createEvent("query-1", "RUNNING"));
+        String lastEventId = publisher.getEpoch() + ":" + publisher.getSequence();
+        QueryEventService racing = spy(service);
+        doAnswer(invocation -> {
+            // Reaches the registered stream live and is also in the replay
+            service.processEvent(createEvent("query-2", "RUNNING"));
+            return invocation.callRealMethod();
+        }).when(racing).resume(any(), anyLong());
+        stream.shutdown();
+        SerializedPayloadCache payloadCache = new SerializedPayloadCache(new ObjectMapper().registerModule(new JavaTimeModule()));
+        stream = new QueryUpdateStream(racing, publisher, payloadCache, 60_000, 10, 100, 1);
+        stream.start();
+        mockMvc = MockMvcBuilders.standaloneSetup(new QueryStreamController(stream)).build();
+
+        // When
+        MockHttpServletResponse response = open("/api/queries/stream", lastEventId);
+        awaitContent(response, "\"queryId\":\"query-2\"");
+        service.processEvent(createEvent("query-3", "RUNNING"));
+
+        // Then
+        String content = awaitContent(response, "\"queryId\":\"query-3\"");
+        assertThat(content.split("\"type\":\"SNAPSHOT\",\"queryId\":\"query-2\"", -1)).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Should send only summaries and removals on the summary feed")
+    void testSummaryFeed() throws Exception {
+        // Given
+        MockHttpServletResponse response = open("/api/queries/stream?feed=summaries", null);
+        awaitContent(response, "event:reset");
+
+        // When
+        service.processEvent(createEvent("query-1", "RUNNING"));
+        service.processEvent(createEvent("query-1", "FINISHED"));
+
+        // Then
+        String content = awaitContent(response, "\"state\":\"FINISHED\"");
+        assertThat(content).contains("event:summary")
+                .doesNotContain("event:snapshot")
+                .doesNotContain("event:patch");
+    }
+
+    @Test
+    @DisplayName("Should send heartbeats from its own scheduler")
+    void testHeartbeats() throws Exception {
+        // Given
+        stream.shutdown();
+        SerializedPayloadCache payloadCache = new SerializedPayloadCache(new ObjectMapper().registerModule(new JavaTimeModule()));
+        stream = new QueryUpdateStream(service, publisher, payloadCache, 60_000, 10, 100, 1);
+        ReflectionTestUtils.setField(stream, "heartbeatMs", 20L);
+        stream.start();
+        mockMvc = MockMvcBuilders.standaloneSetup(new QueryStreamController(stream)).build();
+
+        // When
+        MockHttpServletResponse response = open("/api/queries/stream", null);
+
+        // Then
+        awaitContent(response, ":heartbeat");
+    }
+
+    @Test
+    @DisplayName("Should reject unknown feeds")
+    void testUnknownFeed() throws Exception {
+        mockMvc.perform(get("/api/queries/stream").param("feed", "everything"))
+                .andExpect(status().isBadRequest());
+    }
+
+    // Helper methods
+
+    private MockHttpServletResponse open(String url, String lastEventId) throws Exception {
+        var request = get(url);
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", lastEventId);
+        }
+        return mockMvc.perform(request)
+                .andExpect(request().asyncStarted())
+                .andReturn()
+                .getResponse();
+    }
+
+    private String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        String content = response.getContentAsString();
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = response.getContentAsString();
+        }
+        assertThat(content).contains(expected);
+        return content;
+    }
+
+    private QueryEvent createEvent(String queryId, String state) {
+        return QueryEvent.builder()
+                .queryId(queryId)
+                .query("SELECT * FROM users")
+                .user("test-user")
+                .state(state)
+                .eventType("QueryCreated")
+                .timestamp(Instant.now())
+                .metadata(new HashMap<>())
+                .build();
+    }
+}
@@ -0,0 +1,461 @@
+package com.trinofed.parser.service;
+
+import com.trinofed.parser.model.Fragment;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Unit tests for TextPlanParser
+ * Tests fragment headers, metrics lines, metadata and operator lines of text plans, and that the
+ * scanner parses like the regular expressions it replaced
+ */
+class TextPlanParserTest {
+
+    // Pieces of plans, including near misses of every field and line the parser looks for
+    private static final String[] PLAN_TOKENS = {
+            "Fragment ", "0", "1", "12", "3 ", " [", "[", "]", "SOURCE", "HASH", " ", "  ", "\t", "\n", "\r", "\n", "\n",
+            "CPU: ", "Scheduled: ", "Blocked ", "Blocked", "Blocked  ", "Input: ", "Output: ", " rows (", "(", ")", ",", ", ",
+            "Peak Memory: ", "Tasks count: ", "1.23", "4", ".", "..", "0.00", "1.66", "36.23", "99999999999999999999",
+            "1234567890.123456789", "ms", "s", "m", "ns", "us", "h", "B", "kB", "KB", "MB", "GB", "TB", "b", "k", "NaN",
+            "null", "NULL", "Output layout: [", "Output layout:", "Output partitioning: ", "Output partitioning:",
+            "Input avg.:", "Output avg.:", "Output[", "└─ ", "│ ", "LocalMerge", "Aggregate", "TableScan", "RemoteSource",
+            "RemoteMerge", "PartialSort", "Project", "InnerJoin", "ScanFilter", "x", "\u0085", "ẗ", "ß", "2147483648",
+            "9223372036854775808", "1e5", "-1", "0.1", "0.3", "5."
+    };
+
+    private TextPlanParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new TextPlanParser();
+    }
+
+    @Test
+    @DisplayName("Should parse fragments with metrics, sorted by descending id")
+    void testParseFragments() {
+        // Given
+        String plan = """
+            Query 20240101_000000_00001_abcde, FINISHED
+            Fragment 0 [SINGLE]
+                CPU: 12.34ms, Scheduled: 1.50s, Blocked 250.00ms (Input: 200.00ms, Output: 0.00ns), Input: 1000 rows (45.21kB); per task: avg.: 1000.00 std.dev.: 0.00, Output: 10 rows (1.5MB)
+                Peak Memory: 2.25GB, Tasks count: 1
+                Output layout: [orderkey, totalprice]
+                Output partitioning: SINGLE []
+                Output[columnNames = [orderkey, totalprice]]
+                │   Layout: [orderkey:bigint, totalprice:double]
+                └─ RemoteSource[sourceFragmentIds = [1]]
+            Fragment 1 [HASH]
+                CPU: 2.00s, Scheduled: 3.00s, Input: 5 rows (45B), Output: 5 rows (45B)
+                Input avg.: 5.00 rows, Input std.dev.: 0.00%
+                    TableScan[table = tpch:tiny:orders]
+            """;
+
+        // When
+        List<Fragment> fragments = parser.parseTextPlan(plan);
+
+        // Then
+        assertThat(fragments).extracting(Fragment::getFragmentId).containsExactly(1, 0);
+
+        Fragment root = fragments.get(1);
+        assertThat(root.getPartitioningType()).isEqualTo("SINGLE");
+        assertThat(root.getCpuTime()).isEqualTo("12.34ms");
+        assertThat(root.getCpuTimeMs()).isEqualTo(12.34);
+        assertThat(root.getScheduledTime()).isEqualTo("1.50s");
+        assertThat(root.getScheduledTimeMs()).isEqualTo(1500.0);
+        assertThat(root.getBlockedTime()).isEqualTo("250.00ms");
+        assertThat(root.getBlockedTimeMs()).isEqualTo(250.0);
+        assertThat(root.getInputRows()).isEqualTo(1000L);
+        assertThat(root.getInputBytes()).isEqualTo("45.21kB");
+        assertThat(root.getInputBytesValue()).isEqualTo((long) (45.21 * 1024));
+        assertThat(root.getOutputRows()).isEqualTo(10L);
+        assertThat(root.getOutputBytesValue()).isEqualTo((long) (1.5 * 1024 * 1024));
+        // Only the line after the header is the metrics line
+        assertThat(root.getPeakMemory()).isNull();
+        assertThat(root.getOutputLayout()).isEqualTo("orderkey, totalprice");
+        assertThat(root.getOutputPartitioning()).isEqualTo("SINGLE []");
+        assertThat(root.getOperators()).containsExactly(
+                "    Output[columnNames = [orderkey, totalprice]]",
+                "    │   Layout: [orderkey:bigint, totalprice:double]",
+                "    └─ RemoteSource[sourceFragmentIds = [1]]");
+
+        Fragment source = fragments.get(0);
+        assertThat(source.getPartitioningType()).isEqualTo("HASH");
+        assertThat(source.getCpuTimeMs()).isEqualTo(2000.0);
+        assertThat(source.getBlockedTime()).isNull();
+        assertThat(source.getInputBytesValue()).isEqualTo(45L);
+        assertThat(source.getOperators()).containsExactly("        TableScan[table = tpch:tiny:orders]");
+    }
+
+    @Test
+    @DisplayName("Should parse peak memory, task count and blocked time in minutes")
+    void testParseMemoryTasksAndMinutes() {
+        // Given
+        String plan = "Fragment 2 [SOURCE]\n"
+                + "    CPU: 1.66m, Blocked 1.66m (Input: 36.23s, Output: 0.00ns), Peak Memory:  352.59 kB , Tasks count: 16\n";
+
+        // When
+        Fragment fragment = parser.parseTextPlan(plan).get(0);
+
+        // Then
+        // Minutes are only understood for blocked time
+        assertThat(fragment.getCpuTime()).isNull();
+        assertThat(fragment.getBlockedTime()).isEqualTo("1.66m");
+        assertThat(fragment.getBlockedTimeMs()).isEqualTo(1.66 * 60.0 * 1000.0);
+        assertThat(fragment.getPeakMemory()).isEqualTo("352.59 kB");
+        assertThat(fragment.getPeakMemoryBytes()).isEqualTo((long) (352.59 * 1024));
+        assertThat(fragment.getTaskCount()).isEqualTo(16);
+    }
+
+    @Test
+    @DisplayName("Should take each metric from its first well-formed occurrence")
+    void testFirstWellFormedOccurrence() {
+        // Given
+        String plan = "Fragment 3 [HASH]\n"
+                + "CPU: 5m, CPU: 7s, Blocked  2.00s, Blocked 3ms, Input: 1.00ns, Input: 7 rows (NaN B), "
+                + "Output: 8 rows (null), Tasks count: x, Tasks count: 4\n";
+
+        // When
+        Fragment fragment = parser.parseTextPlan(plan).get(0);
+
+        // Then
+        assertThat(fragment.getCpuTime()).isEqualTo("7s");
+        assertThat(fragment.getBlockedTime()).isEqualTo("3ms");
+        assertThat(fragment.getInputRows()).isEqualTo(7L);
+        assertThat(fragment.getInputBytes()).isEqualTo("NaN B");
+        assertThat(fragment.getInputBytesValue()).isZero();
+        assertThat(fragment.getOutputBytes()).isEqualTo("null");
+        assertThat(fragment.getOutputBytesValue()).isZero();
+        assertThat(fragment.getTaskCount()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Should parse byte sizes of every unit, case-insensitively")
+    void testByteUnits() {
+        // Given
+        String plan = "Fragment 0 [SINGLE]\n"
+                + "Input: 1 rows (0.5 tb), Output: 1 rows (about 3 GB or more)\n"
+                + "Fragment 1 [SINGLE]\n"
+                + "Input: 1 rows (12 rows), Output: 1 rows (1.2.3x, 7B)\n";
+
+        // When
+        List<Fragment> fragments = parser.parseTextPlan(plan);
+
+        // Then
+        assertThat(fragments.get(1).getInputBytesValue()).isEqualTo((long) (0.5 * 1024L * 1024 * 1024 * 1024));
+        assertThat(fragments.get(1).getOutputBytesValue()).isEqualTo(3L * 1024 * 1024 * 1024);
+        assertThat(fragments.get(0).getInputBytesValue()).isZero();
+        assertThat(fragments.get(0).getOutputBytesValue()).isEqualTo(7L);
+    }
+
+    @Test
+    @DisplayName("Should keep malformed headers and text before the first fragment out of the plan")
+    void testMalformedHeaders() {
+        // Given
+        String plan = "TableScan[table = ignored]\r\n"
+                + "Fragment x [SINGLE]\n"
+                + "Fragment 4 []\n"
+                + "  Fragment 5 [ROUND_ROBIN]  \r\n"
+                + "CPU: 1.5ms\r\n"
+                + "Output partitioning: ROUND_ROBIN\r\n"
+                + "ScanFilter[table = t]\r\n";
+
+        // When
+        List<Fragment> fragments = parser.parseTextPlan(plan);
+
+        // Then
+        assertThat(fragments).hasSize(1);
+        Fragment fragment = fragments.get(0);
+        assertThat(fragment.getFragmentId()).isEqualTo(5);
+        assertThat(fragment.getPartitioningType()).isEqualTo("ROUND_ROBIN");
+        assertThat(fragment.getCpuTimeMs()).isEqualTo(1.5);
+        assertThat(fragment.getOutputPartitioning()).isEqualTo("ROUND_ROBIN");
+        assertThat(fragment.getOperators()).containsExactly("ScanFilter[table = t]\r");
+    }
+
+    @Test
+    @DisplayName("Should return an empty list for blank plans")
+    void testBlankPlan() {
+        assertThat(parser.parseTextPlan(null)).isEmpty();
+        assertThat(parser.parseTextPlan(" \n\t\r\n")).isEmpty();
+        assertThat(parser.parseTextPlan("no fragments here")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should parse random plans like the regular expressions it replaced")
+    void testEquivalentToRegexParser() {
+        // Given
+        RegexTextPlanParser regexParser = new RegexTextPlanParser();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            // When
+            String plan = randomPlan(random);
+
+            // Then
+            assertThat(parseOrFailure(parser::parseTextPlan, plan)).as(plan)
+                    .isEqualTo(parseOrFailure(regexParser::parseTextPlan, plan));
+        }
+        for (int i = 0; i < 50_000; i++) {
+            // When
+            String number = randomNumber(random);
+            String plan = "Fragment 1 [X]\nCPU: " + number + "s, Input: 5 rows (" + number + "kB)";
+
+            // Then
+            assertThat(parseOrFailure(parser::parseTextPlan, plan)).as(plan)
+                    .isEqualTo(parseOrFailure(regexParser::parseTextPlan, plan));
+        }
+    }
+
+    /**
+     * Compares the scanner with the regular expressions it replaced on a plan of 40 fragments.
+     * Opt-in, as it only reports timings; coverage instrumentation slows the scanner down, so run it with
+     * {@code mvn test -Dtest=TextPlanParserTest#benchmarkAgainstRegexParser -Dbenchmark=true -Djacoco.skip=true}
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    @DisplayName("Should parse large plans faster than the regular expressions")
+    void benchmarkAgainstRegexParser() {
+        // Given
+        RegexTextPlanParser regexParser = new RegexTextPlanParser();
+        String plan = createLargePlan();
+        assertThat(parser.parseTextPlan(plan)).isEqualTo(regexParser.parseTextPlan(plan));
+
+        // When
+        double regexMicros = 0;
+        double scannerMicros = 0;
+        for (int round = 0; round < 12; round++) {
+            regexMicros = averageMicros(regexParser::parseTextPlan, plan, 3000);
+            scannerMicros = averageMicros(parser::parseTextPlan, plan, 3000);
+            System.out.printf("Round %d: regex %.1f us, scanner %.1f us, %.1fx%n",
+                    round, regexMicros, scannerMicros, regexMicros / scannerMicros);
+        }
+
+        // Then
+        assertThat(scannerMicros).isLessThan(regexMicros);
+    }
+
+    // Helper methods
+
+    private String randomPlan(Random random) {
+        StringBuilder plan = new StringBuilder();
+        int tokens = random.nextInt(60);
+        for (int i = 0; i < tokens; i++) {
+            plan.append(PLAN_TOKENS[random.nextInt(PLAN_TOKENS.length)]);
+        }
+        return plan.toString();
+    }
+
+    // Integer part, fraction or both, around the 15 digits that are parsed exactly
+    private String randomNumber(Random random) {
+        String integer = random.nextInt(3) == 0 ? "" : Long.toString(random.nextLong() & ((1L << random.nextInt(55)) - 1));
+        String fraction = random.nextBoolean() || integer.isEmpty()
+                ? "." + (random.nextLong() & ((1L << random.nextInt(50)) - 1)) : "";
+        return integer + fraction;
+    }
+
+    // The fragments, or the type of exception the plan fails with
+    private Object parseOrFailure(Function<String, List<Fragment>> parse, String plan) {
+        try {
+            return parse.apply(plan);
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    private double averageMicros(Function<String, List<Fragment>> parse, String plan, int iterations) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            parse.apply(plan);
+        }
+        return (System.nanoTime() - start) / (iterations * 1000.0);
+    }
+
+    private String createLargePlan() {
+        StringBuilder plan = new StringBuilder();
+        for (int fragment = 0; fragment < 40; fragment++) {
+            plan.append("Fragment ").append(fragment).append(" [HASH]\n")
+                    .append("    CPU: 1.66s, Scheduled: 2.45m, Blocked 1.66m (Input: 36.23s, Output: 0.00ns), ")
+                    .append("Input: 123456 rows (352.59kB); per task: avg.: 1.00 std.dev.: 0.00, Output: 1000 rows (45.21kB)\n")
+                    .append("    Amplification: 1.00, Peak Memory: 1.23MB, Tasks count: 8\n")
+                    .append("    Output layout: [orderkey, custkey, totalprice]\n")
+                    .append("    Output partitioning: HASH [orderkey]\n");
+            for (int operator = 0; operator < 10; operator++) {
+                plan.append("    └─ Aggregate[type = FINAL, keys = [orderkey]]\n")
+                        .append("        │   Layout: [orderkey:bigint]\n")
+                        .append("        │   CPU: 1.00ms (0.01%), Scheduled: 2.00ms\n")
+                        .append("        │   Input avg.: 10 rows, Input std.dev.: 0.00%\n");
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * The regular expression based parser that {@link TextPlanParser} replaced, kept as the
+     * reference for what plans parse to.
+     */
+    private static class RegexTextPlanParser {
+
+        private static final Pattern FRAGMENT_HEADER_PATTERN = Pattern.compile("^Fragment (\\d+) \\[([^]]+)]");
+        private static final Pattern CPU_PATTERN = Pattern.compile("CPU: ([0-9.]+)(ms|s)");
+        private static final Pattern SCHEDULED_PATTERN = Pattern.compile("Scheduled: ([0-9.]+)(ms|s)");
+        private static final Pattern BLOCKED_PATTERN = Pattern.compile("Blocked ([0-9.]+)(ms|s)");
+        private static final Pattern LOOSE_BLOCKED_PATTERN = Pattern.compile("Blocked\\s+([0-9.]+)(ms|s|m)");
+        private static final Pattern INPUT_PATTERN = Pattern.compile("Input: (\\d+) rows \\(([^)]+)\\)");
+        private static final Pattern OUTPUT_PATTERN = Pattern.compile("Output: (\\d+) rows \\(([^)]+)\\)");
+        private static final Pattern PEAK_MEMORY_PATTERN = Pattern.compile("Peak Memory: ([^,]+)");
+        private static final Pattern TASKS_PATTERN = Pattern.compile("Tasks count: (\\d+)");
+        private static final Pattern OUTPUT_LAYOUT_PATTERN = Pattern.compile("Output layout: \\[([^\\]]+)]");
+        private static final Pattern OUTPUT_PARTITIONING_PATTERN = Pattern.compile("Output partitioning: (.+)");
+        private static final Pattern BYTES_PATTERN = Pattern.compile("([0-9.]+|NaN)\\s*([KMGT]?B)");
+        private static final String[] OPERATOR_PREFIXES = {
+                "Output[", "└─", "│", "LocalMerge", "Aggregate", "TableScan", "RemoteSource", "RemoteMerge",
+                "PartialSort", "Project", "InnerJoin", "ScanFilter"
+        };
+
+        List<Fragment> parseTextPlan(String planText) {
+            if (planText == null || planText.trim().isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            List<Fragment> fragments = new ArrayList<>();
+            String[] lines = planText.split("\n");
+            Fragment currentFragment = null;
+            List<String> currentOperators = new ArrayList<>();
+
+            for (int i = 0; i < lines.length; i++) {
+                String line = lines[i];
+                Matcher fragmentMatcher = FRAGMENT_HEADER_PATTERN.matcher(line.trim());
+                if (fragmentMatcher.find()) {
+                    if (currentFragment != null) {
+                        currentFragment.setOperators(new ArrayList<>(currentOperators));
+                        fragments.add(currentFragment);
+                    }
+                    currentFragment = Fragment.builder()
+                            .fragmentId(Integer.parseInt(fragmentMatcher.group(1)))
+                            .partitioningType(fragmentMatcher.group(2))
+                            .build();
+                    currentOperators.clear();
+
+                    if (i + 1 < lines.length) {
+                        parseFragmentMetrics(currentFragment, lines[i + 1]);
+                        i++;
+                    }
+                } else if (currentFragment != null) {
+                    String trimmedLine = line.trim();
+                    if (trimmedLine.isEmpty() || trimmedLine.startsWith("Input avg.:") || trimmedLine.startsWith("Output avg.:")) {
+                        continue;
+                    }
+                    if (trimmedLine.startsWith("Output layout:")) {
+                        Matcher layoutMatcher = OUTPUT_LAYOUT_PATTERN.matcher(line);
+                        if (layoutMatcher.find()) {
+                            currentFragment.setOutputLayout(layoutMatcher.group(1));
+                        }
+                    } else if (trimmedLine.startsWith("Output partitioning:")) {
+                        Matcher partitioningMatcher = OUTPUT_PARTITIONING_PATTERN.matcher(line);
+                        if (partitioningMatcher.find()) {
+                            currentFragment.setOutputPartitioning(partitioningMatcher.group(1));
+                        }
+                    } else if (Arrays.stream(OPERATOR_PREFIXES).anyMatch(trimmedLine::startsWith)) {
+                        currentOperators.add(line);
+                    }
+                }
+            }
+
+            if (currentFragment != null) {
+                currentFragment.setOperators(new ArrayList<>(currentOperators));
+                fragments.add(currentFragment);
+            }
+            fragments.sort((a, b) -> Integer.compare(b.getFragmentId(), a.getFragmentId()));
+            return fragments;
+        }
+
+        private void parseFragmentMetrics(Fragment fragment, String metricsLine) {
+            Matcher cpuMatcher = CPU_PATTERN.matcher(metricsLine);
+            if (cpuMatcher.find()) {
+                fragment.setCpuTime(cpuMatcher.group(1) + cpuMatcher.group(2));
+                fragment.setCpuTimeMs(parseTimeToMs(cpuMatcher.group(1), cpuMatcher.group(2)));
+            }
+
+            Matcher scheduledMatcher = SCHEDULED_PATTERN.matcher(metricsLine);
+            if (scheduledMatcher.find()) {
+                fragment.setScheduledTime(scheduledMatcher.group(1) + scheduledMatcher.group(2));
+                fragment.setScheduledTimeMs(parseTimeToMs(scheduledMatcher.group(1), scheduledMatcher.group(2)));
+            }
+
+            Matcher blockedMatcher = BLOCKED_PATTERN.matcher(metricsLine);
+            if (!blockedMatcher.find()) {
+                blockedMatcher = LOOSE_BLOCKED_PATTERN.matcher(metricsLine);
+                if (!blockedMatcher.find()) {
+                    blockedMatcher = null;
+                }
+            }
+            if (blockedMatcher != null) {
+                fragment.setBlockedTime(blockedMatcher.group(1) + blockedMatcher.group(2));
+                fragment.setBlockedTimeMs(parseTimeToMs(blockedMatcher.group(1), blockedMatcher.group(2)));
+            }
+
+            Matcher inputMatcher = INPUT_PATTERN.matcher(metricsLine);
+            if (inputMatcher.find()) {
+                fragment.setInputRows(Long.parseLong(inputMatcher.group(1)));
+                fragment.setInputBytes(inputMatcher.group(2));
+                fragment.setInputBytesValue(parseBytesToLong(inputMatcher.group(2)));
+            }
+
+            Matcher outputMatcher = OUTPUT_PATTERN.matcher(metricsLine);
+            if (outputMatcher.find()) {
+                fragment.setOutputRows(Long.parseLong(outputMatcher.group(1)));
+                fragment.setOutputBytes(outputMatcher.group(2));
+                fragment.setOutputBytesValue(parseBytesToLong(outputMatcher.group(2)));
+            }
+
+            Matcher memoryMatcher = PEAK_MEMORY_PATTERN.matcher(metricsLine);
+            if (memoryMatcher.find()) {
+                String memoryStr = memoryMatcher.group(1).trim();
+                fragment.setPeakMemory(memoryStr);
+                fragment.setPeakMemoryBytes(parseBytesToLong(memoryStr));
+            }
+
+            Matcher tasksMatcher = TASKS_PATTERN.matcher(metricsLine);
+            if (tasksMatcher.find()) {
+                fragment.setTaskCount(Integer.parseInt(tasksMatcher.group(1)));
+            }
+        }
+
+        private double parseTimeToMs(String value, String unit) {
+            double val = Double.parseDouble(value);
+            return switch (unit) {
+                case "s" -> val * 1000.0;
+                case "m" -> val * 60.0 * 1000.0;
+                default -> val;
+            };
+        }
+
+        private long parseBytesToLong(String bytesStr) {
+            if (bytesStr.trim().isEmpty() || bytesStr.trim().equalsIgnoreCase("null")) {
+                return 0L;
+            }
+            Matcher matcher = BYTES_PATTERN.matcher(bytesStr.trim().toUpperCase());
+            if (!matcher.find() || matcher.group(1).equalsIgnoreCase("NAN")) {
+                return 0L;
+            }
+            double value = Double.parseDouble(matcher.group(1));
+            return switch (matcher.group(2)) {
+                case "B" -> (long) value;
+                case "KB" -> (long) (value * 1024);
+                case "MB" -> (long) (value * 1024 * 1024);
+                case "GB" -> (long) (value * 1024 * 1024 * 1024);
+                case "TB" -> (long) (value * 1024L * 1024 * 1024 * 1024);
+                default -> 0L;
+            };
+        }
+    }
+}
@@ -549,7 +549,12 @@ const TreePage: React.FC = () => {
           setLoading(false);
           return;
         }
-        queryToDisplay = queries[queries.length - 1];
+        const latest = queries[queries.length - 1];
+        if (currentQuery?.queryId === latest.queryId && currentQuery?.state === latest.state) {
+          return;
+        }
+        // The list leaves out plan text and fragments, so load the query itself
+        queryToDisplay = await apiService.getQueryById(latest.queryId);
       }
 
       if (currentQuery?.queryId !== queryToDisplay.queryId) {